@@ -60,8 +60,19 @@ public class CustomerController {
     }
 
     @GetMapping("/leaderboard")
-    public ResponseEntity<List<LeaderboardUiEntry>> getReferralsLeaders() {
-        List<LeaderboardUiEntry> leaderboard = customerService.getLeaderboard();
+    public ResponseEntity<List<LeaderboardUiEntry>> getReferralsLeaders(
+            @RequestParam(value = "window", required = false) String window,
+            @RequestParam(value = "offset", required = false) Integer offset,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        List<LeaderboardUiEntry> leaderboard;
+        if (window == null && offset == null && limit == null) {
+            leaderboard = customerService.getLeaderboard();
+        } else if (window == null) {
+            leaderboard = customerService.getLeaderboard(offset == null ? 0 : offset, limit == null ? 5 : limit);
+        } else {
+            leaderboard = customerService.getLeaderboard(window,
+                    offset == null ? 0 : offset, limit == null ? 5 : limit);
+        }
         return ResponseEntity.ok(leaderboard);
     }
 
@@ -5,7 +5,6 @@ import com.kenzie.marketing.application.controller.model.CustomerResponse;
 import com.kenzie.marketing.application.controller.model.LeaderboardUiEntry;
 import com.kenzie.marketing.application.repositories.CustomerRepository;
 import com.kenzie.marketing.application.repositories.model.CustomerRecord;
-import com.kenzie.marketing.referral.model.CustomerReferrals;
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.model.Referral;
 import com.kenzie.marketing.referral.model.ReferralRequest;
@@ -29,9 +28,8 @@ import static java.util.UUID.randomUUID;
 
 @Service
 public class CustomerService {
-    private static final Double REFERRAL_BONUS_FIRST_LEVEL = 10.0;
-    private static final Double REFERRAL_BONUS_SECOND_LEVEL = 3.0;
-    private static final Double REFERRAL_BONUS_THIRD_LEVEL = 1.0;
+    // The bonus for each referral, starting with direct referrals. Add a weight to pay out on a deeper level.
+    private static final List<Double> REFERRAL_BONUS_WEIGHTS = List.of(10.0, 3.0, 1.0);
 
     private final CustomerRepository customerRepository;
     private final ReferralServiceClient referralServiceClient;
@@ -116,18 +114,12 @@ public class CustomerService {
 
     /**
      * calculateBonus - This calculates the referral bonus for the given customer according to the referral bonus
-     * constants.
+     * weights. The referral service counts the levels and weighs them in a single call.
      * @param customerId
      * @return
      */
     public Double calculateBonus(String customerId) {
-        CustomerReferrals referrals = referralServiceClient.getReferralSummary(customerId);
-
-        Double calculationResult = REFERRAL_BONUS_FIRST_LEVEL * referrals.getNumFirstLevelReferrals() +
-                REFERRAL_BONUS_SECOND_LEVEL * referrals.getNumSecondLevelReferrals() +
-                REFERRAL_BONUS_THIRD_LEVEL * referrals.getNumThirdLevelReferrals();
-
-        return calculationResult;
+        return referralServiceClient.getReferralBonus(customerId, REFERRAL_BONUS_WEIGHTS).getBonus();
     }
 
     /**
@@ -163,6 +155,35 @@ public class CustomerService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * getLeaderboard - This returns one page of the referral leaderboard. The referral service leaves out customers
+     * without referrals, so every page is full until the ranked customers run out.
+     * @param offset - The number of entries to skip
+     * @param limit - The maximum number of entries to return
+     * @return
+     */
+    public List<LeaderboardUiEntry> getLeaderboard(int offset, int limit) {
+        return referralServiceClient.getLeaderboard(offset, limit)
+                .stream()
+                .map(this::toLeaderboardUI)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * getLeaderboard - This returns one page of the referral leaderboard counting only the referrals made in the
+     * given window.
+     * @param window - One of ALL_TIME, DAY, WEEK or MONTH
+     * @param offset - The number of entries to skip
+     * @param limit - The maximum number of entries to return
+     * @return
+     */
+    public List<LeaderboardUiEntry> getLeaderboard(String window, int offset, int limit) {
+        return referralServiceClient.getLeaderboard(window, offset, limit)
+                .stream()
+                .map(this::toLeaderboardUI)
+                .collect(Collectors.toList());
+    }
+
     /* -----------------------------------------------------------------------------------------------------------
         Private Methods
        ----------------------------------------------------------------------------------------------------------- */
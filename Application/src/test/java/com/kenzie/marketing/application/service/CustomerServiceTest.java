@@ -7,6 +7,7 @@ import com.kenzie.marketing.application.repositories.CustomerRepository;
 import com.kenzie.marketing.application.repositories.model.CustomerRecord;
 
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.model.ReferralBonus;
 import com.kenzie.marketing.referral.model.client.ReferralServiceClient;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -232,4 +233,41 @@ public class CustomerServiceTest {
         assertEquals(leaderboardUiEntry.size(), 1);
         assertEquals(leaderboardUiEntry.get(0).getCustomerName(), "No name present");
     }
+
+    @Test
+    void getLeaderboard_page_requestsThatPage() {
+        // GIVEN
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        LeaderboardEntry entry = new LeaderboardEntry();
+        entry.setCustomerId(UUID.randomUUID().toString());
+        entry.setNumReferrals(3);
+        entries.add(entry);
+
+        // WHEN
+        when(referralServiceClient.getLeaderboard(5, 10)).thenReturn(entries);
+        List<LeaderboardUiEntry> leaderboardUiEntry = customerService.getLeaderboard(5, 10);
+
+        // THEN
+        assertEquals(1, leaderboardUiEntry.size());
+        assertEquals(entry.getCustomerId(), leaderboardUiEntry.get(0).getCustomerId());
+        assertEquals(3, leaderboardUiEntry.get(0).getNumReferrals());
+    }
+
+    /** ------------------------------------------------------------------------
+     *  customerService.calculateBonus
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void calculateBonus_returnsBonusFromReferralService() {
+        // GIVEN
+        String customerId = randomUUID().toString();
+        ReferralBonus bonus = new ReferralBonus(customerId, List.of(2, 1, 0), 23.0);
+        when(referralServiceClient.getReferralBonus(customerId, List.of(10.0, 3.0, 1.0))).thenReturn(bonus);
+
+        // WHEN
+        Double result = customerService.calculateBonus(customerId);
+
+        // THEN
+        assertEquals(23.0, result);
+    }
 }
@@ -0,0 +1,108 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a cache read when every operation opens its own connection, as CacheClient used to, against
+ * borrowing one from the shared pool, and of reading a batch of keys one by one against one pipeline.
+ *
+ * Runs against a local Redis, e.g. {@code docker run -p 6379:6379 redis}. Set the {@code redis.host} system property
+ * to point somewhere else.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class CacheClientBenchmark {
+    private static final int PORT = 6379;
+    private static final int TIMEOUT_MILLIS = 20000;
+
+    @Param({"10"})
+    private int batchSize;
+
+    private String host;
+    private JedisPool pool;
+    private CacheClient cacheClient;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        host = System.getProperty("redis.host", "localhost");
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(8);
+        config.setMaxIdle(8);
+        pool = new JedisPool(config, host, PORT, TIMEOUT_MILLIS);
+        cacheClient = new CacheClient(pool);
+        keys = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            keys[i] = "CacheClientBenchmark::" + i;
+            cacheClient.setValue(keys[i], 60 * 60, "value" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        pool.close();
+    }
+
+    /**
+     * The old behaviour: a new pool, and so a new TCP connection, for every operation.
+     */
+    @Benchmark
+    public Optional<String> getValueConnectPerOperation() {
+        JedisPool perCallPool = new JedisPool(new JedisPoolConfig(), host, PORT, TIMEOUT_MILLIS);
+        try (Jedis cache = perCallPool.getResource()) {
+            return Optional.ofNullable(cache.get(keys[0]));
+        } finally {
+            perCallPool.close();
+        }
+    }
+
+    @Benchmark
+    public Optional<String> getValuePooled() {
+        return cacheClient.getValue(keys[0]);
+    }
+
+    @Benchmark
+    public int getBatchOneByOne() {
+        int found = 0;
+        for (String key : keys) {
+            if (cacheClient.getValue(key).isPresent()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<Object> getBatchPipelined() {
+        return cacheClient.pipelined(pipeline -> {
+            for (String key : keys) {
+                pipeline.get(key);
+            }
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON and binary cache formats for a referrer's list of referrals. The encoded size of each format
+ * is printed once per trial, since JMH only reports times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReferralListCodecBenchmark {
+    private static final Type RECORD_LIST_TYPE = new TypeToken<ArrayList<ReferralRecord>>() { }.getType();
+
+    @Param({"1", "10", "100"})
+    private int listSize;
+
+    private Gson gson;
+    private List<ReferralRecord> records;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        gson = CachingReferralDao.newGson();
+        records = new ArrayList<>();
+        String referrerId = UUID.randomUUID().toString();
+        for (int i = 0; i < listSize; i++) {
+            ReferralRecord record = new ReferralRecord();
+            record.setCustomerId(UUID.randomUUID().toString());
+            record.setReferrerId(referrerId);
+            record.setDateReferred(ZonedDateTime.now());
+            records.add(record);
+        }
+        json = gson.toJson(records).getBytes(StandardCharsets.UTF_8);
+        binary = ReferralListCodec.encode(records);
+        System.out.printf("%n%d referrals: JSON %d bytes, binary %d bytes%n", listSize, json.length, binary.length);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return gson.toJson(records).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<ReferralRecord> decodeJson() {
+        return gson.fromJson(new String(json, StandardCharsets.UTF_8), RECORD_LIST_TYPE);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return ReferralListCodec.encode(records);
+    }
+
+    @Benchmark
+    public List<ReferralRecord> decodeBinary() {
+        return ReferralListCodec.decode(binary);
+    }
+}
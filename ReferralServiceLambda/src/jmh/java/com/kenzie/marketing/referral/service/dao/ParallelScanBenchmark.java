@@ -0,0 +1,134 @@
+package com.kenzie.marketing.referral.service.dao;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long a full scan for root customers takes as the number of scan segments grows.
+ *
+ * Runs against DynamoDB Local, e.g. {@code docker run -p 8000:8000 amazon/dynamodb-local}. Set the
+ * {@code dynamodb.endpoint} system property to point somewhere else. Each table size is seeded once into its own
+ * table and reused by later runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelScanBenchmark {
+    private static final int ROOT_EVERY_N_RECORDS = 10;
+
+    @Param({"1", "2", "4", "8"})
+    private int segments;
+
+    @Param({"20000"})
+    private int tableSize;
+
+    private NonCachingReferralDao referralDao;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String endpoint = System.getProperty("dynamodb.endpoint", "http://localhost:8000");
+        AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard()
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, "us-east-1"))
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("local", "local")))
+                .build();
+        String tableName = "ReferralScanBenchmark_" + tableSize;
+        DynamoDBMapper mapper = new DynamoDBMapper(client, DynamoDBMapperConfig.builder()
+                .withTableNameOverride(DynamoDBMapperConfig.TableNameOverride.withTableNameReplacement(tableName))
+                .build());
+
+        if (!tableExists(client, tableName)) {
+            createTable(client, mapper);
+            seed(mapper);
+        }
+        referralDao = new NonCachingReferralDao(mapper, segments);
+    }
+
+    @Benchmark
+    public long streamRootCustomers() {
+        return referralDao.streamUsersWithoutReferrerId().count();
+    }
+
+    @Benchmark
+    public long scanRootCustomerPages() {
+        AtomicLong count = new AtomicLong();
+        referralDao.scanUsersWithoutReferrerId(page -> count.addAndGet(page.size()));
+        return count.get();
+    }
+
+    private boolean tableExists(AmazonDynamoDB client, String tableName) {
+        try {
+            client.describeTable(tableName);
+            return true;
+        } catch (ResourceNotFoundException e) {
+            return false;
+        }
+    }
+
+    private void createTable(AmazonDynamoDB client, DynamoDBMapper mapper) {
+        ProvisionedThroughput throughput = new ProvisionedThroughput(1000L, 1000L);
+        CreateTableRequest request = mapper.generateCreateTableRequest(ReferralRecord.class)
+                .withProvisionedThroughput(throughput);
+        for (GlobalSecondaryIndex index : request.getGlobalSecondaryIndexes()) {
+            index.withProvisionedThroughput(throughput)
+                    .withProjection(new Projection().withProjectionType(ProjectionType.ALL));
+        }
+        client.createTable(request);
+    }
+
+    private void seed(DynamoDBMapper mapper) {
+        Random random = new Random(42);
+        List<String> roots = new ArrayList<>();
+        List<ReferralRecord> batch = new ArrayList<>();
+        for (int i = 0; i < tableSize; i++) {
+            ReferralRecord record = new ReferralRecord();
+            record.setCustomerId("customer" + i);
+            record.setDateReferred(ZonedDateTime.now());
+            if (i % ROOT_EVERY_N_RECORDS == 0) {
+                roots.add(record.getCustomerId());
+            } else {
+                record.setReferrerId(roots.get(random.nextInt(roots.size())));
+            }
+            batch.add(record);
+            if (batch.size() == 500) {
+                mapper.batchSave(batch);
+                batch.clear();
+            }
+        }
+        mapper.batchSave(batch);
+    }
+}
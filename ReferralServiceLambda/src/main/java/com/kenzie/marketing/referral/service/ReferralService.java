@@ -2,15 +2,37 @@ package com.kenzie.marketing.referral.service;
 
 import com.kenzie.marketing.referral.model.CustomerReferrals;
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.model.LeaderboardRank;
 import com.kenzie.marketing.referral.model.Referral;
+import com.kenzie.marketing.referral.model.ReferralBonus;
 import com.kenzie.marketing.referral.model.ReferralRequest;
 import com.kenzie.marketing.referral.model.ReferralResponse;
 import com.kenzie.marketing.referral.service.comparator.ReferralComparator;
 import com.kenzie.marketing.referral.service.converter.ReferralConverter;
 import com.kenzie.marketing.referral.service.dao.ReferralDao;
+import com.kenzie.marketing.referral.service.dao.ReferralSummaryDao;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardIndex;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardMode;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardSnapshotCache;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardWindow;
+import com.kenzie.marketing.referral.service.leaderboard.TopKSelector;
+import com.kenzie.marketing.referral.service.leaderboard.WindowedLeaderboardIndex;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.model.ReferralSummaryRecord;
+import com.kenzie.marketing.referral.service.summary.ReferralSummaryMode;
+import com.kenzie.marketing.referral.service.summary.ReferralSummaryRebuilder;
+import com.kenzie.marketing.referral.service.summary.ReferralSummaryReport;
+import com.kenzie.marketing.referral.service.task.FanOutBatch;
+import com.kenzie.marketing.referral.service.task.FanOutExecutor;
+import com.kenzie.marketing.referral.service.task.FanOutReport;
+import com.kenzie.marketing.referral.service.task.FanOutResult;
 import com.kenzie.marketing.referral.service.task.ReferralTask;
+import com.kenzie.marketing.referral.service.task.ReferralLevelCounter;
+import com.kenzie.marketing.referral.service.task.ReferralTreeTraversal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import javax.inject.Inject;
 
@@ -19,73 +41,378 @@ import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 public class ReferralService {
+    private static final int LEADERBOARD_SIZE = 5;
+    private static final int MAX_LEADERBOARD_PAGE_SIZE = 100;
+    private static final int DEFAULT_CONCURRENCY = 16;
+    private static final int MAX_BONUS_DEPTH = 10;
+    private static final int MAX_SUMMARY_BATCH_SIZE = 500;
+
+    static final Logger log = LogManager.getLogger();
 
     private final ReferralDao referralDao;
-    private final ExecutorService executor;
+    private final FanOutExecutor fanOutExecutor;
+    private final LeaderboardMode leaderboardMode;
+    private final LeaderboardIndex leaderboardIndex;
+    private final LeaderboardSnapshotCache snapshotCache;
+    private final WindowedLeaderboardIndex windowedIndex;
+    private final ReferralLevelCounter levelCounter;
+    private final ReferralSummaryMode summaryMode;
+    private final ReferralSummaryDao summaryDao;
 
     @Inject
     public ReferralService(ReferralDao referralDao) {
-        this.referralDao = referralDao;
-        this.executor = Executors.newCachedThreadPool();
+        this(referralDao, FanOutExecutor.newBoundedPool(DEFAULT_CONCURRENCY));
     }
 
     // Necessary for testing, do not delete
     public ReferralService(ReferralDao referralDao, ExecutorService executor) {
+        this(referralDao, new FanOutExecutor(executor), LeaderboardMode.SCAN, null);
+    }
+
+    public ReferralService(ReferralDao referralDao, FanOutExecutor fanOutExecutor,
+                           LeaderboardMode leaderboardMode, LeaderboardIndex leaderboardIndex) {
+        this(referralDao, fanOutExecutor, leaderboardMode, leaderboardIndex, null, null);
+    }
+
+    public ReferralService(ReferralDao referralDao, FanOutExecutor fanOutExecutor,
+                           LeaderboardMode leaderboardMode, LeaderboardIndex leaderboardIndex,
+                           LeaderboardSnapshotCache snapshotCache, WindowedLeaderboardIndex windowedIndex) {
+        this(referralDao, fanOutExecutor, leaderboardMode, leaderboardIndex, snapshotCache, windowedIndex,
+                ReferralSummaryMode.TRAVERSAL, null);
+    }
+
+    /**
+     * @param fanOutExecutor shared with other services; it is never shut down by the ReferralService
+     * @param leaderboardIndex kept up to date on every addReferral when present, and used to answer leaderboard
+     *                         reads in the indexed modes. May be null in the scan modes.
+     * @param snapshotCache when present, scanned leaderboards are served from a snapshot that one reader at a time
+     *                      refreshes once it is stale. May be null to compute the leaderboard on every read.
+     * @param windowedIndex when present, counts referrals per day so that daily, weekly and monthly leaderboards
+     *                      can be read. May be null to only offer the all-time leaderboard.
+     * @param summaryDao reads the referral summary counters in COUNTERS mode, and rebuilds them in any mode. May be
+     *                   null in TRAVERSAL mode.
+     */
+    public ReferralService(ReferralDao referralDao, FanOutExecutor fanOutExecutor,
+                           LeaderboardMode leaderboardMode, LeaderboardIndex leaderboardIndex,
+                           LeaderboardSnapshotCache snapshotCache, WindowedLeaderboardIndex windowedIndex,
+                           ReferralSummaryMode summaryMode, ReferralSummaryDao summaryDao) {
+        if (leaderboardMode.isIndexed() && leaderboardIndex == null) {
+            throw new IllegalArgumentException("A LeaderboardIndex is required in " + leaderboardMode + " mode");
+        }
+        if (summaryMode == ReferralSummaryMode.COUNTERS && summaryDao == null) {
+            throw new IllegalArgumentException("A ReferralSummaryDao is required in " + summaryMode + " mode");
+        }
         this.referralDao = referralDao;
-        this.executor = executor;
+        this.fanOutExecutor = fanOutExecutor;
+        this.leaderboardMode = leaderboardMode;
+        this.leaderboardIndex = leaderboardIndex;
+        this.snapshotCache = snapshotCache;
+        this.windowedIndex = windowedIndex;
+        // A DAO that holds the whole graph in memory counts levels itself instead of looking up each level
+        this.levelCounter = referralDao instanceof ReferralLevelCounter
+                ? (ReferralLevelCounter) referralDao
+                : new ReferralTreeTraversal(referralDao);
+        this.summaryMode = summaryMode;
+        this.summaryDao = summaryDao;
     }
 
     public List<LeaderboardEntry> getReferralLeaderboard() {
+        return getReferralLeaderboard(0, LEADERBOARD_SIZE);
+    }
+
+    /**
+     * Returns the first page of the leaderboard only if it can be read without computing it, from the index or
+     * from a stored snapshot of any age.
+     * @return the leaderboard entries, best first, or an empty list
+     */
+    public List<LeaderboardEntry> peekReferralLeaderboard() {
+        if (leaderboardMode.isIndexed()) {
+            return leaderboardIndex.page(0, LEADERBOARD_SIZE);
+        }
+        if (snapshotCache != null) {
+            return snapshotCache.peek();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Returns one page of the leaderboard, best first. Customers without any referrals are left out, so every
+     * page is full until the ranked customers run out.
+     * @param offset the number of entries to skip
+     * @param limit the maximum number of entries to return, at most 100
+     * @return the leaderboard entries in the page
+     */
+    public List<LeaderboardEntry> getReferralLeaderboard(int offset, int limit) {
+        return getReferralLeaderboard(LeaderboardWindow.ALL_TIME, offset, limit);
+    }
+
+    /**
+     * Returns one page of the leaderboard for a period of time, best first. The windowed leaderboards rank every
+     * referrer by the referrals they made in the window.
+     * @param window the period of referrals to count
+     * @param offset the number of entries to skip
+     * @param limit the maximum number of entries to return, at most 100
+     * @return the leaderboard entries in the page
+     */
+    public List<LeaderboardEntry> getReferralLeaderboard(LeaderboardWindow window, int offset, int limit) {
+        if (offset < 0) {
+            throw new InvalidDataException("Offset must not be negative");
+        }
+        if (limit <= 0 || limit > MAX_LEADERBOARD_PAGE_SIZE) {
+            throw new InvalidDataException("Limit must be between 1 and " + MAX_LEADERBOARD_PAGE_SIZE);
+        }
+        if (window != LeaderboardWindow.ALL_TIME) {
+            if (windowedIndex == null) {
+                throw new InvalidDataException("Windowed leaderboards are not enabled");
+            }
+            return windowedIndex.page(window, offset, limit);
+        }
+        if (leaderboardMode.isIndexed()) {
+            return leaderboardIndex.page(offset, limit);
+        }
+        List<LeaderboardEntry> top;
+        if (snapshotCache != null && offset + limit <= LEADERBOARD_SIZE) {
+            // The snapshot only holds the default page, so deeper pages are always computed
+            top = snapshotCache.get(() -> computeLeaderboard(LEADERBOARD_SIZE));
+        } else {
+            top = computeLeaderboard(offset + limit);
+        }
+        if (offset >= top.size()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(top.subList(offset, Math.min(top.size(), offset + limit)));
+    }
+
+    /**
+     * Looks up where a customer stands on the leaderboard. Only available when the leaderboard index is enabled,
+     * since answering it from a scan would mean counting every customer's referrals.
+     * @param customerId the customer to look up
+     * @return the customer's rank and number of referrals
+     */
+    public LeaderboardRank getLeaderboardRank(String customerId) {
+        if (customerId == null || customerId.length() == 0) {
+            throw new InvalidDataException("Request must contain a valid Customer ID");
+        }
+        if (leaderboardIndex == null) {
+            throw new InvalidDataException("Rank lookups require an indexed leaderboard mode");
+        }
+        return leaderboardIndex.rank(customerId)
+                .orElseThrow(() -> new InvalidDataException("Customer " + customerId + " is not on the leaderboard"));
+    }
+
+    private List<LeaderboardEntry> computeLeaderboard(int size) {
+        if (leaderboardMode == LeaderboardMode.STREAMING_SCAN) {
+            return streamLeaderboard(size);
+        }
+        FanOutResult<LeaderboardEntry> result = scanLeaderboard();
+        if (!result.isComplete()) {
+            log.warn("Returning a partial leaderboard: " + result.getReport());
+        }
+        return condenseList(result.getResults(), size);
+    }
+
+    /**
+     * Recomputes the referral counts the leaderboard index ranks from DynamoDB and rebuilds the index from them. The
+     * APPROXIMATE index ranks every referrer, so its counts come from a scan of the whole Referral table; the other
+     * modes rank root customers only.
+     * @return the number of customers whose counts were given to the index
+     */
+    public int rebuildLeaderboard() {
+        if (leaderboardIndex == null) {
+            throw new InvalidDataException("The leaderboard index is not enabled");
+        }
+        List<LeaderboardEntry> entries;
+        if (leaderboardMode == LeaderboardMode.APPROXIMATE) {
+            entries = countAllReferrers();
+        } else {
+            FanOutResult<LeaderboardEntry> result = scanLeaderboard();
+            if (!result.isComplete()) {
+                // Rebuilding from a partial scan would leave the missing customers unrepaired
+                throw new IllegalStateException("Leaderboard rebuild did not finish: " + result.getReport());
+            }
+            entries = result.getResults();
+        }
+        leaderboardIndex.rebuild(entries);
+        return entries.size();
+    }
+
+    private List<LeaderboardEntry> countAllReferrers() {
+        if (summaryDao == null) {
+            throw new InvalidDataException("Rebuilding the approximate leaderboard requires the ReferralSummaryDao");
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        summaryDao.scanReferrals(referral -> {
+            String referrerId = referral.getReferrerId();
+            if (referrerId != null && referrerId.length() > 0) {
+                counts.merge(referrerId, 1, Integer::sum);
+            }
+        });
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        counts.forEach((referrerId, count) -> entries.add(new LeaderboardEntry(count, referrerId)));
+        return entries;
+    }
 
+    private FanOutResult<LeaderboardEntry> scanLeaderboard() {
         List<ReferralRecord> nodes = this.referralDao.findUsersWithoutReferrerId();
-        List<Future<LeaderboardEntry>> threadFutures = new ArrayList<>();
+        List<ReferralTask> tasks = new ArrayList<>();
         for(ReferralRecord node : nodes) {
-            ReferralTask task = new ReferralTask(node, referralDao);
-            threadFutures.add(executor.submit(task));
+            tasks.add(new ReferralTask(node, referralDao));
         }
-        executor.shutdown();
-        try {
-            executor.awaitTermination(20, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Executor was interrupted " + e);
+        return fanOutExecutor.invokeAll(tasks);
+    }
+    private List<LeaderboardEntry> condenseList (List<LeaderboardEntry> entries, int size) {
+        TopKSelector<LeaderboardEntry> topK = new TopKSelector<>(size, new ReferralComparator());
+        entries.forEach(entry -> offerRanked(topK, entry));
+        return topK.toSortedList();
+    }
+
+    private static void offerRanked(TopKSelector<LeaderboardEntry> topK, LeaderboardEntry entry) {
+        if (entry.getNumReferrals() > 0) {
+            topK.offer(entry);
         }
-        return condenseList(threadFutures);
     }
-    private List<LeaderboardEntry> condenseList (List<Future<LeaderboardEntry>> threadFutures) {
-        List<LeaderboardEntry> entries = new ArrayList<>();
-        for(Future<LeaderboardEntry> future : threadFutures) {
-            try {
-                entries.add(future.get());
-            } catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
+
+    /**
+     * Counts referrals for each scan page as soon as it arrives and keeps only the best {@code size} entries,
+     * so the first page's lookups overlap with the rest of the scan. The batch limits the lookups in flight, which
+     * holds the scan back when it is faster than the lookups, so memory stays O(size) plus one page.
+     */
+    private List<LeaderboardEntry> streamLeaderboard(int size) {
+        TopKSelector<LeaderboardEntry> topK = new TopKSelector<>(size, new ReferralComparator());
+        FanOutBatch<LeaderboardEntry> batch = fanOutExecutor.newBatch();
+
+        referralDao.scanUsersWithoutReferrerId(page -> {
+            for (ReferralRecord node : page) {
+                batch.submit(new ReferralTask(node, referralDao));
             }
+            batch.drainCompleted(entry -> offerRanked(topK, entry));
+        });
+
+        FanOutReport report = batch.awaitAll(entry -> offerRanked(topK, entry));
+        if (!report.isComplete()) {
+            log.warn("Returning a partial leaderboard: " + report);
         }
-        return entries.stream()
-                .sorted(new ReferralComparator().reversed()).limit(5)
-                .collect(Collectors.toList());
+        return topK.toSortedList();
     }
 
     public CustomerReferrals getCustomerReferralSummary(String customerId) {
-        // Task 2 Code Here
+        if (summaryMode == ReferralSummaryMode.COUNTERS) {
+            return summaryFromCounters(summaryDao.findSummary(customerId));
+        }
+        return summaryFromLevels(levelCounter.countLevels(customerId, ReferralSummaryDao.MAX_DEPTH));
+    }
 
-        CustomerReferrals referrals = new CustomerReferrals();
-        List<ReferralRecord> referralRecords = referralDao.findByReferrerId(customerId);
-        int firstLevelReferral = 0;
-        int secondLevelReferral = 0;
-        int thirdLevelReferral = 0;
-        for(ReferralRecord referralRecord : referralRecords) {
-            firstLevelReferral++;
-            for(ReferralRecord nextReferral : referralDao.findByReferrerId(referralRecord.getCustomerId())){
-                secondLevelReferral++;
-               thirdLevelReferral += referralDao.findByReferrerId(nextReferral.getCustomerId()).size();
+    /**
+     * Summarizes many customers' referrals in one call. In TRAVERSAL mode all the trees are walked together, one
+     * batch lookup per level, and a customer shared by several trees is only looked up once. In COUNTERS mode the
+     * counters are read with batched gets.
+     * @param customerIds the customers to summarize, at most 500; duplicates are summarized once
+     * @return each customer's summary, in the order the customers were first given
+     */
+    public Map<String, CustomerReferrals> getCustomerReferralSummaries(List<String> customerIds) {
+        if (customerIds == null || customerIds.isEmpty()) {
+            throw new InvalidDataException("Request must contain at least one Customer ID");
+        }
+        Set<String> uniqueIds = new LinkedHashSet<>();
+        for (String customerId : customerIds) {
+            if (customerId == null || customerId.length() == 0) {
+                throw new InvalidDataException("Request must contain valid Customer IDs");
+            }
+            uniqueIds.add(customerId);
+        }
+        if (uniqueIds.size() > MAX_SUMMARY_BATCH_SIZE) {
+            throw new InvalidDataException("Request must contain at most " + MAX_SUMMARY_BATCH_SIZE +
+                    " Customer IDs");
+        }
+
+        Map<String, CustomerReferrals> summaries = new LinkedHashMap<>();
+        if (summaryMode == ReferralSummaryMode.COUNTERS) {
+            Map<String, ReferralSummaryRecord> counters = summaryDao.findSummaries(uniqueIds);
+            for (String customerId : uniqueIds) {
+                summaries.put(customerId, summaryFromCounters(counters.get(customerId)));
+            }
+            return summaries;
+        }
+        levelCounter.countLevels(uniqueIds, ReferralSummaryDao.MAX_DEPTH)
+                .forEach((customerId, levels) -> summaries.put(customerId, summaryFromLevels(levels)));
+        return summaries;
+    }
+
+    /**
+     * Counts the customers at each level below a customer and weighs the counts into a referral bonus, all from a
+     * single walk of the referral tree. The walk stops as soon as a level is empty.
+     * @param customerId the customer to calculate the bonus for
+     * @param depth the number of levels to count, at most 10
+     * @param weights the bonus for each referral at each level, starting with the direct referrals. Levels without
+     *                a weight count towards the level counts but not the bonus.
+     * @return the level counts and the weighted bonus
+     */
+    public ReferralBonus getReferralBonus(String customerId, int depth, List<Double> weights) {
+        if (customerId == null || customerId.length() == 0) {
+            throw new InvalidDataException("Request must contain a valid Customer ID");
+        }
+        if (depth <= 0 || depth > MAX_BONUS_DEPTH) {
+            throw new InvalidDataException("Depth must be between 1 and " + MAX_BONUS_DEPTH);
+        }
+        if (weights.size() > depth) {
+            throw new InvalidDataException("There must not be more weights than levels");
+        }
+        for (Double weight : weights) {
+            if (weight == null || weight.isNaN() || weight.isInfinite()) {
+                throw new InvalidDataException("Weights must be finite numbers");
             }
         }
-        referrals.setNumFirstLevelReferrals(firstLevelReferral);
-        referrals.setNumSecondLevelReferrals(secondLevelReferral);
-        referrals.setNumThirdLevelReferrals(thirdLevelReferral);
+
+        List<Integer> levels;
+        if (summaryMode == ReferralSummaryMode.COUNTERS && depth <= ReferralSummaryDao.MAX_DEPTH) {
+            CustomerReferrals summary = summaryFromCounters(summaryDao.findSummary(customerId));
+            levels = Arrays.asList(summary.getNumFirstLevelReferrals(), summary.getNumSecondLevelReferrals(),
+                    summary.getNumThirdLevelReferrals()).subList(0, depth);
+        } else {
+            levels = levelCounter.countLevels(customerId, depth);
+        }
+
+        double bonus = 0;
+        for (int level = 0; level < weights.size(); level++) {
+            bonus += weights.get(level) * levels.get(level);
+        }
+        return new ReferralBonus(customerId, new ArrayList<>(levels), bonus);
+    }
+
+    private static CustomerReferrals summaryFromLevels(List<Integer> levels) {
+        CustomerReferrals referrals = new CustomerReferrals();
+        referrals.setNumFirstLevelReferrals(levels.get(0));
+        referrals.setNumSecondLevelReferrals(levels.get(1));
+        referrals.setNumThirdLevelReferrals(levels.get(2));
         return referrals;
     }
 
+    private static CustomerReferrals summaryFromCounters(ReferralSummaryRecord summary) {
+        CustomerReferrals referrals = new CustomerReferrals();
+        // Customers without any referrals below them have no summary item
+        referrals.setNumFirstLevelReferrals(summary == null ? 0 : orZero(summary.getNumFirstLevelReferrals()));
+        referrals.setNumSecondLevelReferrals(summary == null ? 0 : orZero(summary.getNumSecondLevelReferrals()));
+        referrals.setNumThirdLevelReferrals(summary == null ? 0 : orZero(summary.getNumThirdLevelReferrals()));
+        return referrals;
+    }
+
+    private static int orZero(Integer count) {
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Recomputes every customer's referral summary from the Referral table and compares it with the stored
+     * counters. Run it with repair after switching to COUNTERS mode, and periodically to catch drift.
+     * @param repair true to overwrite the counters that are wrong, false to only report them
+     * @return what was checked and how many summaries were wrong
+     */
+    public ReferralSummaryReport rebuildReferralSummaries(boolean repair) {
+        if (summaryDao == null) {
+            throw new InvalidDataException("The referral summary counters are not enabled");
+        }
+        return new ReferralSummaryRebuilder(summaryDao).rebuild(repair);
+    }
+
 
     public List<Referral> getDirectReferrals(String customerId) {
 
@@ -102,6 +429,12 @@ public class ReferralService {
         }
         ReferralRecord record = ReferralConverter.fromRequestToRecord(referral);
         referralDao.addReferral(record);
+        if (leaderboardIndex != null) {
+            leaderboardIndex.recordReferral(record);
+        }
+        if (windowedIndex != null) {
+            windowedIndex.recordReferral(record);
+        }
         return ReferralConverter.fromRecordToResponse(record);
     }
 
@@ -1,51 +1,407 @@
 package com.kenzie.marketing.referral.service.caching;
 
-import com.kenzie.marketing.referral.service.dependency.DaggerServiceComponent;
-
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.ZParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.params.ZAddParams;
+import redis.clients.jedis.params.ZIncrByParams;
+import redis.clients.jedis.util.SafeEncoder;
 
 
 import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
 
 public class CacheClient {
+    private static final String DELETE_IF_VALUE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+    private static final int STAGING_TTL_SECONDS = 60;
 
+    private final JedisPool pool;
+    private final CacheMetrics metrics;
+    private final ValueCompressor compressor;
 
     @Inject
-    public CacheClient() {}
-
+    public CacheClient(JedisPool pool) {
+        this(pool, new NoOpCacheMetrics());
+    }
 
-    // Put your Cache Client Here
+    /**
+     * @param metrics receives the time spent waiting for connections and the latency of the get, set and delete
+     *                commands
+     */
+    public CacheClient(JedisPool pool, CacheMetrics metrics) {
+        this(pool, metrics, new ValueCompressor(0, metrics));
+    }
 
-    // Since Jedis is being used multithreaded, you MUST get a new Jedis instances and close it inside every method.
-    // Do NOT use a single instance across multiple of these methods
+    /**
+     * @param compressor compresses large values as they are written. Every read inflates compressed values, whether
+     *                   or not this client writes them.
+     */
+    public CacheClient(JedisPool pool, CacheMetrics metrics, ValueCompressor compressor) {
+        this.pool = pool;
+        this.metrics = metrics;
+        this.compressor = compressor;
+    }
 
-    // Use Jedis in each method by doing the following:
-    // Jedis cache = DaggerServiceComponent.create().provideJedis();
-    // ... use the cache
-    // cache.close();
+    // Since Jedis is being used multithreaded, every method borrows its own Jedis from the pool and returns it
+    // before it finishes. Do NOT use a single instance across multiple of these methods:
+    // try (Jedis cache = borrow()) {
+    //     ... use the cache
+    // }
+    // borrow() takes from the pool and times the wait.
+    // Values pass through the compressor on the way in and out, so callers only ever see uncompressed values.
 
     // Remember to check for null keys!
 
     public void setValue(String key, int seconds, String value) {
         checkNonNullKey(key);
-        Jedis cache = DaggerServiceComponent.create().provideJedis();
-        cache.setex(key, seconds, value);
-        cache.close();
+        try (Jedis cache = borrow()) {
+            long start = System.nanoTime();
+            cache.setex(SafeEncoder.encode(key), seconds, compressor.compress(SafeEncoder.encode(value)));
+            metrics.recordCommand("SET", System.nanoTime() - start);
+        }
     }
     public Optional<String> getValue(String key) {
         checkNonNullKey(key);
-        Jedis cache = DaggerServiceComponent.create().provideJedis();
-        Optional<String> optionalS = Optional.ofNullable(cache.get(key));
-        cache.close();
-        return optionalS;
+        try (Jedis cache = borrow()) {
+            long start = System.nanoTime();
+            byte[] value = cache.get(SafeEncoder.encode(key));
+            metrics.recordCommand("GET", System.nanoTime() - start);
+            return Optional.ofNullable(value).map(bytes -> new String(compressor.decompress(bytes),
+                    StandardCharsets.UTF_8));
+        }
+    }
+    public void setBytes(String key, int seconds, byte[] value) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            long start = System.nanoTime();
+            cache.setex(SafeEncoder.encode(key), seconds, compressor.compress(value));
+            metrics.recordCommand("SET", System.nanoTime() - start);
+        }
+    }
+    public Optional<byte[]> getBytes(String key) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            long start = System.nanoTime();
+            byte[] value = cache.get(SafeEncoder.encode(key));
+            metrics.recordCommand("GET", System.nanoTime() - start);
+            return Optional.ofNullable(value).map(compressor::decompress);
+        }
+    }
+    /**
+     * Reads several values with a single MGET.
+     * @return the values in the order of the keys, with null for every key that is not cached
+     */
+    public List<byte[]> getBytesAll(List<String> keys) {
+        keys.forEach(this::checkNonNullKey);
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = SafeEncoder.encode(keys.get(i));
+        }
+        try (Jedis cache = borrow()) {
+            long start = System.nanoTime();
+            List<byte[]> values = cache.mget(rawKeys);
+            metrics.recordCommand("MGET", System.nanoTime() - start);
+            List<byte[]> decompressed = new ArrayList<>(values.size());
+            for (byte[] value : values) {
+                decompressed.add(value == null ? null : compressor.decompress(value));
+            }
+            return decompressed;
+        }
+    }
+    /**
+     * Writes several values with one SETEX each, sent together in a single pipelined round trip.
+     * @param seconds the time to live of each key
+     */
+    public void setBytesAll(Map<String, byte[]> values, ToIntFunction<String> seconds) {
+        values.keySet().forEach(this::checkNonNullKey);
+        if (values.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> compressed = new LinkedHashMap<>();
+        values.forEach((key, value) -> compressed.put(key, compressor.compress(value)));
+        long start = System.nanoTime();
+        pipelined(pipeline -> compressed.forEach((key, value) ->
+                pipeline.setex(SafeEncoder.encode(key), seconds.applyAsInt(key), value)));
+        metrics.recordCommand("SET_PIPELINE", System.nanoTime() - start);
+    }
+    /**
+     * Reads a value and its remaining time to live in one round trip.
+     */
+    public Optional<CachedBytes> getBytesWithTtl(String key) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            long start = System.nanoTime();
+            Pipeline pipeline = cache.pipelined();
+            Response<byte[]> value = pipeline.get(SafeEncoder.encode(key));
+            Response<Long> ttl = pipeline.pttl(SafeEncoder.encode(key));
+            pipeline.sync();
+            metrics.recordCommand("GET", System.nanoTime() - start);
+            if (value.get() == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new CachedBytes(compressor.decompress(value.get()), ttl.get()));
+        }
     }
     public void invalidate(String key) {
         checkNonNullKey(key);
-        Jedis cache = DaggerServiceComponent.create().provideJedis();
-        cache.del(key);
-        cache.close();
+        try (Jedis cache = borrow()) {
+            long start = System.nanoTime();
+            cache.del(key);
+            metrics.recordCommand("DEL", System.nanoTime() - start);
+        }
+    }
+    /**
+     * Deletes several keys with a single DEL, so invalidating them costs one round trip.
+     */
+    public void invalidateAll(Collection<String> keys) {
+        keys.forEach(this::checkNonNullKey);
+        if (keys.isEmpty()) {
+            return;
+        }
+        try (Jedis cache = borrow()) {
+            long start = System.nanoTime();
+            cache.del(keys.toArray(new String[0]));
+            metrics.recordCommand("DEL", System.nanoTime() - start);
+        }
+    }
+    /**
+     * Sends every command the consumer queues on the pipeline in one batch over one connection, then waits for all
+     * of the replies at once.
+     * @return the replies, in the order the commands were queued
+     */
+    public List<Object> pipelined(Consumer<Pipeline> commands) {
+        try (Jedis cache = borrow()) {
+            Pipeline pipeline = cache.pipelined();
+            commands.accept(pipeline);
+            return pipeline.syncAndReturnAll();
+        }
+    }
+    public void publish(String channel, String message) {
+        checkNonNullKey(channel);
+        try (Jedis cache = borrow()) {
+            cache.publish(channel, message);
+        }
+    }
+    /**
+     * Subscribes to the channels on a pooled connection, and blocks until the subscriber unsubscribes or the
+     * connection fails. The connection stays out of the pool for as long as this runs.
+     */
+    public void subscribe(JedisPubSub subscriber, String... channels) {
+        try (Jedis cache = borrow()) {
+            cache.subscribe(subscriber, channels);
+        }
+    }
+    public boolean setValueIfAbsent(String key, long milliseconds, String value) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            String reply = cache.set(key, value, SetParams.setParams().nx().px(milliseconds));
+            return "OK".equals(reply);
+        }
+    }
+    public void invalidateIfValue(String key, String expectedValue) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            // Compare and delete in one script so a key that expired and was taken by someone else is left alone
+            cache.eval(DELETE_IF_VALUE_SCRIPT, Collections.singletonList(key),
+                    Collections.singletonList(expectedValue));
+        }
+    }
+    /**
+     * Rewrites the cached ones among the given keys together in one WATCH/MULTI transaction, keeping their remaining
+     * time to live, and retries when another client changes one of them in between. Keys that are not cached are
+     * never created.
+     * @param update maps the cached keys to their current values, which may be none; returns the keys to change,
+     *               mapped to their new value, or to null to delete the key. Called once per attempt.
+     * @return true if the changes were applied, false if every attempt conflicted
+     */
+    public boolean updateCachedValues(List<String> keys, UnaryOperator<Map<String, byte[]>> update, int maxAttempts) {
+        keys.forEach(this::checkNonNullKey);
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = SafeEncoder.encode(keys.get(i));
+        }
+        try (Jedis cache = borrow()) {
+            for (int attempt = 0; attempt < maxAttempts; attempt++) {
+                cache.watch(rawKeys);
+                List<byte[]> values = cache.mget(rawKeys);
+                Map<String, byte[]> current = new LinkedHashMap<>();
+                for (int i = 0; i < keys.size(); i++) {
+                    if (values.get(i) != null) {
+                        current.put(keys.get(i), compressor.decompress(values.get(i)));
+                    }
+                }
+                Map<String, byte[]> changes = update.apply(current);
+                if (changes.isEmpty()) {
+                    cache.unwatch();
+                    return true;
+                }
+                Map<String, Long> ttls = new LinkedHashMap<>();
+                for (String key : changes.keySet()) {
+                    ttls.put(key, cache.pttl(key));
+                }
+                Transaction transaction = cache.multi();
+                int queued = 0;
+                for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+                    long ttl = ttls.get(change.getKey());
+                    byte[] key = SafeEncoder.encode(change.getKey());
+                    if (change.getValue() == null) {
+                        transaction.del(key);
+                    } else if (ttl > 0) {
+                        transaction.psetex(key, ttl, compressor.compress(change.getValue()));
+                    } else if (ttl == -1) {
+                        transaction.set(key, compressor.compress(change.getValue()));
+                    } else {
+                        // The key expired since it was read, and must not be brought back
+                        continue;
+                    }
+                    queued++;
+                }
+                List<Object> result = transaction.exec();
+                // An aborted transaction replies with null or, in older Jedis versions, an empty list
+                if (result != null && (queued == 0 || !result.isEmpty())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    public void addToSortedSetIfAbsent(String key, String member, double score) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            cache.zadd(key, score, member, ZAddParams.zAddParams().nx());
+        }
+    }
+    public void incrementSortedSetScoreIfPresent(String key, String member, double increment) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            // ZADD XX INCR only touches existing members, so this is a single atomic command
+            cache.zincrby(key, increment, member, ZIncrByParams.zIncrByParams().xx());
+        }
+    }
+    public void incrementSortedSetScore(String key, String member, double increment, int seconds) {
+        checkNonNullKey(key);
+        pipelined(pipeline -> {
+            pipeline.zincrby(key, increment, member);
+            pipeline.expire(key, seconds);
+        });
+    }
+    public void unionSortedSets(String destinationKey, List<String> sourceKeys, int seconds) {
+        checkNonNullKey(destinationKey);
+        pipelined(pipeline -> {
+            pipeline.zunionstore(destinationKey, sourceKeys.toArray(new String[0]));
+            pipeline.expire(destinationKey, seconds);
+        });
+    }
+    /**
+     * Runs a Lua script, which Redis executes atomically with respect to every other command.
+     * @return the script's reply, as converted by Jedis
+     */
+    public Object runScript(String script, List<String> keys, List<String> args) {
+        keys.forEach(this::checkNonNullKey);
+        try (Jedis cache = borrow()) {
+            return cache.eval(script, keys, args);
+        }
+    }
+    /**
+     * @return the values of the given hash fields, in the same order, with null for fields that are not set
+     */
+    public List<String> getHashValues(String key, List<String> fields) {
+        checkNonNullKey(key);
+        if (fields.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try (Jedis cache = borrow()) {
+            return cache.hmget(key, fields.toArray(new String[0]));
+        }
+    }
+    public boolean exists(String key) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            return cache.exists(key);
+        }
+    }
+    public Map<String, Double> getSortedSetDescending(String key, long start, long stop) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            Map<String, Double> members = new LinkedHashMap<>();
+            for (Tuple tuple : cache.zrevrangeWithScores(key, start, stop)) {
+                members.put(tuple.getElement(), tuple.getScore());
+            }
+            return members;
+        }
+    }
+    public Map<String, Double> getSortedSetDescendingAbove(String key, double minExclusive, int offset, int count) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            Map<String, Double> members = new LinkedHashMap<>();
+            for (Tuple tuple : cache.zrevrangeByScoreWithScores(key, "+inf", "(" + minExclusive, offset, count)) {
+                members.put(tuple.getElement(), tuple.getScore());
+            }
+            return members;
+        }
+    }
+    public Optional<Double> getSortedSetScore(String key, String member) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            return Optional.ofNullable(cache.zscore(key, member));
+        }
+    }
+    public long countSortedSetAbove(String key, double minExclusive) {
+        checkNonNullKey(key);
+        try (Jedis cache = borrow()) {
+            return cache.zcount(key, "(" + minExclusive, "+inf");
+        }
+    }
+    /**
+     * Merges the given members into a sorted set, keeping the higher score where a member is already present.
+     * Writes made to the set while the members were being computed are never lost.
+     */
+    public void mergeSortedSetMax(String key, Map<String, Double> members) {
+        checkNonNullKey(key);
+        if (members.isEmpty()) {
+            return;
+        }
+        try (Jedis cache = borrow()) {
+            // Build the new scores on the side and merge them in one command, so readers never see a partial merge.
+            // Each call stages under its own key, so concurrent merges cannot add to or delete each other's members.
+            String stagingKey = key + "::rebuild::" + UUID.randomUUID();
+            try {
+                cache.zadd(stagingKey, members);
+                // Expires on its own if this container dies before deleting it
+                cache.expire(stagingKey, STAGING_TTL_SECONDS);
+                cache.zunionstore(key, new ZParams().aggregate(ZParams.Aggregate.MAX), key, stagingKey);
+            } finally {
+                cache.del(stagingKey);
+            }
+        }
+    }
+    private Jedis borrow() {
+        long start = System.nanoTime();
+        Jedis cache = pool.getResource();
+        metrics.recordConnectionWait(System.nanoTime() - start);
+        return cache;
     }
     private void checkNonNullKey(String key) {
         if(null == key) {
@@ -0,0 +1,53 @@
+package com.kenzie.marketing.referral.service.caching;
+
+/**
+ * Builds every Redis key the referral cache reads or writes, so writers invalidate and update exactly the keys that
+ * readers use.
+ */
+public final class CacheKeys {
+    private static final String REFERRALS = "ReferralKey::%s";
+    private static final String REFERRAL_COUNT = "ReferralCountKey::%s";
+    private static final String REFERRAL_CHILD_IDS = "ReferralChildIdsKey::%s";
+    private static final String REFERRER_ACCESS = "ReferrerAccessKey::%d";
+    private static final String LOAD_LOCK_SUFFIX = "::lock";
+
+    private CacheKeys() {
+    }
+
+    /**
+     * @return the key of the referrer's list of referral records
+     */
+    public static String referrals(String referrerId) {
+        return String.format(REFERRALS, referrerId);
+    }
+
+    /**
+     * @return the key of the number of customers the referrer referred
+     */
+    public static String referralCount(String referrerId) {
+        return String.format(REFERRAL_COUNT, referrerId);
+    }
+
+    /**
+     * @return the key of the IDs of the customers the referrer referred
+     */
+    public static String referralChildIds(String referrerId) {
+        return String.format(REFERRAL_CHILD_IDS, referrerId);
+    }
+
+    /**
+     * @param hour hours since the epoch
+     * @return the key of the sorted set counting how often each referrer's list was read in that hour
+     */
+    public static String referrerAccess(long hour) {
+        return String.format(REFERRER_ACCESS, hour);
+    }
+
+    /**
+     * @param key a cached value's key
+     * @return the key of the lock held while that value is loaded
+     */
+    public static String loadLock(String key) {
+        return key + LOAD_LOCK_SUFFIX;
+    }
+}
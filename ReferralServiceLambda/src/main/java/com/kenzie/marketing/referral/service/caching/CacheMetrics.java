@@ -0,0 +1,57 @@
+package com.kenzie.marketing.referral.service.caching;
+
+/**
+ * Receives measurements from the cache layer. Implementations must be thread safe and cheap, since they are called
+ * on every cache read and Redis command.
+ *
+ * Operations are the cached values a read is for, named like their {@link CacheKeys} method, e.g. "referrals".
+ * Commands are the Redis commands sent, e.g. "GET" or "SET".
+ */
+public interface CacheMetrics {
+    /**
+     * Counts a read answered by a cached value.
+     */
+    void recordHit(String operation);
+
+    /**
+     * Counts a read answered by a cached marker for "nothing there", such as the empty-list sentinel.
+     */
+    void recordNegativeHit(String operation);
+
+    /**
+     * Counts a read that found nothing cached and had to load from DynamoDB.
+     */
+    void recordMiss(String operation);
+
+    /**
+     * @param bytes the size of a value read from or written to Redis
+     */
+    void recordPayloadSize(String operation, int bytes);
+
+    /**
+     * @param nanos how long loading a missed value from DynamoDB took
+     */
+    void recordLoad(String operation, long nanos);
+
+    /**
+     * @param nanos how long a Redis command took, from sending it to reading the reply
+     */
+    void recordCommand(String command, long nanos);
+
+    /**
+     * @param nanos how long borrowing a connection from the pool took
+     */
+    void recordConnectionWait(long nanos);
+
+    /**
+     * @param uncompressedBytes the size of a value before it was compressed for Redis
+     * @param compressedBytes the size written to Redis
+     */
+    void recordCompression(int uncompressedBytes, int compressedBytes);
+
+    /**
+     * Writes out everything recorded and not yet written. The Lambda handlers call it at the end of every
+     * invocation, since a container may be frozen or reaped as soon as it returns.
+     */
+    void flush();
+}
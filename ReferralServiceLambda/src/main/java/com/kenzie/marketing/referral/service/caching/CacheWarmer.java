@@ -0,0 +1,98 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.dao.ReferralDao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Loads the referral lists that are most likely to be read into Redis and the in-process cache when a container
+ * starts, so the first minutes after a deploy do not all miss and query the ReferrerIdIndex.
+ *
+ * The hot set is the referrers read most often lately, from {@link HotReferrers}, followed by the customers on the
+ * current leaderboard, whose lookup also loads the leaderboard itself. Lists are loaded in batches through
+ * {@link ReferralDao#findByReferrerIds}, so cached lists cost one MGET per batch, and the warm-up stops at the
+ * first batch boundary after its time budget runs out.
+ */
+public class CacheWarmer {
+    static final Logger log = LogManager.getLogger();
+
+    private static final int BATCH_SIZE = 100;
+
+    private final ReferralDao referralDao;
+    private final HotReferrers hotReferrers;
+    private final Supplier<List<String>> leaderboard;
+    private final int count;
+    private final Duration budget;
+    private final Clock clock;
+
+    /**
+     * @param hotReferrers the recorded read counts. May be null to only warm the leaderboard.
+     * @param leaderboard returns the customer IDs on the current leaderboard without computing it, since the budget
+     *                    is only checked before it is called. May be null when there is no such leaderboard.
+     * @param count the maximum number of referral lists to load
+     * @param budget how long the warm-up may take
+     */
+    public CacheWarmer(ReferralDao referralDao, HotReferrers hotReferrers, Supplier<List<String>> leaderboard,
+                       int count, Duration budget, Clock clock) {
+        this.referralDao = referralDao;
+        this.hotReferrers = hotReferrers;
+        this.leaderboard = leaderboard;
+        this.count = count;
+        this.budget = budget;
+        this.clock = clock;
+    }
+
+    /**
+     * Runs the warm-up on the executor and returns straight away, so it never delays the container's first request.
+     */
+    public void warmInBackground(Executor executor) {
+        try {
+            executor.execute(() -> {
+                try {
+                    warm();
+                } catch (RuntimeException e) {
+                    log.warn("Cache warm-up failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Cache warm-up was not started", e);
+        }
+    }
+
+    /**
+     * @return the number of referral lists loaded before the budget ran out
+     */
+    public int warm() {
+        long startMillis = clock.millis();
+        long deadlineMillis = startMillis + budget.toMillis();
+        Set<String> referrerIds = new LinkedHashSet<>();
+        if (hotReferrers != null) {
+            referrerIds.addAll(hotReferrers.hottest(count));
+        }
+        if (leaderboard != null && clock.millis() < deadlineMillis) {
+            referrerIds.addAll(leaderboard.get());
+        }
+
+        List<String> hotSet = new ArrayList<>(referrerIds).subList(0, Math.min(count, referrerIds.size()));
+        int warmed = 0;
+        for (int from = 0; from < hotSet.size() && clock.millis() < deadlineMillis; from += BATCH_SIZE) {
+            List<String> batch = hotSet.subList(from, Math.min(hotSet.size(), from + BATCH_SIZE));
+            referralDao.findByReferrerIds(batch);
+            warmed += batch.size();
+        }
+        log.info("Warmed " + warmed + " of " + hotSet.size() + " hot referral lists in " +
+                (clock.millis() - startMillis) + " ms");
+        return warmed;
+    }
+}
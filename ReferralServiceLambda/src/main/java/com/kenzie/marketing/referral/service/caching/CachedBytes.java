@@ -0,0 +1,25 @@
+package com.kenzie.marketing.referral.service.caching;
+
+/**
+ * A cached value read together with its remaining time to live.
+ */
+public class CachedBytes {
+    private final byte[] value;
+    private final long remainingTtlMillis;
+
+    public CachedBytes(byte[] value, long remainingTtlMillis) {
+        this.value = value;
+        this.remainingTtlMillis = remainingTtlMillis;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * @return the milliseconds until the value expires, or a negative number if it never does
+     */
+    public long getRemainingTtlMillis() {
+        return remainingTtlMillis;
+    }
+}
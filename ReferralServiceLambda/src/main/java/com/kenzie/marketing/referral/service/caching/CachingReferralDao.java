@@ -12,68 +12,527 @@ import com.kenzie.marketing.referral.service.model.ReferralRecord;
 
 import javax.inject.Inject;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class CachingReferralDao implements ReferralDao {
     private static final int REFERRAL_READ_TTL = 60 * 60;
-    private static final String REFERRAL_KEY = "ReferralKey::%s";
+    // Most customers never refer anybody, so their entries are many and short lived to keep Redis small
+    private static final int REFERRAL_EMPTY_TTL = 10 * 60;
+    private static final String EMPTY_SENTINEL = "-";
+    private static final byte[] EMPTY_SENTINEL_BYTES = EMPTY_SENTINEL.getBytes(StandardCharsets.UTF_8);
+    private static final int WRITE_THROUGH_ATTEMPTS = 3;
+    private static final long LOAD_LOCK_LEASE_MILLIS = 5000;
+    private static final int LOAD_WAIT_ATTEMPTS = 10;
+    private static final long LOAD_WAIT_MILLIS = 50;
+    private static final String REFERRALS = "referrals";
+    private static final String REFERRAL_COUNT = "referralCount";
+    private static final String REFERRAL_CHILD_IDS = "referralChildIds";
     private final CacheClient cacheClient;
     private final NonCachingReferralDao referralDao;
+    private final LocalCache<String, List<ReferralRecord>> localCache;
+    private final ReferralCacheFormat format;
+    private final EarlyRefresh earlyRefresh;
+    private final ReferralCacheWriteMode writeMode;
+    private final CacheMetrics metrics;
+    private final InvalidationBus invalidationBus;
+    private final HotReferrers hotReferrers;
+    private final SingleFlight<String, List<ReferralRecord>> loads = new SingleFlight<>();
 
     private final Gson gson;
 
     @Inject
     public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao) {
+        this(cacheClient, referralDao, null);
+    }
+
+    /**
+     * @param localCache holds decoded findByReferrerId results in front of Redis. May be null to always read Redis.
+     *                   Only this container's writes clear it, so its TTL bounds how stale other writes can be.
+     */
+    public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao,
+                              LocalCache<String, List<ReferralRecord>> localCache) {
+        this(cacheClient, referralDao, localCache, ReferralCacheFormat.JSON);
+    }
+
+    /**
+     * @param format how referral lists are written to Redis. Lists in either format are read.
+     */
+    public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao,
+                              LocalCache<String, List<ReferralRecord>> localCache, ReferralCacheFormat format) {
+        this(cacheClient, referralDao, localCache, format, new EarlyRefresh(1), ReferralCacheWriteMode.INVALIDATE);
+    }
+
+    /**
+     * @param earlyRefresh decides when a cached list is reloaded shortly before it expires
+     * @param writeMode whether addReferral deletes the referrer's cached values or adds the new referral to them
+     */
+    public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao,
+                              LocalCache<String, List<ReferralRecord>> localCache, ReferralCacheFormat format,
+                              EarlyRefresh earlyRefresh, ReferralCacheWriteMode writeMode) {
+        this(cacheClient, referralDao, localCache, format, earlyRefresh, writeMode, new NoOpCacheMetrics());
+    }
+
+    /**
+     * @param metrics receives the hits, misses, value sizes and load times of every read
+     */
+    public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao,
+                              LocalCache<String, List<ReferralRecord>> localCache, ReferralCacheFormat format,
+                              EarlyRefresh earlyRefresh, ReferralCacheWriteMode writeMode, CacheMetrics metrics) {
+        this(cacheClient, referralDao, localCache, format, earlyRefresh, writeMode, metrics, null);
+    }
+
+    /**
+     * @param invalidationBus tells the other containers about this one's writes, and evicts their writes from the
+     *                        in-process cache. The in-process cache is bypassed while the bus is behind. May be null
+     *                        to rely on the in-process cache's TTL alone.
+     */
+    public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao,
+                              LocalCache<String, List<ReferralRecord>> localCache, ReferralCacheFormat format,
+                              EarlyRefresh earlyRefresh, ReferralCacheWriteMode writeMode, CacheMetrics metrics,
+                              InvalidationBus invalidationBus) {
+        this(cacheClient, referralDao, localCache, format, earlyRefresh, writeMode, metrics, invalidationBus, null);
+    }
+
+    /**
+     * @param hotReferrers counts the findByReferrerId reads, so {@link CacheWarmer} knows which lists to load when
+     *                     a container starts. May be null to not count them.
+     */
+    public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao,
+                              LocalCache<String, List<ReferralRecord>> localCache, ReferralCacheFormat format,
+                              EarlyRefresh earlyRefresh, ReferralCacheWriteMode writeMode, CacheMetrics metrics,
+                              InvalidationBus invalidationBus, HotReferrers hotReferrers) {
         this.cacheClient = cacheClient;
         this.referralDao = referralDao;
-        this.gson = builder.create();
+        this.localCache = localCache;
+        this.format = format;
+        this.earlyRefresh = earlyRefresh;
+        this.writeMode = writeMode;
+        this.metrics = metrics;
+        this.invalidationBus = invalidationBus;
+        this.hotReferrers = hotReferrers;
+        this.gson = newGson();
+        if (invalidationBus != null && localCache != null) {
+            invalidationBus.addListener(referrerIds -> referrerIds.forEach(localCache::invalidate),
+                    localCache::invalidateAll);
+        }
     }
     @Override
     public ReferralRecord addReferral(ReferralRecord referral) {
-        cacheClient.invalidate(referral.getReferrerId());
-        return referralDao.addReferral(referral);
+        String referrerId = referral.getReferrerId();
+        if (referrerId == null || referrerId.length() == 0) {
+            // A customer without a referrer is in nobody's cached values
+            ReferralRecord added = referralDao.addReferral(referral);
+            if (invalidationBus != null) {
+                invalidationBus.publish(Collections.singletonList(InvalidationBus.ROOTS));
+            }
+            return added;
+        }
+        invalidateLocal(referrerId);
+        if (writeMode == ReferralCacheWriteMode.INVALIDATE) {
+            cacheClient.invalidateAll(referrerKeys(referrerId));
+        }
+        ReferralRecord added = referralDao.addReferral(referral);
+        if (writeMode == ReferralCacheWriteMode.WRITE_THROUGH) {
+            writeThrough(added);
+        }
+        // A read that started before the write may have put the old values back in the meantime, including the
+        // empty sentinel, which would otherwise hide the new referral for its whole TTL
+        if (writeMode == ReferralCacheWriteMode.INVALIDATE) {
+            cacheClient.invalidateAll(referrerKeys(referrerId));
+        }
+        invalidateLocal(referrerId);
+        if (invalidationBus != null) {
+            invalidationBus.publish(Collections.singletonList(referrerId));
+        }
+        return added;
+    }
+
+    /**
+     * Adds a referral that was just saved to the referrer's cached values in one Redis transaction. Falls back to
+     * deleting the values if the transaction keeps conflicting with other writers.
+     *
+     * A value that was not cached when the transaction ran is deleted again afterwards: a read that missed the cache
+     * before the DynamoDB write may be about to fill it with the old list, or the empty sentinel, for its whole TTL.
+     */
+    private void writeThrough(ReferralRecord added) {
+        List<String> keys = referrerKeys(added.getReferrerId());
+        Set<String> uncached = new HashSet<>(keys);
+        boolean applied = cacheClient.updateCachedValues(keys, cached -> {
+            // Called once per attempt, so the set ends up describing the attempt that was applied
+            uncached.addAll(keys);
+            uncached.removeAll(cached.keySet());
+            return appendReferral(added, cached);
+        }, WRITE_THROUGH_ATTEMPTS);
+        if (!applied) {
+            cacheClient.invalidateAll(keys);
+        } else if (!uncached.isEmpty()) {
+            cacheClient.invalidateAll(new ArrayList<>(uncached));
+        }
+    }
+
+    private Map<String, byte[]> appendReferral(ReferralRecord added, Map<String, byte[]> cached) {
+        String listKey = CacheKeys.referrals(added.getReferrerId());
+        String childIdsKey = CacheKeys.referralChildIds(added.getReferrerId());
+        String countKey = CacheKeys.referralCount(added.getReferrerId());
+        Map<String, byte[]> changes = new LinkedHashMap<>();
+
+        // A value loaded after the DynamoDB write already holds the referral, so it is only added where missing.
+        // A negative entry turns into a one-referral list and keeps its shorter TTL.
+        if (cached.containsKey(listKey)) {
+            List<ReferralRecord> records = new ArrayList<>(decode(cached.get(listKey)));
+            if (records.stream().noneMatch(record -> added.getCustomerId().equals(record.getCustomerId()))) {
+                records.add(added);
+                changes.put(listKey, encode(records));
+            }
+        }
+        List<String> childIds = null;
+        if (cached.containsKey(childIdsKey)) {
+            childIds = new ArrayList<>(childIdsFromJson(new String(cached.get(childIdsKey), StandardCharsets.UTF_8)));
+            if (!childIds.contains(added.getCustomerId())) {
+                childIds.add(added.getCustomerId());
+                changes.put(childIdsKey, gson.toJson(childIds).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // A bare count cannot tell whether it already includes the referral, so it is taken from the child IDs
+        if (cached.containsKey(countKey)) {
+            changes.put(countKey, childIds == null ? null
+                    : String.valueOf(childIds.size()).getBytes(StandardCharsets.UTF_8));
+        }
+        return changes;
+    }
+
+    private static List<String> referrerKeys(String referrerId) {
+        return Arrays.asList(
+                CacheKeys.referrals(referrerId),
+                CacheKeys.referralCount(referrerId),
+                CacheKeys.referralChildIds(referrerId));
     }
 
     @Override
     public List<ReferralRecord> findByReferrerId(String referrerId) {
-        List<ReferralRecord> referralRecordList = new ArrayList<>();
-        cacheClient.getValue(String.format(REFERRAL_KEY, referrerId))
-                .ifPresentOrElse(string -> referralRecordList.addAll(fromJson(string)),
-                () -> referralRecordList.addAll(addToCache(referralDao.findByReferrerId(referrerId), referrerId)));
+        if (hotReferrers != null) {
+            hotReferrers.recordAccess(referrerId);
+        }
+        boolean useLocal = useLocalCache();
+        if (useLocal) {
+            Optional<List<ReferralRecord>> local = localCache.get(referrerId);
+            if (local.isPresent()) {
+                return new ArrayList<>(local.get());
+            }
+        }
+        List<ReferralRecord> referralRecordList = new ArrayList<>(readThrough(referrerId));
+        if (useLocal) {
+            localCache.put(referrerId, Collections.unmodifiableList(new ArrayList<>(referralRecordList)));
+        }
         return referralRecordList;
     }
 
+    /**
+     * Reads a referrer's list from Redis, loading it from DynamoDB on a miss or when {@link EarlyRefresh} picks this
+     * read to refresh it ahead of expiry. Only one load per key runs at a time in this process, and a Redis lock
+     * keeps other containers from loading the same key at the same time; they keep serving the old value or wait
+     * briefly for the new one.
+     */
+    private List<ReferralRecord> readThrough(String referrerId) {
+        String key = CacheKeys.referrals(referrerId);
+        Optional<CachedBytes> cached = cacheClient.getBytesWithTtl(key);
+        if (cached.isPresent()) {
+            recordHit(REFERRALS, cached.get().getValue());
+        } else {
+            metrics.recordMiss(REFERRALS);
+        }
+        if (cached.isPresent() && !earlyRefresh.shouldRefresh(cached.get().getRemainingTtlMillis())) {
+            return decode(cached.get().getValue());
+        }
+        return loads.run(referrerId, () -> load(referrerId, key, cached));
+    }
+
+    private List<ReferralRecord> load(String referrerId, String key, Optional<CachedBytes> cached) {
+        String lockKey = CacheKeys.loadLock(key);
+        String token = UUID.randomUUID().toString();
+        if (!cacheClient.setValueIfAbsent(lockKey, LOAD_LOCK_LEASE_MILLIS, token)) {
+            if (cached.isPresent()) {
+                return decode(cached.get().getValue());
+            }
+            Optional<byte[]> filled = awaitLoad(key);
+            if (filled.isPresent()) {
+                return decode(filled.get());
+            }
+            // The other load is taking too long; read DynamoDB directly but leave the cache to the lock holder
+            return referralDao.findByReferrerId(referrerId);
+        }
+        try {
+            long start = System.nanoTime();
+            List<ReferralRecord> records = referralDao.findByReferrerId(referrerId);
+            long loadNanos = System.nanoTime() - start;
+            earlyRefresh.recordLoad(loadNanos / 1_000_000);
+            metrics.recordLoad(REFERRALS, loadNanos);
+            return addToCache(records, referrerId);
+        } finally {
+            cacheClient.invalidateIfValue(lockKey, token);
+        }
+    }
+
+    /**
+     * Resolves every referrer that is not in the in-process cache with one MGET, loads only the misses from
+     * DynamoDB, and writes them back to Redis in one pipeline. Batch loads skip the load lock and early refresh,
+     * which would cost a round trip per referrer.
+     */
+    @Override
+    public Map<String, List<ReferralRecord>> findByReferrerIds(Collection<String> referrerIds) {
+        Map<String, List<ReferralRecord>> referrals = new HashMap<>();
+        List<String> remote = new ArrayList<>();
+        boolean useLocal = useLocalCache();
+        for (String referrerId : new LinkedHashSet<>(referrerIds)) {
+            Optional<List<ReferralRecord>> local = useLocal ? localCache.get(referrerId) : Optional.empty();
+            if (local.isPresent()) {
+                referrals.put(referrerId, new ArrayList<>(local.get()));
+            } else {
+                remote.add(referrerId);
+            }
+        }
+        Map<String, List<ReferralRecord>> read = readAll(remote, REFERRALS, CacheKeys::referrals, this::decode,
+                referralDao::findByReferrerIds, this::encode);
+        read.forEach((referrerId, records) -> {
+            if (useLocal) {
+                localCache.put(referrerId, Collections.unmodifiableList(new ArrayList<>(records)));
+            }
+            referrals.put(referrerId, new ArrayList<>(records));
+        });
+        return referrals;
+    }
+
+    @Override
+    public Map<String, List<String>> findChildIdsByReferrerIds(Collection<String> referrerIds) {
+        return readAll(new ArrayList<>(new LinkedHashSet<>(referrerIds)), REFERRAL_CHILD_IDS,
+                CacheKeys::referralChildIds,
+                value -> childIdsFromJson(new String(value, StandardCharsets.UTF_8)),
+                referralDao::findChildIdsByReferrerIds,
+                childIds -> gson.toJson(childIds).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the referrers' cached values with one MGET and back-fills the misses, loaded together by
+     * {@code loader}, with one pipelined SETEX per key.
+     */
+    private <T> Map<String, List<T>> readAll(List<String> referrerIds, String operation,
+                                             Function<String, String> keyOf,
+                                             Function<byte[], List<T>> decoder,
+                                             Function<List<String>, Map<String, List<T>>> loader,
+                                             Function<List<T>, byte[]> encoder) {
+        Map<String, List<T>> found = new HashMap<>();
+        if (referrerIds.isEmpty()) {
+            return found;
+        }
+        List<String> keys = new ArrayList<>();
+        for (String referrerId : referrerIds) {
+            keys.add(keyOf.apply(referrerId));
+        }
+        List<byte[]> values = cacheClient.getBytesAll(keys);
+        List<String> misses = new ArrayList<>();
+        for (int i = 0; i < referrerIds.size(); i++) {
+            if (values.get(i) == null) {
+                metrics.recordMiss(operation);
+                misses.add(referrerIds.get(i));
+            } else {
+                recordHit(operation, values.get(i));
+                found.put(referrerIds.get(i), decoder.apply(values.get(i)));
+            }
+        }
+        if (misses.isEmpty()) {
+            return found;
+        }
+
+        Map<String, List<T>> loaded = timedLoad(operation, () -> loader.apply(misses));
+        Map<String, byte[]> fills = new LinkedHashMap<>();
+        Set<String> emptyKeys = new HashSet<>();
+        for (String referrerId : misses) {
+            List<T> value = loaded.getOrDefault(referrerId, new ArrayList<>());
+            found.put(referrerId, value);
+            String key = keyOf.apply(referrerId);
+            if (value.isEmpty()) {
+                fills.put(key, EMPTY_SENTINEL_BYTES);
+                emptyKeys.add(key);
+            } else {
+                byte[] encoded = encoder.apply(value);
+                metrics.recordPayloadSize(operation, encoded.length);
+                fills.put(key, encoded);
+            }
+        }
+        cacheClient.setBytesAll(fills, key -> emptyKeys.contains(key) ? REFERRAL_EMPTY_TTL : REFERRAL_READ_TTL);
+        return found;
+    }
+
+    private Optional<byte[]> awaitLoad(String key) {
+        for (int attempt = 0; attempt < LOAD_WAIT_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(LOAD_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            }
+            Optional<byte[]> value = cacheClient.getBytes(key);
+            if (value.isPresent()) {
+                return value;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the in-process cache's counters, or empty when there is no in-process cache
+     */
+    public Optional<LocalCacheStats> getLocalCacheStats() {
+        return localCache == null ? Optional.empty() : Optional.of(localCache.getStats());
+    }
+
+    @Override
+    public int countByReferrerId(String referrerId) {
+        String key = CacheKeys.referralCount(referrerId);
+        Optional<String> cached = cacheClient.getValue(key);
+        if (cached.isPresent()) {
+            if ("0".equals(cached.get())) {
+                metrics.recordNegativeHit(REFERRAL_COUNT);
+            } else {
+                metrics.recordHit(REFERRAL_COUNT);
+            }
+            return Integer.parseInt(cached.get());
+        }
+        metrics.recordMiss(REFERRAL_COUNT);
+        int count = timedLoad(REFERRAL_COUNT, () -> referralDao.countByReferrerId(referrerId));
+        cacheClient.setValue(key, count == 0 ? REFERRAL_EMPTY_TTL : REFERRAL_READ_TTL, String.valueOf(count));
+        return count;
+    }
+
+    @Override
+    public List<String> findChildIdsByReferrerId(String referrerId) {
+        String key = CacheKeys.referralChildIds(referrerId);
+        Optional<String> cached = cacheClient.getValue(key);
+        if (cached.isPresent()) {
+            recordHit(REFERRAL_CHILD_IDS, cached.get().getBytes(StandardCharsets.UTF_8));
+            return childIdsFromJson(cached.get());
+        }
+        metrics.recordMiss(REFERRAL_CHILD_IDS);
+        List<String> childIds = timedLoad(REFERRAL_CHILD_IDS, () -> referralDao.findChildIdsByReferrerId(referrerId));
+        if (childIds.isEmpty()) {
+            cacheClient.setValue(key, REFERRAL_EMPTY_TTL, EMPTY_SENTINEL);
+        } else {
+            String json = gson.toJson(childIds);
+            metrics.recordPayloadSize(REFERRAL_CHILD_IDS, json.getBytes(StandardCharsets.UTF_8).length);
+            cacheClient.setValue(key, REFERRAL_READ_TTL, json);
+        }
+        return childIds;
+    }
+
     @Override
     public List<ReferralRecord> findUsersWithoutReferrerId() {
         return referralDao.findUsersWithoutReferrerId();
     }
 
-    GsonBuilder builder = new GsonBuilder().registerTypeAdapter(
-            ZonedDateTime.class,
-            new TypeAdapter<ZonedDateTime>() {
-                @Override
-                public void write(JsonWriter out, ZonedDateTime value) throws IOException {
-                    out.value(value.toString());
-                }
-                @Override
-                public ZonedDateTime read(JsonReader in) throws IOException {
-                    return ZonedDateTime.parse(in.nextString());
+    @Override
+    public void scanUsersWithoutReferrerId(Consumer<List<ReferralRecord>> pageConsumer) {
+        referralDao.scanUsersWithoutReferrerId(pageConsumer);
+    }
+
+    /**
+     * @return the Gson used for the JSON cache format, which writes dates as ISO strings
+     */
+    static Gson newGson() {
+        return new GsonBuilder().registerTypeAdapter(
+                ZonedDateTime.class,
+                new TypeAdapter<ZonedDateTime>() {
+                    @Override
+                    public void write(JsonWriter out, ZonedDateTime value) throws IOException {
+                        out.value(value.toString());
+                    }
+                    @Override
+                    public ZonedDateTime read(JsonReader in) throws IOException {
+                        return ZonedDateTime.parse(in.nextString());
+                    }
                 }
-            }
-    ).enableComplexMapKeySerialization();
+        ).enableComplexMapKeySerialization().create();
+    }
+
+    private byte[] encode(List<ReferralRecord> records) {
+        if (format == ReferralCacheFormat.BINARY) {
+            return ReferralListCodec.encode(records);
+        }
+        return gson.toJson(records).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<ReferralRecord> decode(byte[] value) {
+        if (Arrays.equals(value, EMPTY_SENTINEL_BYTES)) {
+            return new ArrayList<>();
+        }
+        if (ReferralListCodec.isBinary(value)) {
+            return ReferralListCodec.decode(value);
+        }
+        return fromJson(new String(value, StandardCharsets.UTF_8));
+    }
 
     private List<ReferralRecord> fromJson(String json) {
         return gson.fromJson(json, new TypeToken<ArrayList<ReferralRecord>>() { }.getType());
     }
 
+    private List<String> childIdsFromJson(String json) {
+        if (EMPTY_SENTINEL.equals(json)) {
+            return new ArrayList<>();
+        }
+        return gson.fromJson(json, new TypeToken<ArrayList<String>>() { }.getType());
+    }
+
+    private void recordHit(String operation, byte[] value) {
+        if (Arrays.equals(value, EMPTY_SENTINEL_BYTES)) {
+            metrics.recordNegativeHit(operation);
+        } else {
+            metrics.recordHit(operation);
+            metrics.recordPayloadSize(operation, value.length);
+        }
+    }
+
+    private <T> T timedLoad(String operation, Supplier<T> load) {
+        long start = System.nanoTime();
+        T loaded = load.get();
+        metrics.recordLoad(operation, System.nanoTime() - start);
+        return loaded;
+    }
+
+    private boolean useLocalCache() {
+        return localCache != null && (invalidationBus == null || invalidationBus.isCurrent());
+    }
+
+    private void invalidateLocal(String referrerId) {
+        if (localCache != null && referrerId != null) {
+            localCache.invalidate(referrerId);
+        }
+    }
+
     private List<ReferralRecord> addToCache(List<ReferralRecord> records, String referrerId) {
-        cacheClient.setValue(
-                String.format(REFERRAL_KEY, referrerId),
-                REFERRAL_READ_TTL,
-                gson.toJson(records)
-        );
+        // Customers who referred nobody get a one-byte sentinel with its own, shorter TTL
+        if (records.isEmpty()) {
+            cacheClient.setBytes(CacheKeys.referrals(referrerId), REFERRAL_EMPTY_TTL, EMPTY_SENTINEL_BYTES);
+        } else {
+            byte[] encoded = encode(records);
+            metrics.recordPayloadSize(REFERRALS, encoded.length);
+            cacheClient.setBytes(CacheKeys.referrals(referrerId), REFERRAL_READ_TTL, encoded);
+        }
         return  records;
     }
 }
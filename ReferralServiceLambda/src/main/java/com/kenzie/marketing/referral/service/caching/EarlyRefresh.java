@@ -0,0 +1,56 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Decides when to refresh a cached value before it expires, using probabilistic early expiration (XFetch).
+ *
+ * A read refreshes the value with probability {@code exp(-remainingTtl / (beta * loadTime))}, so a value read often
+ * is almost always refreshed by one reader shortly before it expires, while a value read rarely just expires. The
+ * load time is an average of recent loads rather than per key, since every key here is loaded the same way.
+ */
+public class EarlyRefresh {
+    private static final double LOAD_TIME_WEIGHT = 0.2;
+
+    private final double beta;
+    private final DoubleSupplier random;
+    private volatile double averageLoadMillis = -1;
+
+    /**
+     * @param beta how eagerly to refresh; 1 is the usual choice and 0 turns early refresh off
+     */
+    public EarlyRefresh(double beta) {
+        this(beta, () -> 1 - ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * @param random returns a number in (0, 1]
+     */
+    EarlyRefresh(double beta, DoubleSupplier random) {
+        this.beta = beta;
+        this.random = random;
+    }
+
+    /**
+     * @param remainingTtlMillis the cached value's remaining time to live, as returned by PTTL; negative when the
+     *                           value has no expiry
+     * @return true if this reader should refresh the value now
+     */
+    public boolean shouldRefresh(long remainingTtlMillis) {
+        double loadMillis = averageLoadMillis;
+        if (beta <= 0 || loadMillis < 0 || remainingTtlMillis < 0) {
+            return false;
+        }
+        return -loadMillis * beta * Math.log(random.getAsDouble()) >= remainingTtlMillis;
+    }
+
+    /**
+     * @param loadMillis how long a load of a cached value took
+     */
+    public void recordLoad(long loadMillis) {
+        double previous = averageLoadMillis;
+        // Racing updates may drop a sample, which only makes the average slightly less smooth
+        averageLoadMillis = previous < 0 ? loadMillis : previous + LOAD_TIME_WEIGHT * (loadMillis - previous);
+    }
+}
@@ -0,0 +1,243 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.google.gson.Gson;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Collects cache measurements in memory and writes them out as CloudWatch embedded metric format (EMF) log lines,
+ * which CloudWatch turns into metrics without any API calls from the Lambda.
+ *
+ * The Lambda handlers write the measurements at the end of every invocation. They are also written once
+ * {@code flushInterval} has passed, checked whenever a new one is recorded, so a long invocation writes them as it
+ * goes without a background thread. Each flush writes one line per operation, per command and one for the
+ * connection pool and compression. Counts are summed; latencies and sizes are sent as up to 100
+ * samples per flush, the EMF limit, picked uniformly from everything recorded in the interval, so CloudWatch
+ * percentiles stay unbiased.
+ */
+public class EmfCacheMetrics implements CacheMetrics {
+    public static final String NAMESPACE = "ReferralService/Cache";
+
+    private static final int MAX_SAMPLES = 100;
+    private static final String OPERATION = "Operation";
+    private static final String COMMAND = "Command";
+    private static final String COUNT = "Count";
+    private static final String MILLISECONDS = "Milliseconds";
+    private static final String BYTES = "Bytes";
+    private static final String NONE = "None";
+
+    private final Consumer<String> sink;
+    private final long flushIntervalMillis;
+    private final Clock clock;
+    private final Gson gson = new Gson();
+    private final Map<String, Group> groups = new TreeMap<>();
+    private long lastFlushMillis;
+
+    /**
+     * @param sink receives each EMF line; in Lambda, {@code System.out::println} sends it to CloudWatch Logs as is
+     * @param flushInterval how long measurements are collected before they are written
+     */
+    public EmfCacheMetrics(Consumer<String> sink, Duration flushInterval, Clock clock) {
+        this.sink = sink;
+        this.flushIntervalMillis = flushInterval.toMillis();
+        this.clock = clock;
+        this.lastFlushMillis = clock.millis();
+    }
+
+    @Override
+    public void recordHit(String operation) {
+        count(OPERATION, operation, "Hits");
+    }
+
+    @Override
+    public void recordNegativeHit(String operation) {
+        count(OPERATION, operation, "NegativeHits");
+    }
+
+    @Override
+    public void recordMiss(String operation) {
+        count(OPERATION, operation, "Misses");
+    }
+
+    @Override
+    public void recordPayloadSize(String operation, int bytes) {
+        sample(OPERATION, operation, "PayloadSize", BYTES, bytes);
+    }
+
+    @Override
+    public void recordLoad(String operation, long nanos) {
+        sample(OPERATION, operation, "LoadTime", MILLISECONDS, nanos / 1_000_000.0);
+    }
+
+    @Override
+    public void recordCommand(String command, long nanos) {
+        synchronized (this) {
+            group(COMMAND, command).counter("Calls").add(1);
+        }
+        sample(COMMAND, command, "Latency", MILLISECONDS, nanos / 1_000_000.0);
+    }
+
+    @Override
+    public void recordConnectionWait(long nanos) {
+        sample(null, null, "ConnectionWait", MILLISECONDS, nanos / 1_000_000.0);
+    }
+
+    @Override
+    public void recordCompression(int uncompressedBytes, int compressedBytes) {
+        synchronized (this) {
+            group(null, null).counter("CompressedValues").add(1);
+        }
+        sample(null, null, "CompressionRatio", NONE, (double) uncompressedBytes / compressedBytes);
+    }
+
+    /**
+     * Writes everything recorded since the last flush.
+     */
+    @Override
+    public void flush() {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            long timestamp = clock.millis();
+            for (Group group : groups.values()) {
+                if (!group.isEmpty()) {
+                    lines.add(gson.toJson(group.toEmf(timestamp)));
+                }
+            }
+            groups.clear();
+            lastFlushMillis = timestamp;
+        }
+        // Written outside the lock, so a slow sink never holds up the cache
+        lines.forEach(sink);
+    }
+
+    private void count(String dimension, String value, String metric) {
+        synchronized (this) {
+            group(dimension, value).counter(metric).add(1);
+        }
+        flushIfDue();
+    }
+
+    private void sample(String dimension, String value, String metric, String unit, double sample) {
+        synchronized (this) {
+            group(dimension, value).distribution(metric, unit).add(sample);
+        }
+        flushIfDue();
+    }
+
+    private void flushIfDue() {
+        boolean due;
+        synchronized (this) {
+            due = clock.millis() - lastFlushMillis >= flushIntervalMillis;
+        }
+        if (due) {
+            flush();
+        }
+    }
+
+    private Group group(String dimension, String value) {
+        String key = dimension == null ? "" : dimension + "=" + value;
+        return groups.computeIfAbsent(key, k -> new Group(dimension, value));
+    }
+
+    /**
+     * The metrics that share one dimension value, and so one EMF line.
+     */
+    private static class Group {
+        private final String dimension;
+        private final String value;
+        private final Map<String, Counter> counters = new TreeMap<>();
+        private final Map<String, Distribution> distributions = new TreeMap<>();
+
+        Group(String dimension, String value) {
+            this.dimension = dimension;
+            this.value = value;
+        }
+
+        Counter counter(String metric) {
+            return counters.computeIfAbsent(metric, name -> new Counter());
+        }
+
+        Distribution distribution(String metric, String unit) {
+            return distributions.computeIfAbsent(metric, name -> new Distribution(unit));
+        }
+
+        boolean isEmpty() {
+            return counters.isEmpty() && distributions.isEmpty();
+        }
+
+        Map<String, Object> toEmf(long timestamp) {
+            List<Map<String, String>> definitions = new ArrayList<>();
+            Map<String, Object> line = new LinkedHashMap<>();
+            Map<String, Object> metadata = new LinkedHashMap<>();
+            Map<String, Object> directive = new LinkedHashMap<>();
+            directive.put("Namespace", NAMESPACE);
+            directive.put("Dimensions", Collections.singletonList(dimension == null
+                    ? Collections.emptyList() : Collections.singletonList(dimension)));
+            directive.put("Metrics", definitions);
+            metadata.put("Timestamp", timestamp);
+            metadata.put("CloudWatchMetrics", Collections.singletonList(directive));
+            line.put("_aws", metadata);
+            if (dimension != null) {
+                line.put(dimension, value);
+            }
+            counters.forEach((metric, counter) -> {
+                definitions.add(definition(metric, COUNT));
+                line.put(metric, counter.total);
+            });
+            distributions.forEach((metric, distribution) -> {
+                definitions.add(definition(metric, distribution.unit));
+                line.put(metric, distribution.samples);
+            });
+            return line;
+        }
+
+        private static Map<String, String> definition(String metric, String unit) {
+            Map<String, String> definition = new LinkedHashMap<>();
+            definition.put("Name", metric);
+            definition.put("Unit", unit);
+            return definition;
+        }
+    }
+
+    private static class Counter {
+        private long total;
+
+        void add(long amount) {
+            total += amount;
+        }
+    }
+
+    /**
+     * A uniform sample of at most {@link #MAX_SAMPLES} values (reservoir sampling).
+     */
+    private static class Distribution {
+        private final String unit;
+        private final List<Double> samples = new ArrayList<>();
+        private long seen;
+
+        Distribution(String unit) {
+            this.unit = unit;
+        }
+
+        void add(double sample) {
+            seen++;
+            if (samples.size() < MAX_SAMPLES) {
+                samples.add(sample);
+                return;
+            }
+            long slot = ThreadLocalRandom.current().nextLong(seen);
+            if (slot < MAX_SAMPLES) {
+                samples.set((int) slot, sample);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Counts how often each referrer's list is read, in a Redis sorted set per hour, so a new container knows which
+ * lists to load first.
+ *
+ * Only one read in {@code sampleRate} is counted, with a weight of {@code sampleRate}, so the counts cost one Redis
+ * round trip per {@code sampleRate} reads. Each hour's set expires after two hours, and the hottest referrers are
+ * taken from the current and the previous hour, so the ranking follows traffic instead of growing forever.
+ */
+public class HotReferrers {
+    static final Logger log = LogManager.getLogger();
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final int ACCESS_TTL_SECONDS = 2 * 60 * 60;
+
+    private final CacheClient cacheClient;
+    private final int sampleRate;
+    private final Clock clock;
+
+    /**
+     * @param sampleRate count one read in this many; 1 counts every read
+     */
+    public HotReferrers(CacheClient cacheClient, int sampleRate, Clock clock) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate must be at least 1");
+        }
+        this.cacheClient = cacheClient;
+        this.sampleRate = sampleRate;
+        this.clock = clock;
+    }
+
+    /**
+     * Counts one read of the referrer's list. A failure is logged rather than thrown, so counting never fails a read.
+     */
+    public void recordAccess(String referrerId) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        try {
+            cacheClient.incrementSortedSetScore(CacheKeys.referrerAccess(currentHour()), referrerId, sampleRate,
+                    ACCESS_TTL_SECONDS);
+        } catch (RuntimeException e) {
+            log.warn("Could not count a read of referrer " + referrerId, e);
+        }
+    }
+
+    /**
+     * @param count the maximum number of referrers to return
+     * @return the referrers read most often over the current and the previous hour, most read first
+     */
+    public List<String> hottest(int count) {
+        long hour = currentHour();
+        Map<String, Double> scores = new HashMap<>();
+        for (long fromHour = hour - 1; fromHour <= hour; fromHour++) {
+            cacheClient.getSortedSetDescending(CacheKeys.referrerAccess(fromHour), 0, count - 1)
+                    .forEach((referrerId, score) -> scores.merge(referrerId, score, Double::sum));
+        }
+        List<String> referrerIds = new ArrayList<>(scores.keySet());
+        referrerIds.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        return new ArrayList<>(referrerIds.subList(0, Math.min(count, referrerIds.size())));
+    }
+
+    private long currentHour() {
+        return clock.millis() / HOUR_MILLIS;
+    }
+}
@@ -0,0 +1,203 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import redis.clients.jedis.JedisPubSub;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tells every container which referrers changed, so in-process caches can drop their copies, using Redis pub/sub
+ * on the existing pool.
+ *
+ * A subscriber cannot tell on its own whether it has missed messages, so each bus also publishes a heartbeat
+ * carrying the time it was sent to a channel only it listens to. Redis delivers a connection's messages in order, so
+ * once a heartbeat sent at time T has arrived, every invalidation published before T has arrived too.
+ * {@link #isCurrent()} is false while the newest heartbeat received is older than {@code maxStaleness}, e.g. while
+ * the subscription is reconnecting or the Lambda container was frozen, and callers must not trust their in-process
+ * copies until it is true again. Every (re)subscription also resets the listeners, since messages sent while
+ * disconnected are lost.
+ */
+public class InvalidationBus {
+    static final Logger log = LogManager.getLogger();
+
+    public static final String CHANNEL = "ReferralInvalidations";
+    /**
+     * Published instead of a referrer ID when a customer without a referrer is added.
+     */
+    public static final String ROOTS = "";
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final CacheClient cacheClient;
+    private final long maxStalenessMillis;
+    private final Clock clock;
+    private final String heartbeatChannel = CHANNEL + "::heartbeat::" + UUID.randomUUID();
+    private final Gson gson = new Gson();
+    private final List<Consumer<Collection<String>>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> resetListeners = new CopyOnWriteArrayList<>();
+    private final Subscriber subscriber = new Subscriber();
+
+    // The send time of the newest heartbeat received, or -1 before the first one
+    private volatile long confirmedUpToMillis = -1;
+    private volatile boolean running;
+    private ScheduledExecutorService heartbeats;
+
+    /**
+     * @param maxStaleness how far behind the published invalidations the bus may fall before {@link #isCurrent()}
+     *                     turns false. Heartbeats are sent four times per period.
+     */
+    public InvalidationBus(CacheClient cacheClient, Duration maxStaleness, Clock clock) {
+        this.cacheClient = cacheClient;
+        this.maxStalenessMillis = maxStaleness.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @param listener called with the IDs from every invalidation, on the subscription thread
+     * @param reset called whenever invalidations may have been missed; the listener's cache should be cleared
+     */
+    public void addListener(Consumer<Collection<String>> listener, Runnable reset) {
+        listeners.add(listener);
+        resetListeners.add(reset);
+    }
+
+    /**
+     * Subscribes on a background thread, which holds one pooled connection for as long as the bus runs, and starts
+     * sending heartbeats.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::subscribeUntilStopped, "referral-invalidation-bus");
+        thread.setDaemon(true);
+        thread.start();
+
+        heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread heartbeat = new Thread(runnable, "referral-invalidation-heartbeat");
+            heartbeat.setDaemon(true);
+            return heartbeat;
+        });
+        long interval = Math.max(1, maxStalenessMillis / 4);
+        heartbeats.scheduleWithFixedDelay(this::sendHeartbeat, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (heartbeats != null) {
+            heartbeats.shutdownNow();
+        }
+        if (subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return true if every invalidation published more than {@code maxStaleness} ago has been handled
+     */
+    public boolean isCurrent() {
+        long confirmedUpTo = confirmedUpToMillis;
+        return confirmedUpTo >= 0 && clock.millis() - confirmedUpTo <= maxStalenessMillis;
+    }
+
+    /**
+     * Tells every container, this one included, that the referrers' cached values changed. A failure is logged
+     * rather than thrown, since the write it follows has already succeeded; other containers then fall back to
+     * their caches' TTL.
+     */
+    public void publish(Collection<String> referrerIds) {
+        if (referrerIds.isEmpty()) {
+            return;
+        }
+        try {
+            cacheClient.publish(CHANNEL, gson.toJson(referrerIds));
+        } catch (RuntimeException e) {
+            log.warn("Could not publish referral invalidations " + referrerIds, e);
+        }
+    }
+
+    /**
+     * Handles one message from either channel.
+     */
+    void onMessage(String channel, String message) {
+        if (heartbeatChannel.equals(channel)) {
+            confirmedUpToMillis = Math.max(confirmedUpToMillis, Long.parseLong(message));
+            return;
+        }
+        List<String> referrerIds = gson.fromJson(message, new TypeToken<ArrayList<String>>() { }.getType());
+        for (Consumer<Collection<String>> listener : listeners) {
+            listener.accept(referrerIds);
+        }
+    }
+
+    /**
+     * Called once the subscription is (re)established. Anything published before now may have been missed.
+     */
+    void onSubscribed() {
+        resetListeners.forEach(Runnable::run);
+    }
+
+    void sendHeartbeat() {
+        try {
+            cacheClient.publish(heartbeatChannel, String.valueOf(clock.millis()));
+        } catch (RuntimeException e) {
+            log.warn("Could not send invalidation heartbeat", e);
+        }
+    }
+
+    private void subscribeUntilStopped() {
+        while (running) {
+            try {
+                cacheClient.subscribe(subscriber, CHANNEL, heartbeatChannel);
+            } catch (RuntimeException e) {
+                log.warn("Invalidation subscription dropped, reconnecting", e);
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private class Subscriber extends JedisPubSub {
+        @Override
+        public void onMessage(String channel, String message) {
+            try {
+                InvalidationBus.this.onMessage(channel, message);
+            } catch (RuntimeException e) {
+                // One bad message must not end the subscription
+                log.warn("Ignoring invalidation message " + message, e);
+            }
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            // Both channels are subscribed by one command, so the second reply means the subscription is complete
+            if (subscribedChannels == 2) {
+                onSubscribed();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A small in-process cache with least-recently-used eviction and a fixed time to live, kept in front of Redis so
+ * hot keys are served without a round trip or a JSON parse.
+ *
+ * Entries are held in an access-ordered {@link LinkedHashMap} under one lock. That is plenty for the few threads of
+ * a Lambda container; values must be treated as read only, since every reader gets the same instance.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LocalCache<K, V> {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final Map<K, Entry<V>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param maxSize the most entries to hold; the least recently used entry is evicted to make room
+     * @param ttl how long an entry is served after it was put
+     */
+    public LocalCache(int maxSize, Duration ttl, Clock clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > LocalCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or empty if the key is missing or its entry has expired
+     */
+    public synchronized Optional<V> get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return Optional.empty();
+        }
+        if (clock.millis() >= entry.expiresAtMillis) {
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(entry.value);
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, clock.millis() + ttlMillis));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * @return the counts since the cache was created
+     */
+    public synchronized LocalCacheStats getStats() {
+        return new LocalCacheStats(hits, misses, evictions, expirations, entries.size());
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAtMillis;
+
+        Entry(V value, long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.kenzie.marketing.referral.service.caching;
+
+/**
+ * A point-in-time copy of a {@link LocalCache}'s counters.
+ */
+public class LocalCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long expirations;
+    private final int size;
+
+    public LocalCacheStats(long hits, long misses, long evictions, long expirations, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.size = size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the entries removed to make room for newer ones
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the entries removed because they outlived the TTL
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the share of reads that were hits, or 0 before the first read
+     */
+    public double getHitRate() {
+        long reads = hits + misses;
+        return reads == 0 ? 0 : (double) hits / reads;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalCacheStats{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", expirations=" + expirations +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package com.kenzie.marketing.referral.service.caching;
+
+/**
+ * Discards every measurement. Used when metrics are turned off, and in tests.
+ */
+public class NoOpCacheMetrics implements CacheMetrics {
+    @Override
+    public void recordHit(String operation) {
+    }
+
+    @Override
+    public void recordNegativeHit(String operation) {
+    }
+
+    @Override
+    public void recordMiss(String operation) {
+    }
+
+    @Override
+    public void recordPayloadSize(String operation, int bytes) {
+    }
+
+    @Override
+    public void recordLoad(String operation, long nanos) {
+    }
+
+    @Override
+    public void recordCommand(String command, long nanos) {
+    }
+
+    @Override
+    public void recordConnectionWait(long nanos) {
+    }
+
+    @Override
+    public void recordCompression(int uncompressedBytes, int compressedBytes) {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,29 @@
+package com.kenzie.marketing.referral.service.caching;
+
+/**
+ * Selects how CachingReferralDao writes referral lists to Redis. Values in either format are always readable, so
+ * the format can be switched without flushing the cache.
+ */
+public enum ReferralCacheFormat {
+    /** Gson JSON with ISO date strings. */
+    JSON,
+    /** The compact binary encoding of {@link ReferralListCodec}. */
+    BINARY;
+
+    /**
+     * Parses a format name, falling back to {@link #JSON} when the value is missing or unknown.
+     * @param name the configured format name, e.g. from the REFERRAL_CACHE_FORMAT environment variable
+     * @return the matching ReferralCacheFormat
+     */
+    public static ReferralCacheFormat fromName(String name) {
+        if (name == null || name.length() == 0) {
+            return JSON;
+        }
+        for (ReferralCacheFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name.trim())) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+}
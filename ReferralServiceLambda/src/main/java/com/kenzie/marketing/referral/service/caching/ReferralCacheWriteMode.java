@@ -0,0 +1,28 @@
+package com.kenzie.marketing.referral.service.caching;
+
+/**
+ * Selects what CachingReferralDao does to the referrer's cached values when a referral is added.
+ */
+public enum ReferralCacheWriteMode {
+    /** Delete them, so the next read loads them from DynamoDB. */
+    INVALIDATE,
+    /** Add the new referral to the values that are cached, in one Redis transaction, so they stay fresh. */
+    WRITE_THROUGH;
+
+    /**
+     * Parses a mode name, falling back to {@link #INVALIDATE} when the value is missing or unknown.
+     * @param name the configured mode name, e.g. from the REFERRAL_CACHE_WRITE_MODE environment variable
+     * @return the matching ReferralCacheWriteMode
+     */
+    public static ReferralCacheWriteMode fromName(String name) {
+        if (name == null || name.length() == 0) {
+            return INVALIDATE;
+        }
+        for (ReferralCacheWriteMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        return INVALIDATE;
+    }
+}
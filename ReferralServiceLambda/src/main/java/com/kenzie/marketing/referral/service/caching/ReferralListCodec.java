@@ -0,0 +1,156 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary encoding for cached lists of referrals.
+ *
+ * A value starts with a marker byte that can never begin UTF-8 text, so it is told apart from a JSON value, then a
+ * version byte and the number of records. Each record is a flags byte, the length-prefixed UTF-8 customer ID, then
+ * the referrer ID and the referral date in epoch milliseconds when the flags say they are present. Lengths and
+ * counts are unsigned varints. Dates keep their instant to the millisecond and are read back in UTC.
+ */
+public final class ReferralListCodec {
+    private static final byte MARKER = (byte) 0xFE;
+    private static final byte VERSION = 1;
+    private static final int HAS_REFERRER = 1;
+    private static final int HAS_DATE = 1 << 1;
+
+    private ReferralListCodec() {
+    }
+
+    /**
+     * @return true if the value was written by {@link #encode(List)} rather than as JSON
+     */
+    public static boolean isBinary(byte[] value) {
+        return value.length > 0 && value[0] == MARKER;
+    }
+
+    public static byte[] encode(List<ReferralRecord> records) {
+        List<byte[]> ids = new ArrayList<>(records.size() * 2);
+        int size = 2 + varintSize(records.size());
+        for (ReferralRecord record : records) {
+            byte[] customerId = utf8(record.getCustomerId());
+            byte[] referrerId = utf8(record.getReferrerId());
+            ids.add(customerId);
+            ids.add(referrerId);
+            size += 1 + varintSize(customerId.length) + customerId.length;
+            if (referrerId != null) {
+                size += varintSize(referrerId.length) + referrerId.length;
+            }
+            if (record.getDateReferred() != null) {
+                size += Long.BYTES;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MARKER).put(VERSION);
+        putVarint(buffer, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            ReferralRecord record = records.get(i);
+            byte[] customerId = ids.get(2 * i);
+            byte[] referrerId = ids.get(2 * i + 1);
+            int flags = (referrerId == null ? 0 : HAS_REFERRER) | (record.getDateReferred() == null ? 0 : HAS_DATE);
+            buffer.put((byte) flags);
+            putBytes(buffer, customerId);
+            if (referrerId != null) {
+                putBytes(buffer, referrerId);
+            }
+            if (record.getDateReferred() != null) {
+                buffer.putLong(record.getDateReferred().toInstant().toEpochMilli());
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not in a version of the binary format this code can read
+     */
+    public static List<ReferralRecord> decode(byte[] value) {
+        if (!isBinary(value) || value.length < 2) {
+            throw new IllegalArgumentException("Not a binary referral list");
+        }
+        if (value[1] != VERSION) {
+            throw new IllegalArgumentException("Unknown referral list version " + value[1]);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(value, 2, value.length - 2);
+            int count = getVarint(buffer);
+            List<ReferralRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int flags = buffer.get();
+                ReferralRecord record = new ReferralRecord();
+                record.setCustomerId(getString(buffer));
+                if ((flags & HAS_REFERRER) != 0) {
+                    record.setReferrerId(getString(buffer));
+                }
+                if ((flags & HAS_DATE) != 0) {
+                    record.setDateReferred(ZonedDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong()),
+                            ZoneOffset.UTC));
+                }
+                records.add(record);
+            }
+            return records;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated referral list", e);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed length in referral list");
+    }
+}
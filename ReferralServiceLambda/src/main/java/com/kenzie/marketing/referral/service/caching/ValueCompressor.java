@@ -0,0 +1,108 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates cached values above a size threshold before they are written to Redis, and inflates them again when read.
+ *
+ * A compressed value starts with a marker byte that can never begin UTF-8 text or a {@link ReferralListCodec} value,
+ * followed by the uncompressed length as four bytes and the Deflate stream. Values without the marker are returned
+ * as they are, so compressed and plain values can be read side by side, and turning compression on or off never
+ * needs the cache to be flushed. A value is only stored compressed if that makes it smaller.
+ */
+public class ValueCompressor {
+    private static final byte MARKER = (byte) 0xFD;
+    private static final int HEADER_SIZE = 5;
+
+    private final int thresholdBytes;
+    private final CacheMetrics metrics;
+
+    /**
+     * @param thresholdBytes the smallest value that is compressed; 0 or less never compresses, but still reads
+     *                       compressed values
+     * @param metrics receives the sizes before and after compression
+     */
+    public ValueCompressor(int thresholdBytes, CacheMetrics metrics) {
+        this.thresholdBytes = thresholdBytes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return true if the value was written compressed by {@link #compress(byte[])}
+     */
+    public static boolean isCompressed(byte[] value) {
+        return value.length >= HEADER_SIZE && value[0] == MARKER;
+    }
+
+    /**
+     * @return the value as it should be stored: compressed if it is at least the threshold and compresses at all,
+     *         otherwise unchanged
+     */
+    public byte[] compress(byte[] value) {
+        if (thresholdBytes <= 0 || value.length < thresholdBytes) {
+            return value;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            byte[] compressed = new byte[value.length];
+            int length = HEADER_SIZE;
+            while (!deflater.finished() && length < compressed.length) {
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            if (!deflater.finished()) {
+                // Not worth storing compressed; the Deflate stream would be as big as the value
+                return value;
+            }
+            ByteBuffer.wrap(compressed).put(MARKER).putInt(value.length);
+            metrics.recordCompression(value.length, length);
+            return Arrays.copyOf(compressed, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return the value as it was before {@link #compress(byte[])}, or the value itself if it is not compressed
+     * @throws IllegalStateException if the value has the compressed marker but is not a complete Deflate stream
+     */
+    public byte[] decompress(byte[] value) {
+        if (!isCompressed(value)) {
+            return value;
+        }
+        int length = ByteBuffer.wrap(value, 1, 4).getInt();
+        if (length < 0) {
+            throw new IllegalStateException("Compressed cache value has a negative length");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(value, HEADER_SIZE, value.length - HEADER_SIZE);
+            byte[] decompressed = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int inflated = inflater.inflate(decompressed, read, length - read);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += inflated;
+            }
+            // The stream may still hold its end marker once every byte is out, and must not hold anything more
+            if (read == length && !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                read++;
+            }
+            if (read != length || !inflater.finished()) {
+                throw new IllegalStateException("Compressed cache value is truncated or corrupt");
+            }
+            return decompressed;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed cache value is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
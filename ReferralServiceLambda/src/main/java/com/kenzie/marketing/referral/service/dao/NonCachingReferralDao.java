@@ -1,25 +1,86 @@
 package com.kenzie.marketing.referral.service.dao;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
 import com.google.common.collect.ImmutableMap;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.task.FanOutExecutor;
+import com.kenzie.marketing.referral.service.task.FanOutResult;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class NonCachingReferralDao implements ReferralDao {
+    private static final int SCAN_PAGE_SIZE = 250;
+
     private DynamoDBMapper mapper;
+    private final int scanSegments;
+    private final ReferralSummaryDao summaryDao;
+    private final FanOutExecutor queryExecutor;
 
     public NonCachingReferralDao(DynamoDBMapper mapper) {
+        this(mapper, 1);
+    }
+
+    /**
+     * @param scanSegments the number of segments (TotalSegments) full table scans are split into and read in
+     *                     parallel. 1 scans sequentially.
+     */
+    public NonCachingReferralDao(DynamoDBMapper mapper, int scanSegments) {
+        this(mapper, scanSegments, null);
+    }
+
+    /**
+     * @param summaryDao when present, new referrals are written through it so the ancestors' summary counters are
+     *                   updated in the same transaction. May be null to only write the Referral table.
+     */
+    public NonCachingReferralDao(DynamoDBMapper mapper, int scanSegments, ReferralSummaryDao summaryDao) {
+        this(mapper, scanSegments, summaryDao, null);
+    }
+
+    /**
+     * @param queryExecutor runs the index queries of the batch lookups concurrently. May be null to run them one
+     *                      after another. Callers must not use the batch lookups from a task of the same executor.
+     */
+    public NonCachingReferralDao(DynamoDBMapper mapper, int scanSegments, ReferralSummaryDao summaryDao,
+                                 FanOutExecutor queryExecutor) {
+        if (scanSegments < 1) {
+            throw new IllegalArgumentException("scanSegments must be at least 1");
+        }
         this.mapper = mapper;
+        this.scanSegments = scanSegments;
+        this.summaryDao = summaryDao;
+        this.queryExecutor = queryExecutor;
     }
 
     public ReferralRecord addReferral(ReferralRecord referral) {
+        if (summaryDao != null) {
+            return summaryDao.addReferral(referral);
+        }
         try {
             mapper.save(referral, new DynamoDBSaveExpression()
                     .withExpected(ImmutableMap.of(
@@ -34,21 +95,150 @@ public class NonCachingReferralDao implements ReferralDao {
     }
 
     public List<ReferralRecord> findByReferrerId(String referrerId) {
+        return mapper.query(ReferralRecord.class, referrerIdQuery(referrerId));
+    }
+
+    public int countByReferrerId(String referrerId) {
+        // Select.COUNT: DynamoDB returns only the number of matching items
+        return mapper.count(ReferralRecord.class, referrerIdQuery(referrerId));
+    }
+
+    public List<String> findChildIdsByReferrerId(String referrerId) {
+        DynamoDBQueryExpression<ReferralRecord> queryExpression = referrerIdQuery(referrerId)
+                .withProjectionExpression("CustomerId");
+
+        List<String> childIds = new ArrayList<>();
+        for (ReferralRecord record : mapper.query(ReferralRecord.class, queryExpression)) {
+            childIds.add(record.getCustomerId());
+        }
+        return childIds;
+    }
+
+    /**
+     * Queries the index once per referrer, with the queries running concurrently when there is a query executor.
+     * @throws IllegalStateException if any query failed or missed its deadline
+     */
+    @Override
+    public Map<String, List<ReferralRecord>> findByReferrerIds(Collection<String> referrerIds) {
+        return queryEach(referrerIds, this::findByReferrerId);
+    }
+
+    @Override
+    public Map<String, List<String>> findChildIdsByReferrerIds(Collection<String> referrerIds) {
+        return queryEach(referrerIds, this::findChildIdsByReferrerId);
+    }
+
+    private <T> Map<String, T> queryEach(Collection<String> referrerIds, Function<String, T> query) {
+        Set<String> uniqueIds = new LinkedHashSet<>(referrerIds);
+        Map<String, T> results = new HashMap<>();
+        if (queryExecutor == null || uniqueIds.size() < 2) {
+            for (String referrerId : uniqueIds) {
+                results.put(referrerId, query.apply(referrerId));
+            }
+            return results;
+        }
+
+        // Results arrive in completion order, so each carries its referrer
+        List<Callable<Map.Entry<String, T>>> queries = new ArrayList<>();
+        for (String referrerId : uniqueIds) {
+            queries.add(() -> new AbstractMap.SimpleImmutableEntry<>(referrerId, query.apply(referrerId)));
+        }
+        FanOutResult<Map.Entry<String, T>> result = queryExecutor.invokeAll(queries);
+        if (!result.isComplete()) {
+            throw new IllegalStateException("Referral queries did not finish: " + result.getReport());
+        }
+        for (Map.Entry<String, T> entry : result.getResults()) {
+            results.put(entry.getKey(), entry.getValue());
+        }
+        return results;
+    }
+
+    private static DynamoDBQueryExpression<ReferralRecord> referrerIdQuery(String referrerId) {
         ReferralRecord referralRecord = new ReferralRecord();
         referralRecord.setReferrerId(referrerId);
 
-        DynamoDBQueryExpression<ReferralRecord> queryExpression = new DynamoDBQueryExpression<ReferralRecord>()
+        return new DynamoDBQueryExpression<ReferralRecord>()
                 .withHashKeyValues(referralRecord)
                 .withIndexName("ReferrerIdIndex")
                 .withConsistentRead(false);
-
-        return mapper.query(ReferralRecord.class, queryExpression);
     }
 
     public List<ReferralRecord> findUsersWithoutReferrerId() {
         DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
                 .withFilterExpression("attribute_not_exists(ReferrerId)");
 
+        if (scanSegments > 1) {
+            return mapper.parallelScan(ReferralRecord.class, scanExpression, scanSegments);
+        }
         return mapper.scan(ReferralRecord.class, scanExpression);
     }
+
+    /**
+     * Streams users without a referrer as the scan segments return them. Results are not kept once they have been
+     * iterated, and the stream can only be consumed once.
+     * @return a lazily loaded stream of root users
+     */
+    public Stream<ReferralRecord> streamUsersWithoutReferrerId() {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
+                .withFilterExpression("attribute_not_exists(ReferrerId)");
+        DynamoDBMapperConfig iterationOnly = DynamoDBMapperConfig.builder()
+                .withPaginationLoadingStrategy(DynamoDBMapperConfig.PaginationLoadingStrategy.ITERATION_ONLY)
+                .build();
+
+        List<ReferralRecord> results = scanSegments > 1
+                ? mapper.parallelScan(ReferralRecord.class, scanExpression, scanSegments, iterationOnly)
+                : mapper.scan(ReferralRecord.class, scanExpression, iterationOnly);
+        // ITERATION_ONLY lists do not support size(), so the spliterator must not ask for it
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(results.iterator(), Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
+
+    /**
+     * When the DAO is configured with more than one scan segment, each segment is read on its own thread and the
+     * page consumer is called concurrently.
+     */
+    public void scanUsersWithoutReferrerId(Consumer<List<ReferralRecord>> pageConsumer) {
+        if (scanSegments == 1) {
+            scanSegment(pageConsumer, null);
+            return;
+        }
+
+        ExecutorService segmentExecutor = Executors.newFixedThreadPool(scanSegments);
+        try {
+            List<Future<?>> segments = new ArrayList<>();
+            for (int segment = 0; segment < scanSegments; segment++) {
+                int thisSegment = segment;
+                segments.add(segmentExecutor.submit(() -> scanSegment(pageConsumer, thisSegment)));
+            }
+            for (Future<?> segment : segments) {
+                segment.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Parallel scan was interrupted " + e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Parallel scan segment failed", e.getCause());
+        } finally {
+            segmentExecutor.shutdownNow();
+        }
+    }
+
+    private void scanSegment(Consumer<List<ReferralRecord>> pageConsumer, Integer segment) {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
+                .withFilterExpression("attribute_not_exists(ReferrerId)")
+                .withLimit(SCAN_PAGE_SIZE);
+        if (segment != null) {
+            scanExpression.withSegment(segment).withTotalSegments(scanSegments);
+        }
+
+        ScanResultPage<ReferralRecord> page;
+        do {
+            page = mapper.scanPage(ReferralRecord.class, scanExpression);
+            if (!page.getResults().isEmpty()) {
+                pageConsumer.accept(page.getResults());
+            }
+            scanExpression.setExclusiveStartKey(page.getLastEvaluatedKey());
+        } while (page.getLastEvaluatedKey() != null);
+    }
 }
@@ -11,11 +11,65 @@ import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
 import com.google.common.collect.ImmutableMap;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface ReferralDao {
     ReferralRecord addReferral(ReferralRecord referral);
     List<ReferralRecord> findByReferrerId(String referrerId);
+
+    /**
+     * Counts the customers referred by the referrer without reading their records.
+     * @param referrerId the referrer to look up
+     * @return the number of direct referrals
+     */
+    int countByReferrerId(String referrerId);
+
+    /**
+     * Finds the ids of the customers referred by the referrer, skipping the rest of their records.
+     * @param referrerId the referrer to look up
+     * @return the customer ids of the direct referrals
+     */
+    List<String> findChildIdsByReferrerId(String referrerId);
+
+    /**
+     * Finds the referrals of several referrers at once. Implementations that read a remote store should do so in
+     * a few round trips rather than one per referrer; this default looks them up one at a time.
+     * @param referrerIds the referrers to look up
+     * @return the direct referrals of every referrer, by referrer; referrers without referrals map to an empty list
+     */
+    default Map<String, List<ReferralRecord>> findByReferrerIds(Collection<String> referrerIds) {
+        Map<String, List<ReferralRecord>> referrals = new HashMap<>();
+        for (String referrerId : new LinkedHashSet<>(referrerIds)) {
+            referrals.put(referrerId, findByReferrerId(referrerId));
+        }
+        return referrals;
+    }
+
+    /**
+     * Finds the ids of the customers referred by several referrers at once, like {@link #findByReferrerIds}.
+     * @param referrerIds the referrers to look up
+     * @return the customer ids of every referrer's direct referrals, by referrer
+     */
+    default Map<String, List<String>> findChildIdsByReferrerIds(Collection<String> referrerIds) {
+        Map<String, List<String>> childIds = new HashMap<>();
+        for (String referrerId : new LinkedHashSet<>(referrerIds)) {
+            childIds.put(referrerId, findChildIdsByReferrerId(referrerId));
+        }
+        return childIds;
+    }
     List<ReferralRecord> findUsersWithoutReferrerId();
 
+    /**
+     * Scans for users without a referrer, handing each page of results to the consumer as soon as it is read
+     * instead of materializing the whole scan.
+     * @param pageConsumer called once per scan page; must be thread safe, since segmented scans call it from
+     *                     several threads at once
+     */
+    void scanUsersWithoutReferrerId(Consumer<List<ReferralRecord>> pageConsumer);
+
 }
@@ -0,0 +1,233 @@
+package com.kenzie.marketing.referral.service.dao;
+
+import com.kenzie.marketing.referral.service.converter.ZonedDateTimeConverter;
+import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.model.ReferralSummaryRecord;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes the ReferralSummary table, which holds each customer's first, second and third level referral
+ * counts so a summary is a single GetItem instead of a walk of the referral tree.
+ *
+ * The counters are maintained at write time: a new referral is put into the Referral table in the same transaction
+ * that increments the counters of its referrer, grand-referrer and great-grand-referrer. The transaction only
+ * succeeds if the customer has not been referred before, so a retried or duplicate referral never counts twice.
+ */
+public class ReferralSummaryDao {
+    public static final int MAX_DEPTH = 3;
+
+    private static final String REFERRAL_TABLE = "Referral";
+    private static final String SUMMARY_TABLE = "ReferralSummary";
+    private static final String[] LEVEL_ATTRIBUTES = {
+        "NumFirstLevelReferrals", "NumSecondLevelReferrals", "NumThirdLevelReferrals"
+    };
+    private static final ZonedDateTimeConverter DATE_CONVERTER = new ZonedDateTimeConverter();
+
+    private final AmazonDynamoDB dynamoDb;
+    private final DynamoDBMapper mapper;
+
+    public ReferralSummaryDao(AmazonDynamoDB dynamoDb, DynamoDBMapper mapper) {
+        this.dynamoDb = dynamoDb;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Saves a new referral and counts it for every ancestor up to three levels above the customer.
+     *
+     * Ancestors are looked up with consistent reads before the transaction starts. An ancestor whose own referral
+     * is written at the same moment may be missed; the rebuild tool repairs any counter that drifts this way.
+     * @param referral the referral to save
+     * @return the saved referral
+     * @throws InvalidDataException if the customer has already been referred
+     */
+    public ReferralRecord addReferral(ReferralRecord referral) {
+        List<TransactWriteItem> writes = new ArrayList<>();
+        writes.add(new TransactWriteItem().withPut(new Put()
+                .withTableName(REFERRAL_TABLE)
+                .withItem(toItem(referral))
+                .withConditionExpression("attribute_not_exists(CustomerId)")));
+
+        List<String> ancestors = findAncestors(referral);
+        for (int level = 0; level < ancestors.size(); level++) {
+            writes.add(new TransactWriteItem().withUpdate(new Update()
+                    .withTableName(SUMMARY_TABLE)
+                    .withKey(ImmutableMap.of("CustomerId", new AttributeValue(ancestors.get(level))))
+                    .withUpdateExpression("ADD #count :one")
+                    .withExpressionAttributeNames(ImmutableMap.of("#count", LEVEL_ATTRIBUTES[level]))
+                    .withExpressionAttributeValues(ImmutableMap.of(":one", new AttributeValue().withN("1")))));
+        }
+
+        try {
+            dynamoDb.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(writes));
+        } catch (TransactionCanceledException e) {
+            List<CancellationReason> reasons = e.getCancellationReasons();
+            if (reasons != null && !reasons.isEmpty() && "ConditionalCheckFailed".equals(reasons.get(0).getCode())) {
+                throw new InvalidDataException("Customer has already been referred");
+            }
+            throw e;
+        }
+        return referral;
+    }
+
+    /**
+     * @param customerId the customer to look up
+     * @return the customer's counters, or null if nobody has been referred below them yet
+     */
+    public ReferralSummaryRecord findSummary(String customerId) {
+        return mapper.load(ReferralSummaryRecord.class, customerId);
+    }
+
+    /**
+     * Loads many customers' counters with BatchGetItem, which the mapper splits into requests of 100 keys.
+     * @param customerIds the customers to look up
+     * @return the counters found, by customer; customers without a summary item are left out
+     */
+    public Map<String, ReferralSummaryRecord> findSummaries(Collection<String> customerIds) {
+        Map<String, ReferralSummaryRecord> summaries = new HashMap<>();
+        if (customerIds.isEmpty()) {
+            return summaries;
+        }
+        List<ReferralSummaryRecord> keys = new ArrayList<>();
+        for (String customerId : customerIds) {
+            ReferralSummaryRecord key = new ReferralSummaryRecord();
+            key.setCustomerId(customerId);
+            keys.add(key);
+        }
+        for (Object loaded : mapper.batchLoad(keys).getOrDefault(SUMMARY_TABLE, new ArrayList<>())) {
+            ReferralSummaryRecord summary = (ReferralSummaryRecord) loaded;
+            summaries.put(summary.getCustomerId(), summary);
+        }
+        return summaries;
+    }
+
+    /**
+     * Overwrites a customer's counters with recomputed values, but only while they still hold the values that were
+     * read before the recomputation. A referral counted since then makes the write fail instead of being lost.
+     * @param expected the recomputed counters
+     * @param read the counters as they were read, or null if the customer had no summary item
+     * @return true if the counters were written, false if they changed since they were read
+     */
+    public boolean repairSummary(ReferralSummaryRecord expected, ReferralSummaryRecord read) {
+        Integer[] expectedCounts = counts(expected);
+        Integer[] readCounts = read == null ? new Integer[MAX_DEPTH] : counts(read);
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        List<String> sets = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        for (int level = 0; level < MAX_DEPTH; level++) {
+            names.put("#count" + level, LEVEL_ATTRIBUTES[level]);
+            values.put(":expected" + level, new AttributeValue().withN(String.valueOf(expectedCounts[level])));
+            sets.add("#count" + level + " = :expected" + level);
+            if (readCounts[level] == null) {
+                conditions.add("attribute_not_exists(#count" + level + ")");
+            } else {
+                values.put(":read" + level, new AttributeValue().withN(String.valueOf(readCounts[level])));
+                conditions.add("#count" + level + " = :read" + level);
+            }
+        }
+
+        try {
+            dynamoDb.updateItem(new UpdateItemRequest()
+                    .withTableName(SUMMARY_TABLE)
+                    .withKey(ImmutableMap.of("CustomerId", new AttributeValue(expected.getCustomerId())))
+                    .withUpdateExpression("SET " + String.join(", ", sets))
+                    .withConditionExpression(String.join(" AND ", conditions))
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the whole Referral table one page at a time, handing each record to the consumer.
+     * @param consumer called once per referral, on the calling thread
+     */
+    public void scanReferrals(Consumer<ReferralRecord> consumer) {
+        mapper.scan(ReferralRecord.class, new DynamoDBScanExpression(), iterationOnly()).forEach(consumer);
+    }
+
+    /**
+     * Reads the whole ReferralSummary table one page at a time, handing each record to the consumer.
+     * @param consumer called once per summary, on the calling thread
+     */
+    public void scanSummaries(Consumer<ReferralSummaryRecord> consumer) {
+        mapper.scan(ReferralSummaryRecord.class, new DynamoDBScanExpression(), iterationOnly()).forEach(consumer);
+    }
+
+    private List<String> findAncestors(ReferralRecord referral) {
+        List<String> ancestors = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        seen.add(referral.getCustomerId());
+        String ancestorId = referral.getReferrerId();
+        DynamoDBMapperConfig consistent = DynamoDBMapperConfig.builder()
+                .withConsistentReads(DynamoDBMapperConfig.ConsistentReads.CONSISTENT)
+                .build();
+
+        // A transaction may not touch the same item twice, so a malformed chain that loops back stops the walk
+        while (isPresent(ancestorId) && seen.add(ancestorId)) {
+            ancestors.add(ancestorId);
+            if (ancestors.size() == MAX_DEPTH) {
+                break;
+            }
+            ReferralRecord ancestor = mapper.load(ReferralRecord.class, ancestorId, consistent);
+            ancestorId = ancestor == null ? null : ancestor.getReferrerId();
+        }
+        return ancestors;
+    }
+
+    private static Map<String, AttributeValue> toItem(ReferralRecord referral) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("CustomerId", new AttributeValue(referral.getCustomerId()));
+        // ReferrerId keys the ReferrerIdIndex, which does not accept empty strings
+        if (isPresent(referral.getReferrerId())) {
+            item.put("ReferrerId", new AttributeValue(referral.getReferrerId()));
+        }
+        if (referral.getDateReferred() != null) {
+            item.put("DateReferred", new AttributeValue(DATE_CONVERTER.convert(referral.getDateReferred())));
+        }
+        return item;
+    }
+
+    private static Integer[] counts(ReferralSummaryRecord summary) {
+        return new Integer[] {
+            summary.getNumFirstLevelReferrals(), summary.getNumSecondLevelReferrals(),
+            summary.getNumThirdLevelReferrals()
+        };
+    }
+
+    private static boolean isPresent(String id) {
+        return id != null && id.length() > 0;
+    }
+
+    private static DynamoDBMapperConfig iterationOnly() {
+        return DynamoDBMapperConfig.builder()
+                .withPaginationLoadingStrategy(DynamoDBMapperConfig.PaginationLoadingStrategy.ITERATION_ONLY)
+                .build();
+    }
+}
@@ -2,11 +2,25 @@ package com.kenzie.marketing.referral.service.dependency;
 
 
 import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.caching.CacheMetrics;
 import com.kenzie.marketing.referral.service.caching.CachingReferralDao;
+import com.kenzie.marketing.referral.service.caching.EarlyRefresh;
+import com.kenzie.marketing.referral.service.caching.HotReferrers;
+import com.kenzie.marketing.referral.service.caching.InvalidationBus;
+import com.kenzie.marketing.referral.service.caching.LocalCache;
+import com.kenzie.marketing.referral.service.caching.ReferralCacheFormat;
+import com.kenzie.marketing.referral.service.caching.ReferralCacheWriteMode;
 import com.kenzie.marketing.referral.service.dao.NonCachingReferralDao;
 import com.kenzie.marketing.referral.service.dao.ReferralDao;
+import com.kenzie.marketing.referral.service.dao.ReferralSummaryDao;
+import com.kenzie.marketing.referral.service.graph.ReferralGraphDao;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.summary.ReferralSummaryMode;
+import com.kenzie.marketing.referral.service.task.FanOutExecutor;
 import com.kenzie.marketing.referral.service.util.DynamoDbClientProvider;
+import com.kenzie.marketing.referral.service.util.EnvironmentConfig;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import dagger.Module;
 import dagger.Provides;
@@ -14,6 +28,10 @@ import dagger.Provides;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
 
 /**
  * Provides DynamoDBMapper instance to DAO classes.
@@ -23,11 +41,34 @@ import javax.inject.Singleton;
 )
 public class DaoModule {
 
+    @Singleton
+    @Provides
+    @Named("AmazonDynamoDB")
+    public AmazonDynamoDB provideAmazonDynamoDB() {
+        return DynamoDbClientProvider.getDynamoDBClient();
+    }
+
     @Singleton
     @Provides
     @Named("DynamoDBMapper")
-    public DynamoDBMapper provideDynamoDBMapper() {
-        return new DynamoDBMapper(DynamoDbClientProvider.getDynamoDBClient());
+    @Inject
+    public DynamoDBMapper provideDynamoDBMapper(@Named("AmazonDynamoDB") AmazonDynamoDB dynamoDb) {
+        return new DynamoDBMapper(dynamoDb);
+    }
+
+    @Singleton
+    @Provides
+    public ReferralSummaryMode provideReferralSummaryMode() {
+        return ReferralSummaryMode.fromName(System.getenv("REFERRAL_SUMMARY_MODE"));
+    }
+
+    @Singleton
+    @Provides
+    @Named("ReferralSummaryDao")
+    @Inject
+    public ReferralSummaryDao provideReferralSummaryDao(@Named("AmazonDynamoDB") AmazonDynamoDB dynamoDb,
+                                                        @Named("DynamoDBMapper") DynamoDBMapper mapper) {
+        return new ReferralSummaryDao(dynamoDb, mapper);
     }
 
     @Singleton
@@ -36,16 +77,60 @@ public class DaoModule {
     @Inject
     public ReferralDao provideReferralDao(
         @Named("CacheClient") CacheClient cacheClient,
-        @Named("NonCachingReferralDao") NonCachingReferralDao nonCachingReferralDao) {
-            return new CachingReferralDao(cacheClient, nonCachingReferralDao);
+        @Named("NonCachingReferralDao") NonCachingReferralDao nonCachingReferralDao,
+        @Named("ReferralSummaryDao") ReferralSummaryDao summaryDao,
+        CacheMetrics cacheMetrics,
+        InvalidationBus invalidationBus,
+        HotReferrers hotReferrers) {
+            boolean graphEnabled = "true".equalsIgnoreCase(System.getenv("REFERRAL_GRAPH_ENABLED"));
+            if (graphEnabled) {
+                // The graph hears about other containers' writes over the bus, so it cannot run without it
+                invalidationBus.start();
+            }
+            ReferralDao cachingReferralDao = new CachingReferralDao(cacheClient, nonCachingReferralDao,
+                    newLocalCache(), ReferralCacheFormat.fromName(System.getenv("REFERRAL_CACHE_FORMAT")),
+                    new EarlyRefresh(1), ReferralCacheWriteMode.fromName(System.getenv("REFERRAL_CACHE_WRITE_MODE")),
+                    cacheMetrics, invalidationBus.isRunning() ? invalidationBus : null,
+                    "true".equalsIgnoreCase(System.getenv("CACHE_WARM_UP_ENABLED")) ? hotReferrers : null);
+            if (!graphEnabled) {
+                return cachingReferralDao;
+            }
+            ReferralGraphDao graphDao = new ReferralGraphDao(cachingReferralDao, summaryDao::scanReferrals,
+                    invalidationBus, EnvironmentConfig.getInt("REFERRAL_GRAPH_COMPACT_THRESHOLD", 1024),
+                    Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "referral-graph-load");
+                        thread.setDaemon(true);
+                        return thread;
+                    }),
+                    Clock.systemUTC());
+            // Reads go to DynamoDB until the graph is loaded, so the first request only waits as long as allowed
+            graphDao.loadInBackground();
+            graphDao.awaitLoaded(Duration.ofMillis(EnvironmentConfig.getInt("REFERRAL_GRAPH_LOAD_BUDGET_MS", 0)));
+            return graphDao;
+    }
+
+    private static LocalCache<String, List<ReferralRecord>> newLocalCache() {
+        int size = EnvironmentConfig.getInt("REFERRAL_LOCAL_CACHE_SIZE", 1000);
+        if (size <= 0) {
+            return null;
+        }
+        return new LocalCache<>(size,
+                Duration.ofSeconds(EnvironmentConfig.getInt("REFERRAL_LOCAL_CACHE_TTL_SECONDS", 5)),
+                Clock.systemUTC());
     }
 
     @Singleton
     @Provides
     @Named("NonCachingReferralDao")
     @Inject
-    public NonCachingReferralDao provideNonCachingReferralDao(@Named("DynamoDBMapper") DynamoDBMapper mapper) {
-        return new NonCachingReferralDao(mapper);
+    public NonCachingReferralDao provideNonCachingReferralDao(
+            @Named("DynamoDBMapper") DynamoDBMapper mapper,
+            @Named("ReferralSummaryDao") ReferralSummaryDao summaryDao,
+            ReferralSummaryMode summaryMode,
+            FanOutExecutor fanOutExecutor) {
+        // Writes go through the summary DAO below the cache, so CachingReferralDao still invalidates as before
+        return new NonCachingReferralDao(mapper, EnvironmentConfig.getInt("SCAN_SEGMENTS", 1),
+                summaryMode == ReferralSummaryMode.COUNTERS ? summaryDao : null, fanOutExecutor);
     }
 
 }
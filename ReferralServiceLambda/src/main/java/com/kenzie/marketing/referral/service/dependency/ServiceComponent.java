@@ -1,6 +1,7 @@
 package com.kenzie.marketing.referral.service.dependency;
 
 import com.kenzie.marketing.referral.service.ReferralService;
+import com.kenzie.marketing.referral.service.caching.CacheMetrics;
 
 import dagger.Component;
 import redis.clients.jedis.Jedis;
@@ -15,4 +16,5 @@ import javax.inject.Singleton;
 public interface ServiceComponent {
     ReferralService provideReferralService();
     Jedis provideJedis();
+    CacheMetrics provideCacheMetrics();
 }
@@ -1,7 +1,22 @@
 package com.kenzie.marketing.referral.service.dependency;
 
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.service.ReferralService;
+import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.caching.CacheWarmer;
+import com.kenzie.marketing.referral.service.caching.HotReferrers;
 import com.kenzie.marketing.referral.service.dao.ReferralDao;
+import com.kenzie.marketing.referral.service.dao.ReferralSummaryDao;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardIndex;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardMode;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardSnapshotCache;
+import com.kenzie.marketing.referral.service.leaderboard.RedisLeaderboardIndex;
+import com.kenzie.marketing.referral.service.leaderboard.RedisLeaderboardSnapshotStore;
+import com.kenzie.marketing.referral.service.leaderboard.SpaceSavingLeaderboardIndex;
+import com.kenzie.marketing.referral.service.leaderboard.WindowedLeaderboardIndex;
+import com.kenzie.marketing.referral.service.summary.ReferralSummaryMode;
+import com.kenzie.marketing.referral.service.task.FanOutExecutor;
+import com.kenzie.marketing.referral.service.util.EnvironmentConfig;
 
 import dagger.Module;
 import dagger.Provides;
@@ -9,17 +24,97 @@ import dagger.Provides;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Module(
     includes = DaoModule.class
 )
 public class ServiceModule {
 
+    @Singleton
+    @Provides
+    public LeaderboardMode provideLeaderboardMode() {
+        return LeaderboardMode.fromName(System.getenv("LEADERBOARD_MODE"));
+    }
+
+    @Singleton
+    @Provides
+    public FanOutExecutor provideFanOutExecutor() {
+        int concurrency = EnvironmentConfig.getInt("FAN_OUT_CONCURRENCY", 16);
+        Duration taskTimeout = Duration.ofMillis(EnvironmentConfig.getInt("FAN_OUT_TASK_TIMEOUT_MS",
+                (int) FanOutExecutor.DEFAULT_TASK_TIMEOUT.toMillis()));
+        Duration overallTimeout = Duration.ofMillis(EnvironmentConfig.getInt("FAN_OUT_DEADLINE_MS",
+                (int) FanOutExecutor.DEFAULT_OVERALL_TIMEOUT.toMillis()));
+        // Each batch keeps a few tasks per thread queued, enough to keep the pool busy without queueing a whole scan
+        int maxInFlight = concurrency * EnvironmentConfig.getInt("FAN_OUT_IN_FLIGHT_PER_THREAD", 4);
+        return new FanOutExecutor(FanOutExecutor.newBoundedPool(concurrency), taskTimeout, overallTimeout,
+                maxInFlight);
+    }
+
     @Singleton
     @Provides
     @Inject
-    public ReferralService provideReferralService(@Named("ReferralDao") ReferralDao referralDao) {
-        return new ReferralService(referralDao);
+    public ReferralService provideReferralService(@Named("ReferralDao") ReferralDao referralDao,
+                                                  @Named("CacheClient") CacheClient cacheClient,
+                                                  @Named("ReferralSummaryDao") ReferralSummaryDao summaryDao,
+                                                  FanOutExecutor fanOutExecutor,
+                                                  LeaderboardMode leaderboardMode,
+                                                  ReferralSummaryMode summaryMode,
+                                                  HotReferrers hotReferrers) {
+        LeaderboardIndex leaderboardIndex = null;
+        if (leaderboardMode == LeaderboardMode.REDIS_SORTED_SET) {
+            leaderboardIndex = new RedisLeaderboardIndex(cacheClient);
+        } else if (leaderboardMode == LeaderboardMode.APPROXIMATE) {
+            leaderboardIndex = new SpaceSavingLeaderboardIndex(cacheClient,
+                    EnvironmentConfig.getInt("LEADERBOARD_SKETCH_CAPACITY", 1000));
+        }
+        LeaderboardSnapshotCache snapshotCache = null;
+        int snapshotSoftTtlSeconds = EnvironmentConfig.getInt("LEADERBOARD_SNAPSHOT_SOFT_TTL_SECONDS", 0);
+        if (snapshotSoftTtlSeconds > 0) {
+            snapshotCache = new LeaderboardSnapshotCache(
+                    new RedisLeaderboardSnapshotStore(cacheClient, Duration.ofSeconds(
+                            EnvironmentConfig.getInt("LEADERBOARD_SNAPSHOT_MAX_AGE_SECONDS", 60 * 60))),
+                    Duration.ofSeconds(snapshotSoftTtlSeconds),
+                    Duration.ofSeconds(EnvironmentConfig.getInt("LEADERBOARD_SNAPSHOT_LOCK_SECONDS", 60)),
+                    Clock.systemUTC());
+        }
+        WindowedLeaderboardIndex windowedIndex = null;
+        if ("true".equalsIgnoreCase(System.getenv("WINDOWED_LEADERBOARD_ENABLED"))) {
+            windowedIndex = new WindowedLeaderboardIndex(cacheClient, Clock.systemUTC());
+        }
+        ReferralService service = new ReferralService(referralDao, fanOutExecutor, leaderboardMode, leaderboardIndex,
+                snapshotCache, windowedIndex, summaryMode, summaryDao);
+        if ("true".equalsIgnoreCase(System.getenv("CACHE_WARM_UP_ENABLED"))) {
+            // Only a leaderboard that is already indexed or snapshotted is used, since computing one could take far
+            // longer than the warm-up budget
+            Supplier<List<String>> leaderboard = leaderboardMode.isIndexed() || snapshotCache != null
+                    ? () -> service.peekReferralLeaderboard().stream()
+                            .map(LeaderboardEntry::getCustomerId)
+                            .collect(Collectors.toList())
+                    : null;
+            ExecutorService warmUpExecutor = newWarmUpExecutor();
+            new CacheWarmer(referralDao, hotReferrers, leaderboard,
+                    EnvironmentConfig.getInt("CACHE_WARM_UP_COUNT", 200),
+                    Duration.ofMillis(EnvironmentConfig.getInt("CACHE_WARM_UP_BUDGET_MS", 3000)),
+                    Clock.systemUTC())
+                    .warmInBackground(warmUpExecutor);
+            // The warm-up runs once, so its thread ends as soon as it is done
+            warmUpExecutor.shutdown();
+        }
+        return service;
     }
-}
 
+    private static ExecutorService newWarmUpExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
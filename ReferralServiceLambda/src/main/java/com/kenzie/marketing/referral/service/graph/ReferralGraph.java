@@ -0,0 +1,211 @@
+package com.kenzie.marketing.referral.service.graph;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable referral graph in compressed sparse row (CSR) form.
+ *
+ * Every customer and referrer is given an int index. The customers referred by node {@code n} are
+ * {@code children[offsets[n]]} up to, but not including, {@code children[offsets[n + 1]]}, so walking the graph only
+ * reads int arrays. Referrers that have no referral record of their own still get an index, so that their children
+ * can be found, but are not reported as customers.
+ */
+public class ReferralGraph {
+    private static final int NONE = -1;
+
+    private final String[] ids;
+    private final Map<String, Integer> indexes;
+    private final int[] parents;
+    private final ZonedDateTime[] datesReferred;
+    private final boolean[] recorded;
+    private final int[] offsets;
+    private final int[] children;
+    private final int[] roots;
+
+    private ReferralGraph(String[] ids, Map<String, Integer> indexes, int[] parents, ZonedDateTime[] datesReferred,
+                          boolean[] recorded, int[] offsets, int[] children, int[] roots) {
+        this.ids = ids;
+        this.indexes = indexes;
+        this.parents = parents;
+        this.datesReferred = datesReferred;
+        this.recorded = recorded;
+        this.offsets = offsets;
+        this.children = children;
+        this.roots = roots;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the number of nodes, including referrers without a referral record
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param customerId the customer to look up
+     * @return the customer's index, or -1 if the graph does not contain them
+     */
+    public int indexOf(String customerId) {
+        Integer index = indexes.get(customerId);
+        return index == null ? NONE : index;
+    }
+
+    public String idAt(int node) {
+        return ids[node];
+    }
+
+    /**
+     * @return true if the node has a referral record, rather than only appearing as somebody's referrer
+     */
+    public boolean isRecorded(int node) {
+        return recorded[node];
+    }
+
+    /**
+     * @return the position in {@link #childAt(int)} of the node's first child
+     */
+    public int childrenFrom(int node) {
+        return offsets[node];
+    }
+
+    /**
+     * @return the position in {@link #childAt(int)} just past the node's last child
+     */
+    public int childrenTo(int node) {
+        return offsets[node + 1];
+    }
+
+    public int childAt(int position) {
+        return children[position];
+    }
+
+    /**
+     * @return the number of recorded customers without a referrer
+     */
+    public int rootCount() {
+        return roots.length;
+    }
+
+    public int rootAt(int position) {
+        return roots[position];
+    }
+
+    /**
+     * @return the node's referral record; a new object on every call
+     */
+    public ReferralRecord recordAt(int node) {
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(ids[node]);
+        record.setReferrerId(parents[node] == NONE ? null : ids[parents[node]]);
+        record.setDateReferred(datesReferred[node]);
+        return record;
+    }
+
+    /**
+     * Builds a new graph holding every referral in this one plus the given referrals.
+     * @param referrals referrals to add; customers already in this graph are skipped
+     * @return the combined graph
+     */
+    public ReferralGraph withReferrals(Iterable<ReferralRecord> referrals) {
+        Builder builder = new Builder();
+        for (int node = 0; node < ids.length; node++) {
+            if (recorded[node]) {
+                builder.add(ids[node], parents[node] == NONE ? null : ids[parents[node]], datesReferred[node]);
+            }
+        }
+        referrals.forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Collects referrals and lays them out as a {@link ReferralGraph}. Not thread safe.
+     */
+    public static class Builder {
+        private final List<String> customerIds = new ArrayList<>();
+        private final List<String> referrerIds = new ArrayList<>();
+        private final List<ZonedDateTime> datesReferred = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder add(ReferralRecord referral) {
+            return add(referral.getCustomerId(), referral.getReferrerId(), referral.getDateReferred());
+        }
+
+        private Builder add(String customerId, String referrerId, ZonedDateTime dateReferred) {
+            customerIds.add(customerId);
+            referrerIds.add(referrerId == null || referrerId.length() == 0 ? null : referrerId);
+            datesReferred.add(dateReferred);
+            return this;
+        }
+
+        public ReferralGraph build() {
+            Map<String, Integer> indexes = new HashMap<>();
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < customerIds.size(); i++) {
+                index(customerIds.get(i), indexes, ids);
+                if (referrerIds.get(i) != null) {
+                    index(referrerIds.get(i), indexes, ids);
+                }
+            }
+
+            int size = ids.size();
+            int[] parents = new int[size];
+            Arrays.fill(parents, NONE);
+            ZonedDateTime[] dates = new ZonedDateTime[size];
+            boolean[] recorded = new boolean[size];
+            int[] offsets = new int[size + 1];
+            int rootCount = 0;
+            for (int i = 0; i < customerIds.size(); i++) {
+                int node = indexes.get(customerIds.get(i));
+                // The table is keyed by customer, so a second record for the same customer is a duplicate
+                if (recorded[node]) {
+                    continue;
+                }
+                recorded[node] = true;
+                dates[node] = datesReferred.get(i);
+                if (referrerIds.get(i) == null) {
+                    rootCount++;
+                } else {
+                    parents[node] = indexes.get(referrerIds.get(i));
+                    offsets[parents[node] + 1]++;
+                }
+            }
+            for (int node = 0; node < size; node++) {
+                offsets[node + 1] += offsets[node];
+            }
+
+            int[] children = new int[offsets[size]];
+            int[] next = Arrays.copyOf(offsets, size);
+            int[] roots = new int[rootCount];
+            int nextRoot = 0;
+            for (int node = 0; node < size; node++) {
+                if (parents[node] != NONE) {
+                    children[next[parents[node]]++] = node;
+                } else if (recorded[node]) {
+                    roots[nextRoot++] = node;
+                }
+            }
+            return new ReferralGraph(ids.toArray(new String[0]), indexes, parents, dates, recorded, offsets,
+                    children, roots);
+        }
+
+        private static void index(String id, Map<String, Integer> indexes, List<String> ids) {
+            if (!indexes.containsKey(id)) {
+                indexes.put(id, ids.size());
+                ids.add(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package com.kenzie.marketing.referral.service.graph;
+
+import com.kenzie.marketing.referral.service.caching.InvalidationBus;
+import com.kenzie.marketing.referral.service.dao.ReferralDao;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.task.ReferralLevelCounter;
+import com.kenzie.marketing.referral.service.task.ReferralTreeTraversal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Answers referral reads from an in-memory {@link ReferralGraph} of the whole Referral table instead of DynamoDB.
+ *
+ * Writes still go to the delegate DAO. Each referral written through this DAO is also added to a small overlay
+ * that reads merge with the graph, and the overlay is folded into a new graph on the load executor once it grows
+ * past {@code compactThreshold}. Referrals written by other containers arrive as referrer IDs on the
+ * {@link InvalidationBus}. A changed referrer is read through the delegate until the change has had time to reach
+ * the ReferrerIdIndex, and the referrals of that read are then added to the overlay, so the table is only scanned
+ * again when the bus reports that messages were missed. New customers without a referrer are announced as
+ * {@link InvalidationBus#ROOTS}.
+ *
+ * The graph is loaded on the load executor, never on a request thread. Until it is loaded, and whenever the bus is
+ * behind, reads go to the delegate, so answers are never staler than the delegate's own.
+ */
+public class ReferralGraphDao implements ReferralDao, ReferralLevelCounter {
+    static final Logger log = LogManager.getLogger();
+
+    private static final int PAGE_SIZE = 250;
+    // How long a write may take to show up in the ReferrerIdIndex, which is eventually consistent
+    private static final long SETTLE_MILLIS = 5000;
+    private static final long BUS_WAIT_MILLIS = 50;
+
+    private final ReferralDao delegate;
+    private final Consumer<Consumer<ReferralRecord>> tableScan;
+    private final InvalidationBus invalidationBus;
+    private final int compactThreshold;
+    private final Executor loadExecutor;
+    private final Clock clock;
+    private final ReferralTreeTraversal fallback;
+    private final Object writeLock = new Object();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final CountDownLatch firstLoad = new CountDownLatch(1);
+    // When each referrer, or the roots, last changed in any container, until the change is in the overlay
+    private final Map<String, Long> changed = new ConcurrentHashMap<>();
+
+    private volatile State state;
+    // Counts the resets under the write lock, so a load that started before a reset is never installed
+    private long generation;
+
+    /**
+     * @param delegate receives every write, and answers the reads the graph cannot answer yet
+     * @param tableScan reads every record of the Referral table, e.g. {@code ReferralSummaryDao::scanReferrals}
+     * @param invalidationBus announces the referrers changed by any container; it must be started
+     * @param compactThreshold how many referrals the overlay may hold before it is folded into the graph
+     * @param loadExecutor runs the table scans and compactions
+     */
+    public ReferralGraphDao(ReferralDao delegate, Consumer<Consumer<ReferralRecord>> tableScan,
+                            InvalidationBus invalidationBus, int compactThreshold, Executor loadExecutor,
+                            Clock clock) {
+        this.delegate = delegate;
+        this.tableScan = tableScan;
+        this.invalidationBus = invalidationBus;
+        this.compactThreshold = compactThreshold;
+        this.loadExecutor = loadExecutor;
+        this.clock = clock;
+        this.fallback = new ReferralTreeTraversal(delegate);
+        invalidationBus.addListener(this::onChanged, this::onChangesMissed);
+    }
+
+    /**
+     * Starts loading the graph on the load executor, unless a load is already running.
+     */
+    public void loadInBackground() {
+        if (!loading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            loadExecutor.execute(this::loadUntilCurrent);
+        } catch (RejectedExecutionException e) {
+            loading.set(false);
+            log.warn("Referral graph load was not started", e);
+        }
+    }
+
+    /**
+     * Waits for the first load to finish, e.g. while a container starts.
+     * @param budget the longest time to wait
+     * @return true if the graph is loaded; otherwise reads keep going to the delegate until it is
+     */
+    public boolean awaitLoaded(Duration budget) {
+        try {
+            return firstLoad.await(budget.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public ReferralRecord addReferral(ReferralRecord referral) {
+        ReferralRecord added = delegate.addReferral(referral);
+        State current;
+        synchronized (writeLock) {
+            current = state;
+            // Without a graph yet there is nothing to update; the bus message brings the referral in later
+            if (current == null) {
+                return added;
+            }
+            current.addToOverlay(added);
+        }
+        compactIfFull(current);
+        return added;
+    }
+
+    @Override
+    public List<ReferralRecord> findByReferrerId(String referrerId) {
+        State current = current();
+        if (current == null) {
+            return delegate.findByReferrerId(referrerId);
+        }
+        if (changed.containsKey(referrerId)) {
+            return readChanged(referrerId, () -> delegate.findByReferrerId(referrerId));
+        }
+        List<ReferralRecord> referrals = new ArrayList<>();
+        int node = current.graph.indexOf(referrerId);
+        if (node >= 0) {
+            for (int i = current.graph.childrenFrom(node); i < current.graph.childrenTo(node); i++) {
+                referrals.add(current.graph.recordAt(current.graph.childAt(i)));
+            }
+        }
+        referrals.addAll(current.overlayChildren.getOrDefault(referrerId, new ArrayList<>()));
+        return referrals;
+    }
+
+    @Override
+    public int countByReferrerId(String referrerId) {
+        State current = current();
+        if (current == null) {
+            return delegate.countByReferrerId(referrerId);
+        }
+        if (changed.containsKey(referrerId)) {
+            return findByReferrerId(referrerId).size();
+        }
+        int node = current.graph.indexOf(referrerId);
+        int count = node < 0 ? 0 : current.graph.childrenTo(node) - current.graph.childrenFrom(node);
+        return count + current.overlayChildren.getOrDefault(referrerId, new ArrayList<>()).size();
+    }
+
+    @Override
+    public List<String> findChildIdsByReferrerId(String referrerId) {
+        State current = current();
+        if (current == null) {
+            return delegate.findChildIdsByReferrerId(referrerId);
+        }
+        List<String> childIds = new ArrayList<>();
+        if (changed.containsKey(referrerId)) {
+            for (ReferralRecord child : findByReferrerId(referrerId)) {
+                childIds.add(child.getCustomerId());
+            }
+            return childIds;
+        }
+        int node = current.graph.indexOf(referrerId);
+        if (node >= 0) {
+            for (int i = current.graph.childrenFrom(node); i < current.graph.childrenTo(node); i++) {
+                childIds.add(current.graph.idAt(current.graph.childAt(i)));
+            }
+        }
+        for (ReferralRecord child : current.overlayChildren.getOrDefault(referrerId, new ArrayList<>())) {
+            childIds.add(child.getCustomerId());
+        }
+        return childIds;
+    }
+
+    @Override
+    public List<ReferralRecord> findUsersWithoutReferrerId() {
+        State current = current();
+        if (current == null) {
+            return delegate.findUsersWithoutReferrerId();
+        }
+        if (changed.containsKey(InvalidationBus.ROOTS)) {
+            return readChanged(InvalidationBus.ROOTS, delegate::findUsersWithoutReferrerId);
+        }
+        List<ReferralRecord> roots = new ArrayList<>();
+        for (int i = 0; i < current.graph.rootCount(); i++) {
+            roots.add(current.graph.recordAt(current.graph.rootAt(i)));
+        }
+        roots.addAll(current.overlayRoots);
+        return roots;
+    }
+
+    @Override
+    public void scanUsersWithoutReferrerId(Consumer<List<ReferralRecord>> pageConsumer) {
+        if (current() == null) {
+            delegate.scanUsersWithoutReferrerId(pageConsumer);
+            return;
+        }
+        List<ReferralRecord> roots = findUsersWithoutReferrerId();
+        for (int from = 0; from < roots.size(); from += PAGE_SIZE) {
+            pageConsumer.accept(roots.subList(from, Math.min(roots.size(), from + PAGE_SIZE)));
+        }
+    }
+
+    /**
+     * Counts the customers at each level below the root without touching DynamoDB, apart from referrers that
+     * changed recently. The walk only allocates its frontier arrays and visited set, never an object per customer.
+     */
+    @Override
+    public List<Integer> countLevels(String rootId, int depth) {
+        State current = current();
+        if (current == null) {
+            return fallback.countLevels(rootId, depth);
+        }
+        Integer[] counts = new Integer[depth];
+        Arrays.fill(counts, 0);
+        walk(current, rootId, depth, counts);
+        return Arrays.asList(counts);
+    }
+
+    /**
+     * @param customerId the customer to start from
+     * @return the number of customers anywhere below the customer in the referral tree
+     */
+    public long subtreeSize(String customerId) {
+        State current = current();
+        if (current == null) {
+            return delegateSubtreeSize(customerId);
+        }
+        return walk(current, customerId, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Level-synchronous walk that keeps graph nodes as ints and only falls back to ids for customers that are not
+     * in the graph yet. Customers that were already visited are skipped, as in ReferralTreeTraversal.
+     * @return the total number of customers visited below the root
+     */
+    private long walk(State state, String rootId, int depth, Integer[] counts) {
+        ReferralGraph graph = state.graph;
+        BitSet visited = new BitSet(graph.size());
+        Set<String> visitedOverlay = new HashSet<>();
+        IntList frontier = new IntList();
+        List<String> overlayFrontier = new ArrayList<>();
+        int root = graph.indexOf(rootId);
+        if (root >= 0) {
+            visited.set(root);
+            frontier.add(root);
+        } else {
+            visitedOverlay.add(rootId);
+            overlayFrontier.add(rootId);
+        }
+
+        long total = 0;
+        for (int level = 0; level < depth && (frontier.size > 0 || !overlayFrontier.isEmpty()); level++) {
+            IntList next = new IntList();
+            List<String> overlayNext = new ArrayList<>();
+            boolean hasOverlay = !state.overlayChildren.isEmpty();
+            boolean hasChanges = !changed.isEmpty();
+            for (int i = 0; i < frontier.size; i++) {
+                int node = frontier.values[i];
+                if (hasChanges && changed.containsKey(graph.idAt(node))) {
+                    visitChildren(graph, findByReferrerId(graph.idAt(node)), visited, visitedOverlay, next,
+                            overlayNext);
+                    continue;
+                }
+                for (int position = graph.childrenFrom(node); position < graph.childrenTo(node); position++) {
+                    int child = graph.childAt(position);
+                    if (!visited.get(child)) {
+                        visited.set(child);
+                        next.add(child);
+                    }
+                }
+                if (hasOverlay) {
+                    visitChildren(graph, state.overlayChildren.getOrDefault(graph.idAt(node), new ArrayList<>()),
+                            visited, visitedOverlay, next, overlayNext);
+                }
+            }
+            for (String id : overlayFrontier) {
+                List<ReferralRecord> children = changed.containsKey(id)
+                        ? findByReferrerId(id) : state.overlayChildren.getOrDefault(id, new ArrayList<>());
+                visitChildren(graph, children, visited, visitedOverlay, next, overlayNext);
+            }
+
+            int count = next.size + overlayNext.size();
+            if (counts != null) {
+                counts[level] = count;
+            }
+            total += count;
+            frontier = next;
+            overlayFrontier = overlayNext;
+        }
+        return total;
+    }
+
+    private static void visitChildren(ReferralGraph graph, List<ReferralRecord> children, BitSet visited,
+                                      Set<String> visitedOverlay, IntList next, List<String> overlayNext) {
+        for (ReferralRecord child : children) {
+            int node = graph.indexOf(child.getCustomerId());
+            if (node >= 0) {
+                if (!visited.get(node)) {
+                    visited.set(node);
+                    next.add(node);
+                }
+            } else if (visitedOverlay.add(child.getCustomerId())) {
+                overlayNext.add(child.getCustomerId());
+            }
+        }
+    }
+
+    private long delegateSubtreeSize(String customerId) {
+        Set<String> visited = new HashSet<>();
+        visited.add(customerId);
+        List<String> frontier = new ArrayList<>(visited);
+        long total = 0;
+        while (!frontier.isEmpty()) {
+            List<String> next = new ArrayList<>();
+            for (List<String> childIds : delegate.findChildIdsByReferrerIds(frontier).values()) {
+                for (String childId : childIds) {
+                    if (visited.add(childId)) {
+                        next.add(childId);
+                    }
+                }
+            }
+            total += next.size();
+            frontier = next;
+        }
+        return total;
+    }
+
+    /**
+     * @return the graph to answer from, or null while reads have to go to the delegate
+     */
+    private State current() {
+        State current = state;
+        if (current == null) {
+            loadInBackground();
+            return null;
+        }
+        return invalidationBus.isCurrent() ? current : null;
+    }
+
+    /**
+     * Reads a changed referrer, or the roots, through the delegate. Once the change has settled, the referrals read
+     * are added to the overlay and the graph answers again.
+     */
+    private List<ReferralRecord> readChanged(String id, Supplier<List<ReferralRecord>> read) {
+        Long changedAtMillis = changed.get(id);
+        long readAtMillis = clock.millis();
+        List<ReferralRecord> referrals = read.get();
+        if (changedAtMillis != null && readAtMillis - changedAtMillis >= SETTLE_MILLIS) {
+            State current;
+            synchronized (writeLock) {
+                current = state;
+                if (current == null) {
+                    return referrals;
+                }
+                referrals.forEach(current::addIfNew);
+                // A newer change keeps its mark until a read after it has settled too
+                changed.remove(id, changedAtMillis);
+            }
+            compactIfFull(current);
+        }
+        return referrals;
+    }
+
+    /**
+     * Starts folding the overlay into a new graph on the load executor once it has grown past the threshold, unless
+     * a compaction is already running. Reads keep merging the overlay until the new graph is swapped in.
+     */
+    private void compactIfFull(State current) {
+        if (current.overlayIds.size() < compactThreshold || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            loadExecutor.execute(this::compact);
+        } catch (RejectedExecutionException e) {
+            compacting.set(false);
+            log.warn("Referral graph compaction was not started", e);
+        }
+    }
+
+    private void compact() {
+        try {
+            State from;
+            List<ReferralRecord> folded;
+            synchronized (writeLock) {
+                from = state;
+                if (from == null) {
+                    return;
+                }
+                folded = new ArrayList<>(from.overlayRecords);
+            }
+            // Rebuilding the graph costs as much as the table, so it runs outside the lock
+            ReferralGraph graph = from.graph.withReferrals(folded);
+            synchronized (writeLock) {
+                // A reload replaced the state meanwhile and already holds everything this graph does
+                if (state != from) {
+                    return;
+                }
+                State next = new State(graph);
+                // The overlay only grows, so anything after the folded records was written during the rebuild
+                from.overlayRecords.stream().skip(folded.size()).forEach(next::addIfNew);
+                state = next;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Referral graph compaction failed", e);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    private void onChanged(Collection<String> ids) {
+        long now = clock.millis();
+        for (String id : ids) {
+            changed.put(id, now);
+        }
+    }
+
+    /**
+     * Called when the bus may have lost messages, e.g. after reconnecting. The graph could be missing any change, so
+     * it is dropped and reloaded, and reads go to the delegate meanwhile.
+     */
+    private void onChangesMissed() {
+        synchronized (writeLock) {
+            generation++;
+            state = null;
+        }
+        loadInBackground();
+    }
+
+    private void loadUntilCurrent() {
+        try {
+            while (true) {
+                // Changes are only heard once the bus is subscribed, so a scan that started earlier could miss some
+                while (!invalidationBus.isCurrent()) {
+                    Thread.sleep(BUS_WAIT_MILLIS);
+                }
+                long loadGeneration;
+                synchronized (writeLock) {
+                    loadGeneration = generation;
+                }
+                ReferralGraph.Builder builder = ReferralGraph.builder();
+                tableScan.accept(builder::add);
+                ReferralGraph graph = builder.build();
+                synchronized (writeLock) {
+                    if (loadGeneration == generation) {
+                        state = new State(graph);
+                        firstLoad.countDown();
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Referral graph load failed", e);
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    /**
+     * A graph plus the referrals written since it was built. The overlay collections are only added to under the
+     * write lock, and are safe to read concurrently.
+     */
+    private static class State {
+        private final ReferralGraph graph;
+        private final Map<String, List<ReferralRecord>> overlayChildren = new ConcurrentHashMap<>();
+        private final Queue<ReferralRecord> overlayRoots = new ConcurrentLinkedQueue<>();
+        private final Queue<ReferralRecord> overlayRecords = new ConcurrentLinkedQueue<>();
+        private final Set<String> overlayIds = ConcurrentHashMap.newKeySet();
+
+        State(ReferralGraph graph) {
+            this.graph = graph;
+        }
+
+        void addIfNew(ReferralRecord referral) {
+            int node = graph.indexOf(referral.getCustomerId());
+            if (node < 0 || !graph.isRecorded(node)) {
+                addToOverlay(referral);
+            }
+        }
+
+        void addToOverlay(ReferralRecord referral) {
+            if (!overlayIds.add(referral.getCustomerId())) {
+                return;
+            }
+            overlayRecords.add(referral);
+            String referrerId = referral.getReferrerId();
+            if (referrerId == null || referrerId.length() == 0) {
+                overlayRoots.add(referral);
+            } else {
+                overlayChildren.computeIfAbsent(referrerId, id -> new CopyOnWriteArrayList<>()).add(referral);
+            }
+        }
+    }
+
+    /**
+     * A growable list of ints, so frontiers do not box every node.
+     */
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
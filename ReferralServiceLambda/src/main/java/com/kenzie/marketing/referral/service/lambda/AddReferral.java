@@ -21,15 +21,26 @@ public class AddReferral implements RequestHandler<APIGatewayProxyRequestEvent,
 
     static final Logger log = LogManager.getLogger();
 
+    // Created once per container so warm invocations reuse the same fan-out pool and connections
+    private static final ServiceComponent serviceComponent = DaggerServiceComponent.create();
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        try {
+            return handle(input);
+        } finally {
+            // Write the metrics before Lambda freezes the container, which may never thaw again
+            serviceComponent.provideCacheMetrics().flush();
+        }
+    }
+
+    private APIGatewayProxyResponseEvent handle(APIGatewayProxyRequestEvent input) {
         JsonStringToReferralConverter jsonStringToReferralConverter = new JsonStringToReferralConverter();
         GsonBuilder builder = new GsonBuilder();
         Gson gson = builder.create();
         // Logging the request json to make debugging easier.
         log.info(gson.toJson(input));
 
-        ServiceComponent serviceComponent = DaggerServiceComponent.create();
         ReferralService referralService = serviceComponent.provideReferralService();
 
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
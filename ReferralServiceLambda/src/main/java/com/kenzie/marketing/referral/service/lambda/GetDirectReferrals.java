@@ -21,14 +21,25 @@ public class GetDirectReferrals implements RequestHandler<APIGatewayProxyRequest
 
     static final Logger log = LogManager.getLogger();
 
+    // Created once per container so warm invocations reuse the same fan-out pool and connections
+    private static final ServiceComponent serviceComponent = DaggerServiceComponent.create();
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        try {
+            return handle(input);
+        } finally {
+            // Write the metrics before Lambda freezes the container, which may never thaw again
+            serviceComponent.provideCacheMetrics().flush();
+        }
+    }
+
+    private APIGatewayProxyResponseEvent handle(APIGatewayProxyRequestEvent input) {
         GsonBuilder builder = new GsonBuilder();
         Gson gson = builder.create();
         // Logging the request json to make debugging easier.
         log.info(gson.toJson(input));
 
-        ServiceComponent serviceComponent = DaggerServiceComponent.create();
         ReferralService referralService = serviceComponent.provideReferralService();
 
         Map<String, String> headers = new HashMap<>();
@@ -5,6 +5,7 @@ import com.kenzie.marketing.referral.service.ReferralService;
 import com.kenzie.marketing.referral.service.dependency.DaggerServiceComponent;
 import com.kenzie.marketing.referral.service.dependency.ServiceComponent;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardWindow;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
@@ -21,16 +22,29 @@ import java.util.Map;
 
 public class GetLeaderboard implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
+    private static final int DEFAULT_LIMIT = 5;
+
     static final Logger log = LogManager.getLogger();
 
+    // Created once per container so warm invocations reuse the same fan-out pool and connections
+    private static final ServiceComponent serviceComponent = DaggerServiceComponent.create();
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        try {
+            return handle(input);
+        } finally {
+            // Write the metrics before Lambda freezes the container, which may never thaw again
+            serviceComponent.provideCacheMetrics().flush();
+        }
+    }
+
+    private APIGatewayProxyResponseEvent handle(APIGatewayProxyRequestEvent input) {
         GsonBuilder builder = new GsonBuilder();
         Gson gson = builder.create();
 
         log.info(gson.toJson(input));
 
-        ServiceComponent serviceComponent = DaggerServiceComponent.create();
         ReferralService referralService = serviceComponent.provideReferralService();
         Map<String, String> headers = new HashMap<>();
         headers.put("Content-Type", "application/json");
@@ -39,7 +53,11 @@ public class GetLeaderboard implements RequestHandler<APIGatewayProxyRequestEven
                 .withHeaders(headers);
 
         try {
-            List<LeaderboardEntry> leaderboard = referralService.getReferralLeaderboard();
+            Map<String, String> query = input.getQueryStringParameters();
+            List<LeaderboardEntry> leaderboard = referralService.getReferralLeaderboard(
+                    parseWindowParameter(query),
+                    parseIntParameter(query, "offset", 0),
+                    parseIntParameter(query, "limit", DEFAULT_LIMIT));
             String output = gson.toJson(leaderboard);
 
             return response
@@ -52,4 +70,24 @@ public class GetLeaderboard implements RequestHandler<APIGatewayProxyRequestEven
                     .withBody(gson.toJson(e.errorPayload()));
         }
     }
+
+    private static LeaderboardWindow parseWindowParameter(Map<String, String> query) {
+        try {
+            return LeaderboardWindow.fromName(query == null ? null : query.get("window"));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidDataException(e.getMessage());
+        }
+    }
+
+    private static int parseIntParameter(Map<String, String> query, String name, int defaultValue) {
+        String value = query == null ? null : query.get(name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new InvalidDataException(name + " must be a whole number");
+        }
+    }
 }
@@ -0,0 +1,107 @@
+package com.kenzie.marketing.referral.service.lambda;
+
+import com.kenzie.marketing.referral.service.ReferralService;
+import com.kenzie.marketing.referral.service.dependency.DaggerServiceComponent;
+import com.kenzie.marketing.referral.service.dependency.ServiceComponent;
+import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts a customer's referrals level by level and weighs them into a bonus. The query string takes
+ * {@code weights}, a comma-separated list of per-referral bonuses starting with the direct referrals, and an
+ * optional {@code depth} that defaults to the number of weights.
+ */
+public class GetReferralBonus implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    static final Logger log = LogManager.getLogger();
+
+    // Created once per container so warm invocations reuse the same fan-out pool and connections
+    private static final ServiceComponent serviceComponent = DaggerServiceComponent.create();
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        try {
+            return handle(input);
+        } finally {
+            // Write the metrics before Lambda freezes the container, which may never thaw again
+            serviceComponent.provideCacheMetrics().flush();
+        }
+    }
+
+    private APIGatewayProxyResponseEvent handle(APIGatewayProxyRequestEvent input) {
+        GsonBuilder builder = new GsonBuilder();
+        Gson gson = builder.create();
+
+        log.info(gson.toJson(input));
+
+        ReferralService referralService = serviceComponent.provideReferralService();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
+                .withHeaders(headers);
+
+        String customerId = input.getPathParameters().get("customerId");
+
+        if (customerId == null || customerId.length() == 0) {
+            return response
+                    .withStatusCode(400)
+                    .withBody("Customer Id is invalid");
+        }
+
+        try {
+            Map<String, String> query = input.getQueryStringParameters();
+            List<Double> weights = parseWeights(query == null ? null : query.get("weights"));
+            int depth = parseDepth(query == null ? null : query.get("depth"), weights.size());
+            String output = gson.toJson(referralService.getReferralBonus(customerId, depth, weights));
+
+            return response
+                    .withStatusCode(200)
+                    .withBody(output);
+
+        } catch (InvalidDataException e) {
+            return response
+                    .withStatusCode(400)
+                    .withBody(gson.toJson(e.errorPayload()));
+        }
+    }
+
+    private static List<Double> parseWeights(String value) {
+        List<Double> weights = new ArrayList<>();
+        if (value == null || value.length() == 0) {
+            return weights;
+        }
+        for (String weight : value.split(",")) {
+            try {
+                weights.add(Double.parseDouble(weight.trim()));
+            } catch (NumberFormatException e) {
+                throw new InvalidDataException("weights must be a comma-separated list of numbers");
+            }
+        }
+        return weights;
+    }
+
+    private static int parseDepth(String value, int defaultValue) {
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new InvalidDataException("depth must be a whole number");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.kenzie.marketing.referral.service.lambda;
+
+import com.kenzie.marketing.referral.model.CustomerReferrals;
+import com.kenzie.marketing.referral.model.ReferralSummaryBatchRequest;
+import com.kenzie.marketing.referral.service.ReferralService;
+import com.kenzie.marketing.referral.service.dependency.DaggerServiceComponent;
+import com.kenzie.marketing.referral.service.dependency.ServiceComponent;
+import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Summarizes the referrals of many customers at once. The body is a {@link ReferralSummaryBatchRequest} and the
+ * response maps each customer ID to its {@link CustomerReferrals}.
+ */
+public class GetReferralSummaries implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    static final Logger log = LogManager.getLogger();
+
+    // Created once per container so warm invocations reuse the same fan-out pool and connections
+    private static final ServiceComponent serviceComponent = DaggerServiceComponent.create();
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        try {
+            return handle(input);
+        } finally {
+            // Write the metrics before Lambda freezes the container, which may never thaw again
+            serviceComponent.provideCacheMetrics().flush();
+        }
+    }
+
+    private APIGatewayProxyResponseEvent handle(APIGatewayProxyRequestEvent input) {
+        GsonBuilder builder = new GsonBuilder();
+        Gson gson = builder.create();
+
+        log.info(gson.toJson(input));
+
+        ReferralService referralService = serviceComponent.provideReferralService();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
+                .withHeaders(headers);
+
+        try {
+            ReferralSummaryBatchRequest request = parseRequest(gson, input.getBody());
+            Map<String, CustomerReferrals> summaries =
+                    referralService.getCustomerReferralSummaries(request.getCustomerIds());
+
+            return response
+                    .withStatusCode(200)
+                    .withBody(gson.toJson(summaries));
+
+        } catch (InvalidDataException e) {
+            return response
+                    .withStatusCode(400)
+                    .withBody(gson.toJson(e.errorPayload()));
+        }
+    }
+
+    private static ReferralSummaryBatchRequest parseRequest(Gson gson, String body) {
+        try {
+            ReferralSummaryBatchRequest request = gson.fromJson(body, ReferralSummaryBatchRequest.class);
+            if (request == null) {
+                throw new InvalidDataException("Request body is required");
+            }
+            return request;
+        } catch (JsonParseException e) {
+            throw new InvalidDataException("Request could not be deserialized");
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.model.LeaderboardRank;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A leaderboard that is maintained incrementally as referrals are written, so reads do not need to scan the
+ * Referral table.
+ */
+public interface LeaderboardIndex {
+
+    /**
+     * Applies a newly saved referral to the index.
+     * @param referral the referral that was just written
+     */
+    void recordReferral(ReferralRecord referral);
+
+    /**
+     * Returns one page of the leaderboard, best first. Customers without any referrals are not ranked.
+     * @param offset the number of entries to skip
+     * @param limit the maximum number of entries to return
+     * @return the entries of the leaderboard in that page
+     */
+    List<LeaderboardEntry> page(int offset, int limit);
+
+    /**
+     * Looks up a single customer's position without reading the entries ranked above them.
+     * @param customerId the customer to look up
+     * @return the customer's rank, or empty if they are not on the leaderboard
+     */
+    Optional<LeaderboardRank> rank(String customerId);
+
+    /**
+     * Repopulates the index from counts recomputed from the Referral table. Referrals recorded while the counts were
+     * being computed must not be lost.
+     * @param entries the full leaderboard, as recomputed from the Referral table
+     */
+    void rebuild(List<LeaderboardEntry> entries);
+}
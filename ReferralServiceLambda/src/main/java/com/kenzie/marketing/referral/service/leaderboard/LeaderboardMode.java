@@ -0,0 +1,39 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+/**
+ * Selects how the referral leaderboard is answered.
+ */
+public enum LeaderboardMode {
+    /** Scan the root customers and count their referrals on every request. */
+    SCAN,
+    /** Scan page by page, counting referrals while the scan continues and keeping only the top entries. */
+    STREAMING_SCAN,
+    /** Read from a sorted set that is kept up to date on every addReferral. */
+    REDIS_SORTED_SET,
+    /** Read approximate counts from a fixed-size Space-Saving sketch that is updated on every addReferral. */
+    APPROXIMATE;
+
+    /**
+     * @return true if leaderboard reads in this mode are answered by a {@link LeaderboardIndex}
+     */
+    public boolean isIndexed() {
+        return this == REDIS_SORTED_SET || this == APPROXIMATE;
+    }
+
+    /**
+     * Parses a mode name, falling back to {@link #SCAN} when the value is missing or unknown.
+     * @param name the configured mode name, e.g. from the LEADERBOARD_MODE environment variable
+     * @return the matching LeaderboardMode
+     */
+    public static LeaderboardMode fromName(String name) {
+        if (name == null || name.length() == 0) {
+            return SCAN;
+        }
+        for (LeaderboardMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        return SCAN;
+    }
+}
@@ -0,0 +1,30 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A precomputed copy of the top of the leaderboard and the time it was computed.
+ */
+public class LeaderboardSnapshot {
+    private List<LeaderboardEntry> entries;
+    private long computedAtMillis;
+
+    public LeaderboardSnapshot(List<LeaderboardEntry> entries, long computedAtMillis) {
+        this.entries = new ArrayList<>(entries);
+        this.computedAtMillis = computedAtMillis;
+    }
+
+    public LeaderboardSnapshot() {
+    }
+
+    public List<LeaderboardEntry> getEntries() {
+        return entries;
+    }
+
+    public long getComputedAtMillis() {
+        return computedAtMillis;
+    }
+}
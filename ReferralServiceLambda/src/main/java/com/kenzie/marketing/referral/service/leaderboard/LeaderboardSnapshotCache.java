@@ -0,0 +1,143 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Serves the leaderboard from a stored snapshot, refreshing it once it is older than the soft TTL
+ * (stale-while-revalidate).
+ *
+ * Every computation happens under the store's refresh lock, so at most one container recomputes at a time. When a
+ * snapshot is stale, the reader that takes the lock refreshes it within its own invocation, since Lambda freezes
+ * background threads between invocations; every other reader is served the stale snapshot right away. When there is
+ * no snapshot at all, the reader that takes the lock computes it and the others poll the store until it appears.
+ */
+public class LeaderboardSnapshotCache {
+    private static final Duration DEFAULT_POLL_INTERVAL = Duration.ofMillis(250);
+
+    static final Logger log = LogManager.getLogger();
+
+    private final LeaderboardSnapshotStore store;
+    private final Duration softTtl;
+    private final Duration lockLease;
+    private final Duration pollInterval;
+    private final Clock clock;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * @param softTtl how old a snapshot may get before a reader refreshes it
+     * @param lockLease how long a refresh may hold the lock; should be longer than a full leaderboard computation.
+     *                  Readers waiting for the first snapshot give up on the lock holder after this long.
+     */
+    public LeaderboardSnapshotCache(LeaderboardSnapshotStore store, Duration softTtl, Duration lockLease,
+                                    Clock clock) {
+        this(store, softTtl, lockLease, DEFAULT_POLL_INTERVAL, clock);
+    }
+
+    /**
+     * @param pollInterval how often a reader waiting for the first snapshot checks the store and the lock again
+     */
+    public LeaderboardSnapshotCache(LeaderboardSnapshotStore store, Duration softTtl, Duration lockLease,
+                                    Duration pollInterval, Clock clock) {
+        this.store = store;
+        this.softTtl = softTtl;
+        this.lockLease = lockLease;
+        this.pollInterval = pollInterval;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the snapshotted leaderboard, computing it now if there is no snapshot yet or this reader is the one to
+     * refresh a stale snapshot.
+     * @param compute computes the current leaderboard from scratch
+     * @return the leaderboard entries, best first
+     */
+    public List<LeaderboardEntry> get(Supplier<List<LeaderboardEntry>> compute) {
+        Optional<LeaderboardSnapshot> snapshot = store.read();
+        if (!snapshot.isPresent()) {
+            return computeFirst(compute);
+        }
+        long age = clock.millis() - snapshot.get().getComputedAtMillis();
+        if (age >= softTtl.toMillis()) {
+            return refreshIfLocked(compute).orElse(snapshot.get()).getEntries();
+        }
+        return snapshot.get().getEntries();
+    }
+
+    /**
+     * Returns the stored snapshot however old it is, without computing or waiting for the lock.
+     * @return the leaderboard entries, best first, or an empty list if there is no snapshot
+     */
+    public List<LeaderboardEntry> peek() {
+        return store.read().map(LeaderboardSnapshot::getEntries).orElse(Collections.emptyList());
+    }
+
+    private List<LeaderboardEntry> computeFirst(Supplier<List<LeaderboardEntry>> compute) {
+        long attempts = Math.max(1, lockLease.toMillis() / Math.max(1, pollInterval.toMillis()));
+        for (long attempt = 0; attempt < attempts; attempt++) {
+            Optional<String> token = store.tryLockRefresh(lockLease);
+            if (token.isPresent()) {
+                try {
+                    // Another container may have written the snapshot between our read and taking the lock
+                    Optional<LeaderboardSnapshot> snapshot = store.read();
+                    return snapshot.isPresent() ? snapshot.get().getEntries() : refresh(compute).getEntries();
+                } finally {
+                    store.unlockRefresh(token.get());
+                }
+            }
+            try {
+                Thread.sleep(pollInterval.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            Optional<LeaderboardSnapshot> snapshot = store.read();
+            if (snapshot.isPresent()) {
+                return snapshot.get().getEntries();
+            }
+        }
+        log.warn("Computing the leaderboard without the refresh lock after waiting " + lockLease
+                + " for another container's snapshot");
+        return refresh(compute).getEntries();
+    }
+
+    private Optional<LeaderboardSnapshot> refreshIfLocked(Supplier<List<LeaderboardEntry>> compute) {
+        // Skip the round trip to the lock if this container is already refreshing
+        if (!refreshing.compareAndSet(false, true)) {
+            return Optional.empty();
+        }
+        try {
+            Optional<String> token = store.tryLockRefresh(lockLease);
+            if (!token.isPresent()) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(refresh(compute));
+            } catch (RuntimeException e) {
+                // The stale snapshot is still better than failing the read
+                log.warn("Leaderboard snapshot refresh failed", e);
+                return Optional.empty();
+            } finally {
+                store.unlockRefresh(token.get());
+            }
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private LeaderboardSnapshot refresh(Supplier<List<LeaderboardEntry>> compute) {
+        LeaderboardSnapshot snapshot = new LeaderboardSnapshot(compute.get(), clock.millis());
+        store.write(snapshot);
+        return snapshot;
+    }
+}
@@ -0,0 +1,35 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Shared storage for the leaderboard snapshot, plus a lock so that only one container refreshes it at a time.
+ */
+public interface LeaderboardSnapshotStore {
+
+    /**
+     * @return the stored snapshot, or empty if none has been written or it has expired
+     */
+    Optional<LeaderboardSnapshot> read();
+
+    /**
+     * Replaces the stored snapshot.
+     * @param snapshot the newly computed snapshot
+     */
+    void write(LeaderboardSnapshot snapshot);
+
+    /**
+     * Tries to take the refresh lock. The lock is released automatically once the lease runs out, so a container
+     * that dies mid-refresh cannot block refreshes forever.
+     * @param lease how long the lock is held before it expires
+     * @return a token to pass to {@link #unlockRefresh(String)}, or empty if another refresh holds the lock
+     */
+    Optional<String> tryLockRefresh(Duration lease);
+
+    /**
+     * Releases the refresh lock if it is still held with the given token.
+     * @param token the token returned by {@link #tryLockRefresh(Duration)}
+     */
+    void unlockRefresh(String token);
+}
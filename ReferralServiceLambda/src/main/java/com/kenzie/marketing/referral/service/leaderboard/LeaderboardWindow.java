@@ -0,0 +1,46 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+/**
+ * The period of referrals a leaderboard counts. Windows are rolling and measured in whole UTC days, ending today.
+ */
+public enum LeaderboardWindow {
+    /** Every referral ever made. */
+    ALL_TIME(0),
+    /** Referrals made today. */
+    DAY(1),
+    /** Referrals made in the last 7 days, including today. */
+    WEEK(7),
+    /** Referrals made in the last 30 days, including today. */
+    MONTH(30);
+
+    private final int days;
+
+    LeaderboardWindow(int days) {
+        this.days = days;
+    }
+
+    /**
+     * @return the number of daily buckets in the window, or 0 for {@link #ALL_TIME}
+     */
+    public int getDays() {
+        return days;
+    }
+
+    /**
+     * Parses a window name, falling back to {@link #ALL_TIME} when the value is missing.
+     * @param name the requested window, e.g. from the window query parameter
+     * @return the matching LeaderboardWindow
+     * @throws IllegalArgumentException if the name does not match any window
+     */
+    public static LeaderboardWindow fromName(String name) {
+        if (name == null || name.trim().length() == 0) {
+            return ALL_TIME;
+        }
+        for (LeaderboardWindow window : values()) {
+            if (window.name().equalsIgnoreCase(name.trim())) {
+                return window;
+            }
+        }
+        throw new IllegalArgumentException("Unknown leaderboard window " + name);
+    }
+}
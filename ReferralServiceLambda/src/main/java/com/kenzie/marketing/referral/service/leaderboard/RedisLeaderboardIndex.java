@@ -0,0 +1,80 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.model.LeaderboardRank;
+import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps the leaderboard in a Redis sorted set keyed by customer id and scored by number of direct referrals.
+ *
+ * Only customers without a referrer are ranked, matching the scan based leaderboard. A root customer joins the
+ * set with a score of 0 when their referral record is written, and each later referral made by them increments
+ * their score. Increments for customers that are not in the set are ignored, so referrers that were themselves
+ * referred never appear.
+ *
+ * A sorted set is a skip list that tracks the span of each link, so paging and rank lookups cost O(log N) plus the
+ * size of the page rather than a scan of the whole set.
+ *
+ * A rebuild merges the recomputed counts into the live set, keeping the higher score for each customer. Referrals
+ * recorded while the Referral table was being read are kept, and missing roots and undercounted scores are
+ * repaired; a score is never lowered.
+ */
+public class RedisLeaderboardIndex implements LeaderboardIndex {
+    private static final String LEADERBOARD_KEY = "ReferralLeaderboard";
+
+    private final CacheClient cacheClient;
+
+    @Inject
+    public RedisLeaderboardIndex(CacheClient cacheClient) {
+        this.cacheClient = cacheClient;
+    }
+
+    @Override
+    public void recordReferral(ReferralRecord referral) {
+        String referrerId = referral.getReferrerId();
+        if (referrerId == null || referrerId.length() == 0) {
+            cacheClient.addToSortedSetIfAbsent(LEADERBOARD_KEY, referral.getCustomerId(), 0);
+        } else {
+            cacheClient.incrementSortedSetScoreIfPresent(LEADERBOARD_KEY, referrerId, 1);
+        }
+    }
+
+    @Override
+    public List<LeaderboardEntry> page(int offset, int limit) {
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        if (limit <= 0) {
+            return entries;
+        }
+        cacheClient.getSortedSetDescendingAbove(LEADERBOARD_KEY, 0, offset, limit)
+                .forEach((customerId, score) -> entries.add(new LeaderboardEntry(score.intValue(), customerId)));
+        return entries;
+    }
+
+    @Override
+    public Optional<LeaderboardRank> rank(String customerId) {
+        Optional<Double> score = cacheClient.getSortedSetScore(LEADERBOARD_KEY, customerId);
+        if (!score.isPresent() || score.get() <= 0) {
+            return Optional.empty();
+        }
+        // Competition ranking: one plus the number of customers with strictly more referrals
+        long ahead = cacheClient.countSortedSetAbove(LEADERBOARD_KEY, score.get());
+        return Optional.of(new LeaderboardRank(customerId, score.get().intValue(), ahead + 1));
+    }
+
+    @Override
+    public void rebuild(List<LeaderboardEntry> entries) {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (LeaderboardEntry entry : entries) {
+            scores.put(entry.getCustomerId(), (double) entry.getNumReferrals());
+        }
+        cacheClient.mergeSortedSetMax(LEADERBOARD_KEY, scores);
+    }
+}
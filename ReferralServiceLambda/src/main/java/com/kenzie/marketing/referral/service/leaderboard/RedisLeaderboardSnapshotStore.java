@@ -0,0 +1,54 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.service.caching.CacheClient;
+
+import com.google.gson.Gson;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Stores the leaderboard snapshot as a single JSON value in Redis.
+ *
+ * The key expires after the max age, so a snapshot that nobody has refreshed for that long is dropped and the next
+ * read computes the leaderboard again.
+ */
+public class RedisLeaderboardSnapshotStore implements LeaderboardSnapshotStore {
+    private static final String SNAPSHOT_KEY = "ReferralLeaderboardSnapshot";
+    private static final String REFRESH_LOCK_KEY = "ReferralLeaderboardSnapshot::refreshLock";
+
+    private final CacheClient cacheClient;
+    private final int maxAgeSeconds;
+    private final Gson gson = new Gson();
+
+    public RedisLeaderboardSnapshotStore(CacheClient cacheClient, Duration maxAge) {
+        this.cacheClient = cacheClient;
+        this.maxAgeSeconds = (int) maxAge.getSeconds();
+    }
+
+    @Override
+    public Optional<LeaderboardSnapshot> read() {
+        return cacheClient.getValue(SNAPSHOT_KEY)
+                .map(json -> gson.fromJson(json, LeaderboardSnapshot.class));
+    }
+
+    @Override
+    public void write(LeaderboardSnapshot snapshot) {
+        cacheClient.setValue(SNAPSHOT_KEY, maxAgeSeconds, gson.toJson(snapshot));
+    }
+
+    @Override
+    public Optional<String> tryLockRefresh(Duration lease) {
+        String token = UUID.randomUUID().toString();
+        if (cacheClient.setValueIfAbsent(REFRESH_LOCK_KEY, lease.toMillis(), token)) {
+            return Optional.of(token);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public void unlockRefresh(String token) {
+        cacheClient.invalidateIfValue(REFRESH_LOCK_KEY, token);
+    }
+}
@@ -0,0 +1,147 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.model.LeaderboardRank;
+import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An approximate leaderboard that counts referrals with the Space-Saving algorithm (Metwally, Agrawal and El Abbadi)
+ * in Redis, so every container shares the same counters.
+ *
+ * At most {@code capacity} referrers are monitored, so memory is fixed however many customers make referrals. Every
+ * referrer is counted, whether or not they were referred themselves. When a new referrer arrives and the sketch is
+ * full, they replace the referrer with the smallest count and inherit that count as their error. Each entry reports
+ * its error bound: the true number of referrals is between {@code numReferrals - errorBound} and
+ * {@code numReferrals}.
+ *
+ * Counts live in a sorted set and error bounds in a hash. Each referral runs one Lua script that updates both, so
+ * an update is atomic, never conflicts with another container and costs O(log capacity).
+ *
+ * A rebuild is given exact per-referrer counts from the Referral table and keeps the {@code capacity} heaviest
+ * referrers with no error, dropping everyone else. A referrer whose count rose while the table was being read keeps
+ * the higher count, with an error bound covering the difference.
+ */
+public class SpaceSavingLeaderboardIndex implements LeaderboardIndex {
+    private static final String COUNTS_KEY = "ReferralLeaderboardSketchCounts";
+    private static final String ERRORS_KEY = "ReferralLeaderboardSketchErrors";
+    private static final List<String> KEYS = Arrays.asList(COUNTS_KEY, ERRORS_KEY);
+
+    // ARGV: capacity, referrer id, weight
+    private static final String OFFER_SCRIPT =
+            "if redis.call('zscore', KEYS[1], ARGV[2]) then\n"
+            + "  return redis.call('zincrby', KEYS[1], ARGV[3], ARGV[2])\n"
+            + "end\n"
+            + "local inherited = 0\n"
+            + "if redis.call('zcard', KEYS[1]) >= tonumber(ARGV[1]) then\n"
+            + "  local smallest = redis.call('zrange', KEYS[1], 0, 0, 'WITHSCORES')\n"
+            + "  redis.call('zrem', KEYS[1], smallest[1])\n"
+            + "  redis.call('hdel', KEYS[2], smallest[1])\n"
+            + "  inherited = tonumber(smallest[2])\n"
+            + "end\n"
+            + "if inherited > 0 then\n"
+            + "  redis.call('hset', KEYS[2], ARGV[2], inherited)\n"
+            + "end\n"
+            + "return redis.call('zadd', KEYS[1], inherited + tonumber(ARGV[3]), ARGV[2])";
+
+    // ARGV: referrer id and exact count pairs
+    private static final String REBUILD_SCRIPT =
+            "local exact = {}\n"
+            + "for i = 1, #ARGV, 2 do\n"
+            + "  exact[ARGV[i]] = tonumber(ARGV[i + 1])\n"
+            + "end\n"
+            + "for _, item in ipairs(redis.call('zrange', KEYS[1], 0, -1)) do\n"
+            + "  if not exact[item] then\n"
+            + "    redis.call('zrem', KEYS[1], item)\n"
+            + "    redis.call('hdel', KEYS[2], item)\n"
+            + "  end\n"
+            + "end\n"
+            + "for i = 1, #ARGV, 2 do\n"
+            + "  local item, count = ARGV[i], exact[ARGV[i]]\n"
+            + "  local live = tonumber(redis.call('zscore', KEYS[1], item) or '0')\n"
+            + "  if live > count then\n"
+            + "    local error = math.min(tonumber(redis.call('hget', KEYS[2], item) or '0'), live - count)\n"
+            + "    if error > 0 then\n"
+            + "      redis.call('hset', KEYS[2], item, error)\n"
+            + "    else\n"
+            + "      redis.call('hdel', KEYS[2], item)\n"
+            + "    end\n"
+            + "  else\n"
+            + "    redis.call('zadd', KEYS[1], count, item)\n"
+            + "    redis.call('hdel', KEYS[2], item)\n"
+            + "  end\n"
+            + "end\n"
+            + "return redis.call('zcard', KEYS[1])";
+
+    private final CacheClient cacheClient;
+    private final int capacity;
+
+    public SpaceSavingLeaderboardIndex(CacheClient cacheClient, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.cacheClient = cacheClient;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void recordReferral(ReferralRecord referral) {
+        String referrerId = referral.getReferrerId();
+        if (referrerId == null || referrerId.length() == 0) {
+            return;
+        }
+        cacheClient.runScript(OFFER_SCRIPT, KEYS, Arrays.asList(String.valueOf(capacity), referrerId, "1"));
+    }
+
+    @Override
+    public List<LeaderboardEntry> page(int offset, int limit) {
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        if (limit <= 0) {
+            return entries;
+        }
+        Map<String, Double> counts = cacheClient.getSortedSetDescending(COUNTS_KEY, offset, offset + limit - 1L);
+        List<String> referrerIds = new ArrayList<>(counts.keySet());
+        List<String> errors = cacheClient.getHashValues(ERRORS_KEY, referrerIds);
+        for (int i = 0; i < referrerIds.size(); i++) {
+            LeaderboardEntry entry = new LeaderboardEntry(counts.get(referrerIds.get(i)).intValue(),
+                    referrerIds.get(i));
+            entry.setErrorBound(errors.get(i) == null ? 0 : (int) Double.parseDouble(errors.get(i)));
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    @Override
+    public Optional<LeaderboardRank> rank(String customerId) {
+        Optional<Double> count = cacheClient.getSortedSetScore(COUNTS_KEY, customerId);
+        if (!count.isPresent()) {
+            return Optional.empty();
+        }
+        long ahead = cacheClient.countSortedSetAbove(COUNTS_KEY, count.get());
+        return Optional.of(new LeaderboardRank(customerId, count.get().intValue(), ahead + 1));
+    }
+
+    /**
+     * @param entries every referrer's exact number of referrals, counted over the whole Referral table
+     */
+    @Override
+    public void rebuild(List<LeaderboardEntry> entries) {
+        // Only the heaviest referrers fit, and they are the ones whose counts the leaderboard shows
+        List<LeaderboardEntry> sorted = new ArrayList<>(entries);
+        sorted.sort((a, b) -> Integer.compare(b.getNumReferrals(), a.getNumReferrals()));
+        List<String> args = new ArrayList<>();
+        for (LeaderboardEntry entry : sorted.subList(0, Math.min(capacity, sorted.size()))) {
+            if (entry.getNumReferrals() > 0) {
+                args.add(entry.getCustomerId());
+                args.add(String.valueOf(entry.getNumReferrals()));
+            }
+        }
+        cacheClient.runScript(REBUILD_SCRIPT, KEYS, args);
+    }
+}
@@ -0,0 +1,51 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the K largest items offered to it using a min-heap of size K, so memory stays O(K) no matter how many
+ * items are offered. Safe to offer to from several threads.
+ * @param <T> the type of item being ranked
+ */
+public class TopKSelector<T> {
+    private final int capacity;
+    private final Comparator<? super T> comparator;
+    private final PriorityQueue<T> heap;
+
+    /**
+     * @param capacity the number of items to keep
+     * @param comparator orders items from smallest to largest
+     */
+    public TopKSelector(int capacity, Comparator<? super T> comparator) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity cannot be negative");
+        }
+        this.capacity = capacity;
+        this.comparator = comparator;
+        this.heap = new PriorityQueue<>(Math.max(1, capacity), comparator);
+    }
+
+    public synchronized void offer(T item) {
+        if (capacity == 0) {
+            return;
+        }
+        if (heap.size() < capacity) {
+            heap.add(item);
+        } else if (comparator.compare(item, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(item);
+        }
+    }
+
+    /**
+     * @return the kept items, largest first
+     */
+    public synchronized List<T> toSortedList() {
+        List<T> items = new ArrayList<>(heap);
+        items.sort(comparator.reversed());
+        return items;
+    }
+}
@@ -0,0 +1,85 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts referrals per referrer in one Redis sorted set per UTC day, so leaderboards over recent windows only merge
+ * the days they cover instead of rescanning the Referral table.
+ *
+ * Every referrer is counted, whether or not they were referred themselves. Each day's set expires once it is older
+ * than the longest window, so storage stays bounded at roughly 31 sets. The merged set for a window is kept for a
+ * short time so that paging through it does not repeat the union.
+ */
+public class WindowedLeaderboardIndex {
+    private static final String DAY_KEY = "ReferralLeaderboard::day::%s";
+    private static final String WINDOW_KEY = "ReferralLeaderboard::%s::%s";
+    private static final int DAY_RETENTION_SECONDS = (LeaderboardWindow.MONTH.getDays() + 1) * 24 * 60 * 60;
+    private static final int MERGED_TTL_SECONDS = 60;
+
+    private final CacheClient cacheClient;
+    private final Clock clock;
+
+    public WindowedLeaderboardIndex(CacheClient cacheClient, Clock clock) {
+        this.cacheClient = cacheClient;
+        this.clock = clock;
+    }
+
+    /**
+     * Counts a newly saved referral towards its referrer in the bucket for the day it was made.
+     * @param referral the referral that was just written
+     */
+    public void recordReferral(ReferralRecord referral) {
+        String referrerId = referral.getReferrerId();
+        if (referrerId == null || referrerId.length() == 0) {
+            return;
+        }
+        ZonedDateTime referred = referral.getDateReferred() == null
+                ? ZonedDateTime.now(clock) : referral.getDateReferred();
+        LocalDate day = referred.withZoneSameInstant(ZoneOffset.UTC).toLocalDate();
+        cacheClient.incrementSortedSetScore(dayKey(day), referrerId, 1, DAY_RETENTION_SECONDS);
+    }
+
+    /**
+     * Returns one page of the leaderboard for the window, best first.
+     * @param window the period to count; must not be {@link LeaderboardWindow#ALL_TIME}
+     * @param offset the number of entries to skip
+     * @param limit the maximum number of entries to return
+     * @return the entries in the page
+     */
+    public List<LeaderboardEntry> page(LeaderboardWindow window, int offset, int limit) {
+        if (window == LeaderboardWindow.ALL_TIME) {
+            throw new IllegalArgumentException("The windowed index does not keep all-time counts");
+        }
+        LocalDate today = LocalDate.now(clock.withZone(ZoneOffset.UTC));
+        String key;
+        if (window.getDays() == 1) {
+            key = dayKey(today);
+        } else {
+            key = String.format(WINDOW_KEY, window.name().toLowerCase(), today);
+            if (!cacheClient.exists(key)) {
+                List<String> dayKeys = new ArrayList<>();
+                for (int i = 0; i < window.getDays(); i++) {
+                    dayKeys.add(dayKey(today.minusDays(i)));
+                }
+                cacheClient.unionSortedSets(key, dayKeys, MERGED_TTL_SECONDS);
+            }
+        }
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        cacheClient.getSortedSetDescendingAbove(key, 0, offset, limit)
+                .forEach((customerId, score) -> entries.add(new LeaderboardEntry(score.intValue(), customerId)));
+        return entries;
+    }
+
+    private static String dayKey(LocalDate day) {
+        return String.format(DAY_KEY, day);
+    }
+}
@@ -0,0 +1,75 @@
+package com.kenzie.marketing.referral.service.model;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+
+import java.util.Objects;
+
+/**
+ * Denormalized referral counts for one customer, kept up to date as referrals are written.
+ */
+@DynamoDBTable(tableName = "ReferralSummary")
+public class ReferralSummaryRecord {
+
+    private String customerId;
+    private Integer numFirstLevelReferrals;
+    private Integer numSecondLevelReferrals;
+    private Integer numThirdLevelReferrals;
+
+    @DynamoDBHashKey(attributeName = "CustomerId")
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    @DynamoDBAttribute(attributeName = "NumFirstLevelReferrals")
+    public Integer getNumFirstLevelReferrals() {
+        return numFirstLevelReferrals;
+    }
+
+    @DynamoDBAttribute(attributeName = "NumSecondLevelReferrals")
+    public Integer getNumSecondLevelReferrals() {
+        return numSecondLevelReferrals;
+    }
+
+    @DynamoDBAttribute(attributeName = "NumThirdLevelReferrals")
+    public Integer getNumThirdLevelReferrals() {
+        return numThirdLevelReferrals;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public void setNumFirstLevelReferrals(Integer numFirstLevelReferrals) {
+        this.numFirstLevelReferrals = numFirstLevelReferrals;
+    }
+
+    public void setNumSecondLevelReferrals(Integer numSecondLevelReferrals) {
+        this.numSecondLevelReferrals = numSecondLevelReferrals;
+    }
+
+    public void setNumThirdLevelReferrals(Integer numThirdLevelReferrals) {
+        this.numThirdLevelReferrals = numThirdLevelReferrals;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ReferralSummaryRecord that = (ReferralSummaryRecord) o;
+        return Objects.equals(customerId, that.customerId) &&
+                Objects.equals(numFirstLevelReferrals, that.numFirstLevelReferrals) &&
+                Objects.equals(numSecondLevelReferrals, that.numSecondLevelReferrals) &&
+                Objects.equals(numThirdLevelReferrals, that.numThirdLevelReferrals);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(customerId, numFirstLevelReferrals, numSecondLevelReferrals, numThirdLevelReferrals);
+    }
+}
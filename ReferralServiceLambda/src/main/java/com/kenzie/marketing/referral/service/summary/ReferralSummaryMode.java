@@ -0,0 +1,28 @@
+package com.kenzie.marketing.referral.service.summary;
+
+/**
+ * Selects how a customer's referral summary is answered.
+ */
+public enum ReferralSummaryMode {
+    /** Walk the referral tree below the customer on every request. */
+    TRAVERSAL,
+    /** Read counters that addReferral keeps up to date for the referrer and its two closest ancestors. */
+    COUNTERS;
+
+    /**
+     * Parses a mode name, falling back to {@link #TRAVERSAL} when the value is missing or unknown.
+     * @param name the configured mode name, e.g. from the REFERRAL_SUMMARY_MODE environment variable
+     * @return the matching ReferralSummaryMode
+     */
+    public static ReferralSummaryMode fromName(String name) {
+        if (name == null || name.length() == 0) {
+            return TRAVERSAL;
+        }
+        for (ReferralSummaryMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        return TRAVERSAL;
+    }
+}
@@ -0,0 +1,113 @@
+package com.kenzie.marketing.referral.service.summary;
+
+import com.kenzie.marketing.referral.service.dao.ReferralSummaryDao;
+import com.kenzie.marketing.referral.service.model.ReferralSummaryRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Recomputes every customer's referral summary from the Referral table and compares it with the stored counters.
+ *
+ * The whole referral graph is held in memory as a map from referrer to referred customers, which is a few dozen
+ * bytes per referral. Each summary is then counted with the same level-by-level walk the traversal mode uses, so
+ * both modes agree even on malformed graphs.
+ *
+ * The stored counters are read before the referrals, so any referral they miss is one that was counted after they
+ * were read. Repairs only write counters that still hold the values that were read, so a counter that a new referral
+ * changed in the meantime is reported as a conflict and left for the next rebuild.
+ */
+public class ReferralSummaryRebuilder {
+    private final ReferralSummaryDao summaryDao;
+
+    public ReferralSummaryRebuilder(ReferralSummaryDao summaryDao) {
+        this.summaryDao = summaryDao;
+    }
+
+    /**
+     * @param repair true to overwrite every mismatched counter with the recomputed value, false to only report
+     * @return what was checked and how many summaries were wrong
+     */
+    public ReferralSummaryReport rebuild(boolean repair) {
+        Map<String, ReferralSummaryRecord> stored = new HashMap<>();
+        summaryDao.scanSummaries(summary -> stored.put(summary.getCustomerId(), summary));
+
+        Map<String, List<String>> childrenByReferrer = new HashMap<>();
+        int[] referralsScanned = {0};
+        summaryDao.scanReferrals(referral -> {
+            referralsScanned[0]++;
+            String referrerId = referral.getReferrerId();
+            if (referrerId != null && referrerId.length() > 0) {
+                childrenByReferrer.computeIfAbsent(referrerId, id -> new ArrayList<>()).add(referral.getCustomerId());
+            }
+        });
+
+        Set<String> customerIds = new HashSet<>(childrenByReferrer.keySet());
+        customerIds.addAll(stored.keySet());
+        List<ReferralSummaryRecord> mismatched = new ArrayList<>();
+        for (String customerId : customerIds) {
+            ReferralSummaryRecord expected = summarize(customerId, childrenByReferrer);
+            if (!sameCounts(expected, stored.get(customerId))) {
+                mismatched.add(expected);
+            }
+        }
+
+        int conflicts = 0;
+        if (repair) {
+            for (ReferralSummaryRecord expected : mismatched) {
+                if (!summaryDao.repairSummary(expected, stored.get(expected.getCustomerId()))) {
+                    conflicts++;
+                }
+            }
+        }
+        return new ReferralSummaryReport(referralsScanned[0], customerIds.size(), mismatched.size(), repair,
+                conflicts);
+    }
+
+    private static ReferralSummaryRecord summarize(String customerId, Map<String, List<String>> childrenByReferrer) {
+        int[] counts = new int[ReferralSummaryDao.MAX_DEPTH];
+        Set<String> visited = new HashSet<>();
+        visited.add(customerId);
+        List<String> frontier = new ArrayList<>();
+        frontier.add(customerId);
+
+        for (int level = 0; level < counts.length && !frontier.isEmpty(); level++) {
+            List<String> next = new ArrayList<>();
+            for (String parentId : frontier) {
+                for (String childId : childrenByReferrer.getOrDefault(parentId, new ArrayList<>())) {
+                    if (visited.add(childId)) {
+                        next.add(childId);
+                    }
+                }
+            }
+            counts[level] = next.size();
+            frontier = next;
+        }
+
+        ReferralSummaryRecord summary = new ReferralSummaryRecord();
+        summary.setCustomerId(customerId);
+        summary.setNumFirstLevelReferrals(counts[0]);
+        summary.setNumSecondLevelReferrals(counts[1]);
+        summary.setNumThirdLevelReferrals(counts[2]);
+        return summary;
+    }
+
+    private static boolean sameCounts(ReferralSummaryRecord expected, ReferralSummaryRecord actual) {
+        if (actual == null) {
+            return expected.getNumFirstLevelReferrals() == 0;
+        }
+        // Counters are only created by ADD, so a missing attribute means zero
+        return Objects.equals(expected.getNumFirstLevelReferrals(), orZero(actual.getNumFirstLevelReferrals())) &&
+                Objects.equals(expected.getNumSecondLevelReferrals(), orZero(actual.getNumSecondLevelReferrals())) &&
+                Objects.equals(expected.getNumThirdLevelReferrals(), orZero(actual.getNumThirdLevelReferrals()));
+    }
+
+    private static Integer orZero(Integer count) {
+        return count == null ? 0 : count;
+    }
+}
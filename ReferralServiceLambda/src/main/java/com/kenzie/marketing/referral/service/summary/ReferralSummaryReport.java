@@ -0,0 +1,60 @@
+package com.kenzie.marketing.referral.service.summary;
+
+/**
+ * Describes the outcome of checking the referral summary counters against the Referral table: how many referrals
+ * were read, how many customers have referrals below them, how many of their counters were wrong, and how many
+ * repairs were skipped because the counters changed while the check ran.
+ */
+public class ReferralSummaryReport {
+    private final int referralsScanned;
+    private final int summariesChecked;
+    private final int mismatched;
+    private final boolean repaired;
+    private final int conflicts;
+
+    public ReferralSummaryReport(int referralsScanned, int summariesChecked, int mismatched, boolean repaired,
+                                 int conflicts) {
+        this.referralsScanned = referralsScanned;
+        this.summariesChecked = summariesChecked;
+        this.mismatched = mismatched;
+        this.repaired = repaired;
+        this.conflicts = conflicts;
+    }
+
+    public int getReferralsScanned() {
+        return referralsScanned;
+    }
+
+    public int getSummariesChecked() {
+        return summariesChecked;
+    }
+
+    public int getMismatched() {
+        return mismatched;
+    }
+
+    /**
+     * @return true if the mismatched counters were overwritten with the recomputed values
+     */
+    public boolean isRepaired() {
+        return repaired;
+    }
+
+    /**
+     * @return the number of mismatched counters left alone because a referral changed them during the check
+     */
+    public int getConflicts() {
+        return conflicts;
+    }
+
+    @Override
+    public String toString() {
+        return "ReferralSummaryReport{" +
+                "referralsScanned=" + referralsScanned +
+                ", summariesChecked=" + summariesChecked +
+                ", mismatched=" + mismatched +
+                ", repaired=" + repaired +
+                ", conflicts=" + conflicts +
+                '}';
+    }
+}
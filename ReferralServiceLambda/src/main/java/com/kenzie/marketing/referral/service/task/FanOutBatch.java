@@ -0,0 +1,204 @@
+package com.kenzie.marketing.referral.service.task;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A group of tasks submitted to a {@link FanOutExecutor} that share an overall deadline. Tasks can be added while
+ * earlier ones are still running, and finished results can be drained as they complete.
+ *
+ * Each task may run for at most the per-task timeout once it has started, and the whole batch must finish
+ * before the overall deadline. Tasks that overrun either limit are cancelled and counted as timed out. A batch
+ * with a limit on tasks in flight makes {@link #submit} wait while that many tasks are queued or running, so a
+ * producer that is faster than the tasks cannot fill the pool's queue.
+ * @param <T> the type of result produced by each task
+ */
+public class FanOutBatch<T> {
+    private final ExecutorService executor;
+    private final long taskTimeoutNanos;
+    private final long deadlineNanos;
+    private final Semaphore inFlight;
+
+    private final List<PendingTask<T>> pending = new ArrayList<>();
+    private int submitted;
+    private int succeeded;
+    private int failed;
+    private int timedOut;
+
+    FanOutBatch(ExecutorService executor, long taskTimeoutNanos, long overallTimeoutNanos) {
+        this(executor, taskTimeoutNanos, overallTimeoutNanos, 0);
+    }
+
+    /**
+     * @param maxInFlight how many tasks may be queued or running at once; 0 for no limit
+     */
+    FanOutBatch(ExecutorService executor, long taskTimeoutNanos, long overallTimeoutNanos, int maxInFlight) {
+        this.executor = executor;
+        this.taskTimeoutNanos = taskTimeoutNanos;
+        this.deadlineNanos = System.nanoTime() + overallTimeoutNanos;
+        this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+    }
+
+    /**
+     * Queues the task. When the batch limits the tasks in flight, waits for one to finish first; a task that cannot
+     * be queued before the overall deadline is counted as timed out without running.
+     */
+    public void submit(Callable<T> task) {
+        // Waits outside the lock, so finished tasks can still be drained by other threads meanwhile
+        if (inFlight != null && !acquire()) {
+            synchronized (this) {
+                submitted++;
+                timedOut++;
+            }
+            return;
+        }
+        synchronized (this) {
+            PendingTask<T> pendingTask = new PendingTask<>();
+            pendingTask.future = executor.submit(() -> {
+                pendingTask.startedAt = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    release(pendingTask);
+                }
+            });
+            pending.add(pendingTask);
+            submitted++;
+        }
+    }
+
+    /**
+     * Hands every result that has finished so far to the sink without blocking, and cancels tasks that have run
+     * past their timeout.
+     * @param sink receives each successful result
+     */
+    public synchronized void drainCompleted(Consumer<? super T> sink) {
+        long now = System.nanoTime();
+        Iterator<PendingTask<T>> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            PendingTask<T> task = iterator.next();
+            if (task.future.isDone()) {
+                iterator.remove();
+                collect(task.future, sink);
+            } else if (now >= deadlineFor(task)) {
+                iterator.remove();
+                cancel(task);
+            }
+        }
+    }
+
+    /**
+     * Waits for the remaining tasks until they finish or their deadlines pass, then cancels any stragglers. Call
+     * this once, after the last task has been submitted.
+     * @param sink receives each successful result
+     * @return a report covering every task submitted to this batch
+     */
+    public FanOutReport awaitAll(Consumer<? super T> sink) {
+        List<PendingTask<T>> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (PendingTask<T> task : remaining) {
+            await(task, sink);
+        }
+        synchronized (this) {
+            return new FanOutReport(submitted, succeeded, failed, timedOut);
+        }
+    }
+
+    private void await(PendingTask<T> task, Consumer<? super T> sink) {
+        while (true) {
+            long now = System.nanoTime();
+            long deadline = deadlineFor(task);
+            if (now >= deadline) {
+                synchronized (this) {
+                    cancel(task);
+                }
+                return;
+            }
+            // A task that has not started yet has no per-task deadline, so wait in slices and check again
+            long wait = task.startedAt == 0 ? Math.min(deadline - now, taskTimeoutNanos) : deadline - now;
+            try {
+                task.future.get(wait, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (this) {
+                    cancel(task);
+                }
+                return;
+            } catch (ExecutionException | CancellationException e) {
+                // recorded by collect below
+            }
+            synchronized (this) {
+                collect(task.future, sink);
+            }
+            return;
+        }
+    }
+
+    private long deadlineFor(PendingTask<T> task) {
+        long started = task.startedAt;
+        return started == 0 ? deadlineNanos : Math.min(deadlineNanos, started + taskTimeoutNanos);
+    }
+
+    private void collect(Future<T> future, Consumer<? super T> sink) {
+        T result;
+        try {
+            result = future.get();
+        } catch (CancellationException e) {
+            timedOut++;
+            return;
+        } catch (ExecutionException e) {
+            failed++;
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed++;
+            return;
+        }
+        succeeded++;
+        sink.accept(result);
+    }
+
+    private void cancel(PendingTask<T> task) {
+        task.future.cancel(true);
+        // A task cancelled before it started never runs, so never releases its own permit
+        release(task);
+        timedOut++;
+    }
+
+    private boolean acquire() {
+        try {
+            return inFlight.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void release(PendingTask<T> task) {
+        if (inFlight != null && task.released.compareAndSet(false, true)) {
+            inFlight.release();
+        }
+    }
+
+    private static class PendingTask<T> {
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile long startedAt;
+        private Future<T> future;
+    }
+}
@@ -0,0 +1,110 @@
+package com.kenzie.marketing.referral.service.task;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs groups of I/O bound tasks on a shared, long-lived thread pool with per-task and overall deadlines.
+ *
+ * Unlike calling shutdown on a per-request executor, a FanOutExecutor can be reused for any number of fan-outs,
+ * so warm Lambda containers keep their threads between invocations. Tasks that miss a deadline are cancelled and
+ * reported instead of failing the whole fan-out.
+ */
+public class FanOutExecutor {
+    public static final Duration DEFAULT_TASK_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_OVERALL_TIMEOUT = Duration.ofSeconds(20);
+
+    private final ExecutorService executor;
+    private final Duration taskTimeout;
+    private final Duration overallTimeout;
+    private final int maxInFlight;
+
+    public FanOutExecutor(ExecutorService executor) {
+        this(executor, DEFAULT_TASK_TIMEOUT, DEFAULT_OVERALL_TIMEOUT);
+    }
+
+    public FanOutExecutor(ExecutorService executor, Duration taskTimeout, Duration overallTimeout) {
+        this(executor, taskTimeout, overallTimeout, 0);
+    }
+
+    /**
+     * @param maxInFlight how many tasks each batch may have queued or running at once, so a batch's pending tasks
+     *                    stay bounded however fast they are submitted; 0 for no limit
+     */
+    public FanOutExecutor(ExecutorService executor, Duration taskTimeout, Duration overallTimeout, int maxInFlight) {
+        this.executor = executor;
+        this.taskTimeout = taskTimeout;
+        this.overallTimeout = overallTimeout;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Creates a pool that runs at most {@code concurrency} tasks at once and queues the rest. Idle threads are
+     * released after a short keep-alive, and the threads never keep the JVM alive.
+     * @param concurrency the maximum number of tasks to run at once
+     * @return a bounded thread pool
+     */
+    public static ExecutorService newBoundedPool(int concurrency) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "referral-fan-out-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Starts a batch that uses the default deadlines, with the overall deadline counted from now.
+     * @param <T> the type of result produced by each task
+     * @return an empty batch to submit tasks to
+     */
+    public <T> FanOutBatch<T> newBatch() {
+        return newBatch(taskTimeout, overallTimeout);
+    }
+
+    public <T> FanOutBatch<T> newBatch(Duration taskTimeout, Duration overallTimeout) {
+        return new FanOutBatch<>(executor, taskTimeout.toNanos(), overallTimeout.toNanos(), maxInFlight);
+    }
+
+    /**
+     * Runs every task and waits for them using the default deadlines.
+     * @param tasks the tasks to run
+     * @param <T> the type of result produced by each task
+     * @return the results of the tasks that finished in time, and a report of the rest
+     */
+    public <T> FanOutResult<T> invokeAll(Collection<? extends Callable<T>> tasks) {
+        return invokeAll(tasks, taskTimeout, overallTimeout);
+    }
+
+    public <T> FanOutResult<T> invokeAll(Collection<? extends Callable<T>> tasks,
+                                         Duration taskTimeout, Duration overallTimeout) {
+        FanOutBatch<T> batch = newBatch(taskTimeout, overallTimeout);
+        for (Callable<T> task : tasks) {
+            batch.submit(task);
+        }
+        List<T> results = Collections.synchronizedList(new ArrayList<>(tasks.size()));
+        FanOutReport report = batch.awaitAll(results::add);
+        return new FanOutResult<>(results, report);
+    }
+
+    /**
+     * Stops the underlying pool. Only the owner of the executor, such as the Dagger component, should call this.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
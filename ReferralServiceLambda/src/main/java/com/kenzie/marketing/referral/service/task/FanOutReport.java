@@ -0,0 +1,52 @@
+package com.kenzie.marketing.referral.service.task;
+
+/**
+ * Describes how a fan-out finished: how many tasks were submitted and how many of them succeeded, failed, or were
+ * cancelled for running past a deadline.
+ */
+public class FanOutReport {
+    private final int submitted;
+    private final int succeeded;
+    private final int failed;
+    private final int timedOut;
+
+    public FanOutReport(int submitted, int succeeded, int failed, int timedOut) {
+        this.submitted = submitted;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.timedOut = timedOut;
+    }
+
+    public int getSubmitted() {
+        return submitted;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return true when every submitted task produced a result
+     */
+    public boolean isComplete() {
+        return succeeded == submitted;
+    }
+
+    @Override
+    public String toString() {
+        return "FanOutReport{" +
+                "submitted=" + submitted +
+                ", succeeded=" + succeeded +
+                ", failed=" + failed +
+                ", timedOut=" + timedOut +
+                '}';
+    }
+}
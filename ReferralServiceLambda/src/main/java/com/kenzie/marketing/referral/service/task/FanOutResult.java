@@ -0,0 +1,32 @@
+package com.kenzie.marketing.referral.service.task;
+
+import java.util.List;
+
+/**
+ * The results of the tasks that finished in time, along with a report of the ones that did not.
+ * @param <T> the type of result produced by each task
+ */
+public class FanOutResult<T> {
+    private final List<T> results;
+    private final FanOutReport report;
+
+    public FanOutResult(List<T> results, FanOutReport report) {
+        this.results = results;
+        this.report = report;
+    }
+
+    /**
+     * @return the results of the successful tasks, in completion order
+     */
+    public List<T> getResults() {
+        return results;
+    }
+
+    public FanOutReport getReport() {
+        return report;
+    }
+
+    public boolean isComplete() {
+        return report.isComplete();
+    }
+}
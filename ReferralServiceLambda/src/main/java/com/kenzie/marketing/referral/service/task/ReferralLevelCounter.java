@@ -0,0 +1,34 @@
+package com.kenzie.marketing.referral.service.task;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the customers at each level of the referral tree below a customer.
+ */
+public interface ReferralLevelCounter {
+
+    /**
+     * @param rootId the customer to start from
+     * @param depth the number of levels to count
+     * @return a list of {@code depth} counts, where index 0 holds the root's direct referrals
+     */
+    List<Integer> countLevels(String rootId, int depth);
+
+    /**
+     * Counts the levels below several customers. Implementations that read from a remote store should share the
+     * lookups the customers have in common; by default each customer is counted on its own.
+     * @param rootIds the customers to start from
+     * @param depth the number of levels to count
+     * @return the counts for each customer, in the order the customers were given
+     */
+    default Map<String, List<Integer>> countLevels(Collection<String> rootIds, int depth) {
+        Map<String, List<Integer>> counts = new LinkedHashMap<>();
+        for (String rootId : rootIds) {
+            counts.put(rootId, countLevels(rootId, depth));
+        }
+        return counts;
+    }
+}
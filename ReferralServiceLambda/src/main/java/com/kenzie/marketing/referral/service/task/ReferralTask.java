@@ -1,7 +1,6 @@
 package com.kenzie.marketing.referral.service.task;
 
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
-import com.kenzie.marketing.referral.service.ReferralService;
 import com.kenzie.marketing.referral.service.dao.ReferralDao;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
 
@@ -9,14 +8,15 @@ import java.util.concurrent.Callable;
 
 public class ReferralTask implements Callable<LeaderboardEntry> {
     private final ReferralRecord referralRecord;
-    private final ReferralService referralService;
+    private final ReferralDao referralDao;
 
     public ReferralTask(ReferralRecord referralRecord, ReferralDao referralDao) {
         this.referralRecord = referralRecord;
-        this.referralService = new ReferralService(referralDao);
+        this.referralDao = referralDao;
     }
     @Override
     public LeaderboardEntry call() throws Exception {
-        return new LeaderboardEntry(referralService.getDirectReferrals(referralRecord.getCustomerId()).size(), referralRecord.getCustomerId());
+        return new LeaderboardEntry(referralDao.countByReferrerId(referralRecord.getCustomerId()),
+                referralRecord.getCustomerId());
     }
 }
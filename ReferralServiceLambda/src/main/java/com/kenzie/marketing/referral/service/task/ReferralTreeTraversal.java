@@ -0,0 +1,113 @@
+package com.kenzie.marketing.referral.service.task;
+
+import com.kenzie.marketing.referral.service.dao.ReferralDao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Walks the referral tree below a customer one level at a time (level-synchronous breadth-first search).
+ *
+ * Every lookup for a level is made with one batch call to {@link ReferralDao#findChildIdsByReferrerIds}, which the
+ * caching DAO answers with one Redis MGET plus concurrent queries for the misses, so the number of round trips in a
+ * row grows with the depth of the walk rather than the number of customers in it. Customers that were already
+ * visited are skipped, so a malformed graph with cycles or repeated records is never counted twice.
+ */
+public class ReferralTreeTraversal implements ReferralLevelCounter {
+    private final ReferralDao referralDao;
+
+    public ReferralTreeTraversal(ReferralDao referralDao) {
+        this.referralDao = referralDao;
+    }
+
+    /**
+     * Counts the customers at each level below the root. The walk stops early once a level is empty.
+     * @param rootId the customer to start from
+     * @param depth the number of levels to count
+     * @return a list of {@code depth} counts, where index 0 holds the root's direct referrals
+     * @throws IllegalStateException if any lookup failed or missed its deadline, since the counts would be wrong
+     */
+    @Override
+    public List<Integer> countLevels(String rootId, int depth) {
+        return countLevels(Collections.singletonList(rootId), depth).get(rootId);
+    }
+
+    /**
+     * Walks the trees below several customers together. Each level is still one batch lookup, and a customer that
+     * appears in more than one tree is only looked up once, so overlapping networks share their reads.
+     * @throws IllegalStateException if any lookup failed or missed its deadline, since the counts would be wrong
+     */
+    @Override
+    public Map<String, List<Integer>> countLevels(Collection<String> rootIds, int depth) {
+        Map<String, Walk> walks = new LinkedHashMap<>();
+        for (String rootId : rootIds) {
+            walks.put(rootId, new Walk(rootId));
+        }
+        Map<String, List<String>> childrenById = new HashMap<>();
+
+        for (int level = 0; level < depth; level++) {
+            Set<String> unknown = new LinkedHashSet<>();
+            for (Walk walk : walks.values()) {
+                for (String parentId : walk.frontier) {
+                    if (!childrenById.containsKey(parentId)) {
+                        unknown.add(parentId);
+                    }
+                }
+            }
+            if (!unknown.isEmpty()) {
+                childrenById.putAll(childrenOf(unknown));
+            }
+            for (Walk walk : walks.values()) {
+                walk.advance(childrenById);
+            }
+        }
+
+        Map<String, List<Integer>> counts = new LinkedHashMap<>();
+        walks.forEach((rootId, walk) -> counts.put(rootId, walk.counts));
+        return counts;
+    }
+
+    private Map<String, List<String>> childrenOf(Collection<String> parents) {
+        // Only the ids are read, even on the last level, so that a customer reached twice is still counted once
+        try {
+            return referralDao.findChildIdsByReferrerIds(parents);
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Referral tree walk did not finish", e);
+        }
+    }
+
+    /**
+     * The progress of the walk below one root.
+     */
+    private static class Walk {
+        private final Set<String> visited = new HashSet<>();
+        private final List<Integer> counts = new ArrayList<>();
+        private List<String> frontier = new ArrayList<>();
+
+        Walk(String rootId) {
+            visited.add(rootId);
+            frontier.add(rootId);
+        }
+
+        void advance(Map<String, List<String>> childrenById) {
+            List<String> next = new ArrayList<>();
+            for (String parentId : frontier) {
+                for (String childId : childrenById.get(parentId)) {
+                    if (visited.add(childId)) {
+                        next.add(childId);
+                    }
+                }
+            }
+            counts.add(next.size());
+            frontier = next;
+        }
+    }
+}
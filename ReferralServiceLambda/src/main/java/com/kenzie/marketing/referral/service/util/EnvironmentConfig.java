@@ -0,0 +1,25 @@
+package com.kenzie.marketing.referral.service.util;
+
+/**
+ * Reads optional tuning settings from environment variables.
+ */
+public class EnvironmentConfig {
+
+    /**
+     * Returns the integer value of the environment variable, or the default when it is unset or not a number.
+     * @param name the environment variable to read
+     * @param defaultValue the value to use when the variable is missing or invalid
+     * @return the configured value
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
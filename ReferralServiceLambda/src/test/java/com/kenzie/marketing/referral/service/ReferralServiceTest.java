@@ -4,8 +4,15 @@ package com.kenzie.marketing.referral.service;
 import com.kenzie.marketing.referral.model.*;
 import com.kenzie.marketing.referral.service.converter.ZonedDateTimeConverter;
 import com.kenzie.marketing.referral.service.dao.ReferralDao;
+import com.kenzie.marketing.referral.service.dao.ReferralSummaryDao;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardIndex;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardMode;
+import com.kenzie.marketing.referral.service.leaderboard.LeaderboardWindow;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.model.ReferralSummaryRecord;
+import com.kenzie.marketing.referral.service.summary.ReferralSummaryMode;
+import com.kenzie.marketing.referral.service.task.FanOutExecutor;
 import net.andreinc.mockneat.MockNeat;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -16,14 +23,25 @@ import redis.clients.jedis.JedisPoolConfig;
 
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -41,6 +59,7 @@ class ReferralServiceTest {
     @BeforeAll
     void setup() {
         this.referralDao = mock(ReferralDao.class);
+        answerBatchWithSingleLookups(referralDao);
         this.referralService = new ReferralService(referralDao);
     }
 
@@ -152,9 +171,9 @@ class ReferralServiceTest {
         List<ReferralRecord> thirdLevelReferralList = new ArrayList<>();
         thirdLevelReferralList.add(thirdLevelRecord);
 
-        when(referralDao.findByReferrerId(originalCustomerId)).thenReturn(firstLevelReferralList);
-        when(referralDao.findByReferrerId(firstLevelReferralId)).thenReturn(secondLevelReferralList);
-        when(referralDao.findByReferrerId(secondLevelReferralId)).thenReturn(thirdLevelReferralList);
+        when(referralDao.findChildIdsByReferrerId(originalCustomerId)).thenReturn(List.of(firstLevelReferralId));
+        when(referralDao.findChildIdsByReferrerId(firstLevelReferralId)).thenReturn(List.of(secondLevelReferralId));
+        when(referralDao.findChildIdsByReferrerId(secondLevelReferralId)).thenReturn(List.of(thirdLevelReferralId));
 
         //WHEN
         CustomerReferrals referrals = referralService.getCustomerReferralSummary(originalCustomerId);
@@ -187,7 +206,7 @@ class ReferralServiceTest {
         directReferrals.add(firstLevelRecord);
 
         when(referralDao.findUsersWithoutReferrerId()).thenReturn(userWithoutReference);
-        when(referralDao.findByReferrerId(originalCustomerId)).thenReturn(directReferrals);
+        when(referralDao.countByReferrerId(originalCustomerId)).thenReturn(directReferrals.size());
 
         //WHEN
         List<LeaderboardEntry> leaderboard = referralService.getReferralLeaderboard();
@@ -199,4 +218,364 @@ class ReferralServiceTest {
         assertEquals(entry.getNumReferrals(), 1);
     }
 
-}
\ No newline at end of file
+    @Test
+    void getReferralLeaderboard_redisSortedSetMode_readsFromIndex() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        LeaderboardIndex index = mock(LeaderboardIndex.class);
+        List<LeaderboardEntry> top = new ArrayList<>();
+        top.add(new LeaderboardEntry(3, "topCustomer"));
+        when(index.page(0, 5)).thenReturn(top);
+        ReferralService service = new ReferralService(dao, new FanOutExecutor(Executors.newCachedThreadPool()),
+                LeaderboardMode.REDIS_SORTED_SET, index);
+
+        //WHEN
+        List<LeaderboardEntry> leaderboard = service.getReferralLeaderboard();
+
+        //THEN
+        assertEquals(top, leaderboard);
+        verify(dao, never()).findUsersWithoutReferrerId();
+        verify(dao, never()).countByReferrerId(anyString());
+    }
+
+    @Test
+    void addReferral_withLeaderboardIndex_recordsReferral() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        LeaderboardIndex index = mock(LeaderboardIndex.class);
+        ReferralService service = new ReferralService(dao, new FanOutExecutor(Executors.newCachedThreadPool()),
+                LeaderboardMode.REDIS_SORTED_SET, index);
+        ArgumentCaptor<ReferralRecord> referralCaptor = ArgumentCaptor.forClass(ReferralRecord.class);
+
+        //WHEN
+        service.addReferral(new ReferralRequest("newCustomer", "referrer"));
+
+        //THEN
+        verify(index).recordReferral(referralCaptor.capture());
+        assertEquals("newCustomer", referralCaptor.getValue().getCustomerId());
+        assertEquals("referrer", referralCaptor.getValue().getReferrerId());
+    }
+
+    @Test
+    void rebuildLeaderboard_replacesIndexWithScannedCounts() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        LeaderboardIndex index = mock(LeaderboardIndex.class);
+        ReferralRecord root = new ReferralRecord();
+        root.setCustomerId("root");
+        List<ReferralRecord> roots = new ArrayList<>();
+        roots.add(root);
+        ReferralRecord child = new ReferralRecord();
+        child.setCustomerId("child");
+        child.setReferrerId("root");
+        child.setDateReferred(ZonedDateTime.now());
+        List<ReferralRecord> children = new ArrayList<>();
+        children.add(child);
+        when(dao.findUsersWithoutReferrerId()).thenReturn(roots);
+        when(dao.countByReferrerId("root")).thenReturn(children.size());
+        ReferralService service = new ReferralService(dao, new FanOutExecutor(Executors.newCachedThreadPool()),
+                LeaderboardMode.REDIS_SORTED_SET, index);
+        ArgumentCaptor<List> entriesCaptor = ArgumentCaptor.forClass(List.class);
+
+        //WHEN
+        int rebuilt = service.rebuildLeaderboard();
+
+        //THEN
+        assertEquals(1, rebuilt);
+        verify(index).rebuild(entriesCaptor.capture());
+        LeaderboardEntry entry = (LeaderboardEntry) entriesCaptor.getValue().get(0);
+        assertEquals("root", entry.getCustomerId());
+        assertEquals(1, entry.getNumReferrals());
+    }
+
+    @Test
+    void rebuildLeaderboard_approximateMode_countsEveryReferrerInTheTable() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        ReferralSummaryDao summaryDao = mock(ReferralSummaryDao.class);
+        LeaderboardIndex index = mock(LeaderboardIndex.class);
+        List<ReferralRecord> table = new ArrayList<>();
+        String[][] rows = {{"root", null}, {"child", "root"}, {"grandchild1", "child"}, {"grandchild2", "child"}};
+        for (String[] row : rows) {
+            ReferralRecord record = new ReferralRecord();
+            record.setCustomerId(row[0]);
+            record.setReferrerId(row[1]);
+            table.add(record);
+        }
+        doAnswer(invocation -> {
+            table.forEach((Consumer<ReferralRecord>) invocation.getArguments()[0]);
+            return null;
+        }).when(summaryDao).scanReferrals(any(Consumer.class));
+        ReferralService service = new ReferralService(dao, new FanOutExecutor(Executors.newCachedThreadPool()),
+                LeaderboardMode.APPROXIMATE, index, null, null, ReferralSummaryMode.TRAVERSAL, summaryDao);
+        ArgumentCaptor<List> entriesCaptor = ArgumentCaptor.forClass(List.class);
+
+        //WHEN
+        int rebuilt = service.rebuildLeaderboard();
+
+        //THEN
+        assertEquals(2, rebuilt);
+        verify(index).rebuild(entriesCaptor.capture());
+        Map<String, Integer> counts = new HashMap<>();
+        for (Object entry : entriesCaptor.getValue()) {
+            counts.put(((LeaderboardEntry) entry).getCustomerId(), ((LeaderboardEntry) entry).getNumReferrals());
+        }
+        assertEquals(1, (int) counts.get("root"));
+        assertEquals(2, (int) counts.get("child"));
+        verify(dao, never()).findUsersWithoutReferrerId();
+    }
+
+    @Test
+    void rebuildLeaderboard_withoutIndex_throws() {
+        assertThrows(InvalidDataException.class, () -> referralService.rebuildLeaderboard());
+    }
+
+    @Test
+    void getReferralLeaderboard_streamingScanMode_keepsTopEntriesAcrossPages() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        List<ReferralRecord> firstPage = new ArrayList<>();
+        List<ReferralRecord> secondPage = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            ReferralRecord root = new ReferralRecord();
+            root.setCustomerId("root" + i);
+            (i < 4 ? firstPage : secondPage).add(root);
+
+            List<ReferralRecord> children = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                ReferralRecord child = new ReferralRecord();
+                child.setCustomerId("root" + i + "child" + j);
+                child.setReferrerId("root" + i);
+                child.setDateReferred(ZonedDateTime.now());
+                children.add(child);
+            }
+            when(dao.countByReferrerId("root" + i)).thenReturn(children.size());
+        }
+        doAnswer(invocation -> {
+            Consumer<List<ReferralRecord>> pageConsumer = (Consumer<List<ReferralRecord>>) invocation.getArguments()[0];
+            pageConsumer.accept(firstPage);
+            pageConsumer.accept(secondPage);
+            return null;
+        }).when(dao).scanUsersWithoutReferrerId(any(Consumer.class));
+        ReferralService service = new ReferralService(dao, new FanOutExecutor(Executors.newCachedThreadPool()),
+                LeaderboardMode.STREAMING_SCAN, null);
+
+        //WHEN
+        List<LeaderboardEntry> leaderboard = service.getReferralLeaderboard();
+
+        //THEN
+        assertEquals(5, leaderboard.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("root" + (7 - i), leaderboard.get(i).getCustomerId());
+            assertEquals(7 - i, leaderboard.get(i).getNumReferrals());
+        }
+        verify(dao, never()).findUsersWithoutReferrerId();
+    }
+
+    @Test
+    void getReferralLeaderboard_page_skipsOffsetAndCustomersWithoutReferrals() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        List<ReferralRecord> roots = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ReferralRecord root = new ReferralRecord();
+            root.setCustomerId("root" + i);
+            roots.add(root);
+
+            List<ReferralRecord> children = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                ReferralRecord child = new ReferralRecord();
+                child.setCustomerId("root" + i + "child" + j);
+                child.setReferrerId("root" + i);
+                child.setDateReferred(ZonedDateTime.now());
+                children.add(child);
+            }
+            when(dao.countByReferrerId("root" + i)).thenReturn(children.size());
+        }
+        when(dao.findUsersWithoutReferrerId()).thenReturn(roots);
+        ReferralService service = new ReferralService(dao, new FanOutExecutor(Executors.newCachedThreadPool()),
+                LeaderboardMode.SCAN, null);
+
+        //WHEN
+        List<LeaderboardEntry> leaderboard = service.getReferralLeaderboard(1, 5);
+
+        //THEN
+        assertEquals(2, leaderboard.size());
+        assertEquals("root2", leaderboard.get(0).getCustomerId());
+        assertEquals("root1", leaderboard.get(1).getCustomerId());
+    }
+
+    @Test
+    void getReferralLeaderboard_limitTooLarge_throws() {
+        assertThrows(InvalidDataException.class, () -> referralService.getReferralLeaderboard(0, 101));
+    }
+
+    @Test
+    void getLeaderboardRank_withLeaderboardIndex_returnsRank() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        LeaderboardIndex index = mock(LeaderboardIndex.class);
+        LeaderboardRank rank = new LeaderboardRank("customer", 4, 2);
+        when(index.rank("customer")).thenReturn(Optional.of(rank));
+        ReferralService service = new ReferralService(dao, new FanOutExecutor(Executors.newCachedThreadPool()),
+                LeaderboardMode.REDIS_SORTED_SET, index);
+
+        //WHEN
+        LeaderboardRank result = service.getLeaderboardRank("customer");
+
+        //THEN
+        assertEquals(2, result.getRank());
+        assertEquals(4, result.getNumReferrals());
+        verify(dao, never()).findUsersWithoutReferrerId();
+    }
+
+    @Test
+    void getLeaderboardRank_withoutLeaderboardIndex_throws() {
+        assertThrows(InvalidDataException.class, () -> referralService.getLeaderboardRank("customer"));
+    }
+
+    @Test
+    void getReferralLeaderboard_windowWithoutWindowedIndex_throws() {
+        assertThrows(InvalidDataException.class,
+                () -> referralService.getReferralLeaderboard(LeaderboardWindow.WEEK, 0, 5));
+    }
+
+    @Test
+    void getCustomerReferralSummary_countersMode_readsSummaryWithoutTraversal() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        ReferralSummaryDao summaryDao = mock(ReferralSummaryDao.class);
+        ReferralSummaryRecord summary = new ReferralSummaryRecord();
+        summary.setCustomerId("customer");
+        summary.setNumFirstLevelReferrals(3);
+        summary.setNumSecondLevelReferrals(2);
+        when(summaryDao.findSummary("customer")).thenReturn(summary);
+        ReferralService service = new ReferralService(dao, new FanOutExecutor(Executors.newCachedThreadPool()),
+                LeaderboardMode.SCAN, null, null, null, ReferralSummaryMode.COUNTERS, summaryDao);
+
+        //WHEN
+        CustomerReferrals referrals = service.getCustomerReferralSummary("customer");
+
+        //THEN
+        assertEquals(3, referrals.getNumFirstLevelReferrals());
+        assertEquals(2, referrals.getNumSecondLevelReferrals());
+        assertEquals(0, referrals.getNumThirdLevelReferrals());
+        verify(dao, never()).findChildIdsByReferrerId(anyString());
+    }
+
+    @Test
+    void getCustomerReferralSummary_countersModeWithoutSummary_returnsZeros() {
+        //GIVEN
+        ReferralSummaryDao summaryDao = mock(ReferralSummaryDao.class);
+        ReferralService service = new ReferralService(mock(ReferralDao.class),
+                new FanOutExecutor(Executors.newCachedThreadPool()), LeaderboardMode.SCAN, null, null, null,
+                ReferralSummaryMode.COUNTERS, summaryDao);
+
+        //WHEN
+        CustomerReferrals referrals = service.getCustomerReferralSummary("nobody");
+
+        //THEN
+        assertEquals(0, referrals.getNumFirstLevelReferrals());
+        assertEquals(0, referrals.getNumSecondLevelReferrals());
+        assertEquals(0, referrals.getNumThirdLevelReferrals());
+    }
+
+    @Test
+    void getReferralBonus_weighsEachLevel() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        when(dao.findChildIdsByReferrerId(anyString())).thenReturn(new ArrayList<>());
+        when(dao.findChildIdsByReferrerId("root")).thenReturn(Arrays.asList("a", "b"));
+        when(dao.findChildIdsByReferrerId("a")).thenReturn(Arrays.asList("a1"));
+        when(dao.findChildIdsByReferrerId("a1")).thenReturn(Arrays.asList("a11", "a12"));
+        when(dao.findChildIdsByReferrerId("a11")).thenReturn(Arrays.asList("a111"));
+        answerBatchWithSingleLookups(dao);
+        ReferralService service = new ReferralService(dao, Executors.newCachedThreadPool());
+
+        //WHEN
+        ReferralBonus bonus = service.getReferralBonus("root", 4, Arrays.asList(10.0, 3.0, 1.0, 0.5));
+
+        //THEN
+        assertEquals(Arrays.asList(2, 1, 2, 1), bonus.getLevelCounts());
+        assertEquals(10.0 * 2 + 3.0 + 1.0 * 2 + 0.5, bonus.getBonus());
+    }
+
+    @Test
+    void getReferralBonus_moreWeightsThanLevels_throws() {
+        assertThrows(InvalidDataException.class,
+                () -> referralService.getReferralBonus("root", 1, Arrays.asList(10.0, 3.0)));
+    }
+
+    @Test
+    void getCustomerReferralSummaries_sharedSubtree_looksUpEachCustomerOnce() {
+        //GIVEN
+        ReferralDao dao = mock(ReferralDao.class);
+        when(dao.findChildIdsByReferrerId(anyString())).thenReturn(new ArrayList<>());
+        when(dao.findChildIdsByReferrerId("root")).thenReturn(Arrays.asList("a", "b"));
+        when(dao.findChildIdsByReferrerId("a")).thenReturn(Arrays.asList("a1", "a2"));
+        when(dao.findChildIdsByReferrerId("a1")).thenReturn(Arrays.asList("a11"));
+        answerBatchWithSingleLookups(dao);
+        ReferralService service = new ReferralService(dao, Executors.newCachedThreadPool());
+
+        //WHEN
+        Map<String, CustomerReferrals> summaries =
+                service.getCustomerReferralSummaries(Arrays.asList("root", "a", "root"));
+
+        //THEN
+        assertEquals(Arrays.asList("root", "a"), new ArrayList<>(summaries.keySet()));
+        assertEquals(2, summaries.get("root").getNumFirstLevelReferrals());
+        assertEquals(2, summaries.get("root").getNumSecondLevelReferrals());
+        assertEquals(1, summaries.get("root").getNumThirdLevelReferrals());
+        assertEquals(2, summaries.get("a").getNumFirstLevelReferrals());
+        assertEquals(1, summaries.get("a").getNumSecondLevelReferrals());
+        assertEquals(0, summaries.get("a").getNumThirdLevelReferrals());
+        verify(dao, times(1)).findChildIdsByReferrerId("a");
+        verify(dao, times(1)).findChildIdsByReferrerId("a1");
+    }
+
+    @Test
+    void getCustomerReferralSummaries_countersMode_readsSummariesInOneBatch() {
+        //GIVEN
+        ReferralSummaryDao summaryDao = mock(ReferralSummaryDao.class);
+        ReferralSummaryRecord summary = new ReferralSummaryRecord();
+        summary.setCustomerId("customer");
+        summary.setNumFirstLevelReferrals(4);
+        when(summaryDao.findSummaries(any())).thenReturn(Map.of("customer", summary));
+        ReferralService service = new ReferralService(mock(ReferralDao.class),
+                new FanOutExecutor(Executors.newCachedThreadPool()), LeaderboardMode.SCAN, null, null, null,
+                ReferralSummaryMode.COUNTERS, summaryDao);
+
+        //WHEN
+        Map<String, CustomerReferrals> summaries =
+                service.getCustomerReferralSummaries(Arrays.asList("customer", "nobody"));
+
+        //THEN
+        assertEquals(4, summaries.get("customer").getNumFirstLevelReferrals());
+        assertEquals(0, summaries.get("nobody").getNumFirstLevelReferrals());
+        verify(summaryDao, times(1)).findSummaries(any());
+        verify(summaryDao, never()).findSummary(anyString());
+    }
+
+    @Test
+    void getCustomerReferralSummaries_tooManyCustomers_throws() {
+        List<String> customerIds = new ArrayList<>();
+        for (int i = 0; i <= 500; i++) {
+            customerIds.add("customer" + i);
+        }
+
+        assertThrows(InvalidDataException.class, () -> referralService.getCustomerReferralSummaries(customerIds));
+    }
+
+    /**
+     * Mocks do not run default methods, so the batch lookup is answered with the mocked single lookups.
+     */
+    private static void answerBatchWithSingleLookups(ReferralDao dao) {
+        when(dao.findChildIdsByReferrerIds(any())).thenAnswer(invocation -> {
+            Map<String, List<String>> childIds = new HashMap<>();
+            for (Object referrerId : (Collection<?>) invocation.getArguments()[0]) {
+                childIds.put((String) referrerId, dao.findChildIdsByReferrerId((String) referrerId));
+            }
+            return childIds;
+        });
+    }
+}
@@ -0,0 +1,106 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.dao.ReferralDao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CacheWarmerTest {
+    private ReferralDao referralDao;
+    private HotReferrers hotReferrers;
+    private Clock clock;
+
+    @BeforeEach
+    void setup() {
+        referralDao = mock(ReferralDao.class);
+        hotReferrers = mock(HotReferrers.class);
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(10_000L);
+        when(referralDao.findByReferrerIds(any())).thenReturn(new HashMap<>());
+    }
+
+    @Test
+    void warm_loadsHotReferrersThenLeaderboard() {
+        // GIVEN
+        when(hotReferrers.hottest(3)).thenReturn(Arrays.asList("a", "b"));
+        CacheWarmer warmer = new CacheWarmer(referralDao, hotReferrers, () -> Arrays.asList("b", "c", "d"), 3,
+                Duration.ofSeconds(3), clock);
+
+        // WHEN
+        int warmed = warmer.warm();
+
+        // THEN
+        ArgumentCaptor<Collection> batch = ArgumentCaptor.forClass(Collection.class);
+        verify(referralDao).findByReferrerIds(batch.capture());
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(batch.getValue()));
+        assertEquals(3, warmed);
+    }
+
+    @Test
+    void warm_manyReferrers_loadsInBatches() {
+        // GIVEN
+        List<String> referrerIds = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            referrerIds.add("referrer" + i);
+        }
+        when(hotReferrers.hottest(anyInt())).thenReturn(referrerIds);
+        CacheWarmer warmer = new CacheWarmer(referralDao, hotReferrers, null, 250, Duration.ofSeconds(3), clock);
+
+        // WHEN
+        int warmed = warmer.warm();
+
+        // THEN
+        verify(referralDao, times(3)).findByReferrerIds(any());
+        assertEquals(250, warmed);
+    }
+
+    @Test
+    void warm_budgetSpent_stopsBetweenBatches() {
+        // GIVEN
+        List<String> referrerIds = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            referrerIds.add("referrer" + i);
+        }
+        when(hotReferrers.hottest(anyInt())).thenReturn(referrerIds);
+        when(clock.millis()).thenReturn(10_000L, 10_000L, 14_000L);
+        CacheWarmer warmer = new CacheWarmer(referralDao, hotReferrers, null, 250, Duration.ofSeconds(3), clock);
+
+        // WHEN
+        int warmed = warmer.warm();
+
+        // THEN
+        verify(referralDao, times(1)).findByReferrerIds(any());
+        assertEquals(100, warmed);
+    }
+
+    @Test
+    void warmInBackground_failure_doesNotThrow() {
+        // GIVEN
+        when(hotReferrers.hottest(anyInt())).thenThrow(new RuntimeException("Redis unavailable"));
+        CacheWarmer warmer = new CacheWarmer(referralDao, hotReferrers, null, 10, Duration.ofSeconds(3), clock);
+
+        // WHEN
+        warmer.warmInBackground(Runnable::run);
+
+        // THEN
+        verify(referralDao, never()).findByReferrerIds(any());
+    }
+}
@@ -0,0 +1,410 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.dao.NonCachingReferralDao;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingReferralDaoTest {
+    private static final String KEY = "ReferralKey::referrer";
+
+    private CacheClient cacheClient;
+    private NonCachingReferralDao nonCachingDao;
+    private EarlyRefresh earlyRefresh;
+    private CachingReferralDao cachingDao;
+    private List<ReferralRecord> cached;
+    private List<ReferralRecord> fresh;
+
+    @BeforeEach
+    void setup() {
+        cacheClient = mock(CacheClient.class);
+        nonCachingDao = mock(NonCachingReferralDao.class);
+        // Always pick the early refresh once a load has been timed
+        earlyRefresh = new EarlyRefresh(1, () -> 0.000001);
+        cachingDao = new CachingReferralDao(cacheClient, nonCachingDao, null, ReferralCacheFormat.BINARY,
+                earlyRefresh, ReferralCacheWriteMode.INVALIDATE);
+        cached = Arrays.asList(record("cached"));
+        fresh = Arrays.asList(record("fresh"));
+        when(nonCachingDao.findByReferrerId("referrer")).thenReturn(fresh);
+        when(cacheClient.getBytes(anyString())).thenReturn(Optional.empty());
+    }
+
+    @Test
+    void findByReferrerId_hit_doesNotLoad() {
+        // GIVEN
+        when(cacheClient.getBytesWithTtl(KEY))
+                .thenReturn(Optional.of(new CachedBytes(ReferralListCodec.encode(cached), 60_000)));
+
+        // WHEN
+        List<ReferralRecord> records = cachingDao.findByReferrerId("referrer");
+
+        // THEN
+        assertEquals(cached, records);
+        verify(nonCachingDao, never()).findByReferrerId(anyString());
+    }
+
+    @Test
+    void findByReferrerId_miss_loadsUnderLockAndCaches() {
+        // GIVEN
+        when(cacheClient.getBytesWithTtl(KEY)).thenReturn(Optional.empty());
+        when(cacheClient.setValueIfAbsent(eq(KEY + "::lock"), anyLong(), anyString())).thenReturn(true);
+
+        // WHEN
+        List<ReferralRecord> records = cachingDao.findByReferrerId("referrer");
+
+        // THEN
+        assertEquals(fresh, records);
+        verify(cacheClient).setBytes(eq(KEY), anyInt(), any(byte[].class));
+        verify(cacheClient).invalidateIfValue(eq(KEY + "::lock"), anyString());
+    }
+
+    @Test
+    void findByReferrerId_earlyRefreshLockedElsewhere_servesCachedValue() {
+        // GIVEN
+        earlyRefresh.recordLoad(100);
+        when(cacheClient.getBytesWithTtl(KEY))
+                .thenReturn(Optional.of(new CachedBytes(ReferralListCodec.encode(cached), 50)));
+        when(cacheClient.setValueIfAbsent(eq(KEY + "::lock"), anyLong(), anyString())).thenReturn(false);
+
+        // WHEN
+        List<ReferralRecord> records = cachingDao.findByReferrerId("referrer");
+
+        // THEN
+        assertEquals(cached, records);
+        verify(nonCachingDao, never()).findByReferrerId(anyString());
+    }
+
+    @Test
+    void findByReferrerId_missLockedElsewhere_readsDynamoDbWithoutCaching() {
+        // GIVEN
+        when(cacheClient.getBytesWithTtl(KEY)).thenReturn(Optional.empty());
+        when(cacheClient.setValueIfAbsent(eq(KEY + "::lock"), anyLong(), anyString())).thenReturn(false);
+
+        // WHEN
+        List<ReferralRecord> records = cachingDao.findByReferrerId("referrer");
+
+        // THEN
+        assertEquals(fresh, records);
+        verify(cacheClient, never()).setBytes(anyString(), anyInt(), any(byte[].class));
+    }
+
+    @Test
+    void findByReferrerId_noReferrals_cachesSentinelWithShortTtl() {
+        // GIVEN
+        when(nonCachingDao.findByReferrerId("referrer")).thenReturn(new ArrayList<>());
+        when(cacheClient.getBytesWithTtl(KEY)).thenReturn(Optional.empty());
+        when(cacheClient.setValueIfAbsent(eq(KEY + "::lock"), anyLong(), anyString())).thenReturn(true);
+
+        // WHEN
+        List<ReferralRecord> records = cachingDao.findByReferrerId("referrer");
+
+        // THEN
+        assertTrue(records.isEmpty());
+        verify(cacheClient).setBytes(KEY, 10 * 60, "-".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void findChildIdsByReferrerId_sentinelHit_returnsEmptyWithoutLoading() {
+        // GIVEN
+        when(cacheClient.getValue("ReferralChildIdsKey::referrer")).thenReturn(Optional.of("-"));
+
+        // WHEN
+        List<String> childIds = cachingDao.findChildIdsByReferrerId("referrer");
+
+        // THEN
+        assertTrue(childIds.isEmpty());
+        verify(nonCachingDao, never()).findChildIdsByReferrerId(anyString());
+    }
+
+    @Test
+    void findByReferrerIds_loadsOnlyMissesAndBackFillsThem() {
+        // GIVEN
+        when(cacheClient.getBytesAll(Arrays.asList(KEY, "ReferralKey::new", "ReferralKey::nobody")))
+                .thenReturn(Arrays.asList(ReferralListCodec.encode(cached), null, null));
+        Map<String, List<ReferralRecord>> loaded = new HashMap<>();
+        loaded.put("new", fresh);
+        loaded.put("nobody", new ArrayList<>());
+        when(nonCachingDao.findByReferrerIds(Arrays.asList("new", "nobody"))).thenReturn(loaded);
+        ArgumentCaptor<Map> fills = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<ToIntFunction> ttls = ArgumentCaptor.forClass(ToIntFunction.class);
+
+        // WHEN
+        Map<String, List<ReferralRecord>> referrals =
+                cachingDao.findByReferrerIds(Arrays.asList("referrer", "new", "nobody", "referrer"));
+
+        // THEN
+        assertEquals(cached, referrals.get("referrer"));
+        assertEquals(fresh, referrals.get("new"));
+        assertTrue(referrals.get("nobody").isEmpty());
+        verify(cacheClient).setBytesAll(fills.capture(), ttls.capture());
+        assertEquals(fresh, ReferralListCodec.decode((byte[]) fills.getValue().get("ReferralKey::new")));
+        assertEquals("-", new String((byte[]) fills.getValue().get("ReferralKey::nobody"), StandardCharsets.UTF_8));
+        assertFalse(fills.getValue().containsKey(KEY));
+        assertEquals(60 * 60, ttls.getValue().applyAsInt("ReferralKey::new"));
+        assertEquals(10 * 60, ttls.getValue().applyAsInt("ReferralKey::nobody"));
+        verify(nonCachingDao, never()).findByReferrerId(anyString());
+    }
+
+    @Test
+    void findChildIdsByReferrerIds_allCached_makesOneRoundTrip() {
+        // GIVEN
+        when(cacheClient.getBytesAll(Arrays.asList("ReferralChildIdsKey::a", "ReferralChildIdsKey::b")))
+                .thenReturn(Arrays.asList("[\"a1\"]".getBytes(StandardCharsets.UTF_8),
+                        "-".getBytes(StandardCharsets.UTF_8)));
+
+        // WHEN
+        Map<String, List<String>> childIds = cachingDao.findChildIdsByReferrerIds(Arrays.asList("a", "b"));
+
+        // THEN
+        assertEquals(Arrays.asList("a1"), childIds.get("a"));
+        assertTrue(childIds.get("b").isEmpty());
+        verify(nonCachingDao, never()).findChildIdsByReferrerIds(any());
+        verify(cacheClient, never()).setBytesAll(any(), any());
+    }
+
+    @Test
+    void findChildIdsByReferrerId_recordsNegativeHitsAndMisses() {
+        // GIVEN
+        CacheMetrics metrics = mock(CacheMetrics.class);
+        CachingReferralDao measuredDao = new CachingReferralDao(cacheClient, nonCachingDao, null,
+                ReferralCacheFormat.BINARY, earlyRefresh, ReferralCacheWriteMode.INVALIDATE, metrics);
+        when(cacheClient.getValue("ReferralChildIdsKey::empty")).thenReturn(Optional.of("-"));
+        when(cacheClient.getValue("ReferralChildIdsKey::new")).thenReturn(Optional.empty());
+        when(nonCachingDao.findChildIdsByReferrerId("new")).thenReturn(Arrays.asList("a"));
+
+        // WHEN
+        measuredDao.findChildIdsByReferrerId("empty");
+        measuredDao.findChildIdsByReferrerId("new");
+
+        // THEN
+        verify(metrics).recordNegativeHit("referralChildIds");
+        verify(metrics).recordMiss("referralChildIds");
+        verify(metrics).recordLoad(eq("referralChildIds"), anyLong());
+        verify(metrics).recordPayloadSize("referralChildIds", "[\"a\"]".length());
+        verify(metrics, never()).recordHit(anyString());
+    }
+
+    @Test
+    void findByReferrerId_invalidationBusBehind_bypassesLocalCache() {
+        // GIVEN
+        InvalidationBus bus = mock(InvalidationBus.class);
+        LocalCache<String, List<ReferralRecord>> localCache =
+                new LocalCache<>(10, Duration.ofMinutes(1), Clock.systemUTC());
+        localCache.put("referrer", cached);
+        CachingReferralDao busDao = new CachingReferralDao(cacheClient, nonCachingDao, localCache,
+                ReferralCacheFormat.BINARY, earlyRefresh, ReferralCacheWriteMode.INVALIDATE, new NoOpCacheMetrics(),
+                bus);
+        when(bus.isCurrent()).thenReturn(false);
+        when(cacheClient.getBytesWithTtl(KEY))
+                .thenReturn(Optional.of(new CachedBytes(ReferralListCodec.encode(fresh), 60_000)));
+
+        // WHEN
+        List<ReferralRecord> behind = busDao.findByReferrerId("referrer");
+        when(bus.isCurrent()).thenReturn(true);
+        List<ReferralRecord> current = busDao.findByReferrerId("referrer");
+
+        // THEN
+        assertEquals(fresh, behind);
+        assertEquals(cached, current);
+        verify(cacheClient, times(1)).getBytesWithTtl(KEY);
+    }
+
+    @Test
+    void addReferral_withInvalidationBus_publishesReferrer() {
+        // GIVEN
+        InvalidationBus bus = mock(InvalidationBus.class);
+        CachingReferralDao busDao = new CachingReferralDao(cacheClient, nonCachingDao, null,
+                ReferralCacheFormat.BINARY, earlyRefresh, ReferralCacheWriteMode.INVALIDATE, new NoOpCacheMetrics(),
+                bus);
+        ReferralRecord added = record("new");
+        when(nonCachingDao.addReferral(added)).thenReturn(added);
+
+        // WHEN
+        busDao.addReferral(added);
+
+        // THEN
+        verify(bus).publish(Arrays.asList("referrer"));
+    }
+
+    @Test
+    void addReferral_rootWithInvalidationBus_publishesRoots() {
+        // GIVEN
+        InvalidationBus bus = mock(InvalidationBus.class);
+        CachingReferralDao busDao = new CachingReferralDao(cacheClient, nonCachingDao, null,
+                ReferralCacheFormat.BINARY, earlyRefresh, ReferralCacheWriteMode.INVALIDATE, new NoOpCacheMetrics(),
+                bus);
+        ReferralRecord root = new ReferralRecord();
+        root.setCustomerId("root");
+        when(nonCachingDao.addReferral(root)).thenReturn(root);
+
+        // WHEN
+        busDao.addReferral(root);
+
+        // THEN
+        verify(bus).publish(Arrays.asList(InvalidationBus.ROOTS));
+    }
+
+    @Test
+    void addReferral_invalidateMode_deletesReaderKeysBeforeAndAfterWrite() {
+        // GIVEN
+        ReferralRecord added = record("new");
+        List<String> keys = Arrays.asList(KEY, "ReferralCountKey::referrer", "ReferralChildIdsKey::referrer");
+
+        // WHEN
+        cachingDao.addReferral(added);
+
+        // THEN
+        InOrder inOrder = inOrder(cacheClient, nonCachingDao);
+        inOrder.verify(cacheClient).invalidateAll(keys);
+        inOrder.verify(nonCachingDao).addReferral(added);
+        inOrder.verify(cacheClient).invalidateAll(keys);
+    }
+
+    @Test
+    void addReferral_writeThrough_appendsToCachedValues() {
+        // GIVEN
+        CachingReferralDao writeThroughDao = new CachingReferralDao(cacheClient, nonCachingDao, null,
+                ReferralCacheFormat.BINARY, earlyRefresh, ReferralCacheWriteMode.WRITE_THROUGH);
+        ReferralRecord added = record("new");
+        when(nonCachingDao.addReferral(added)).thenReturn(added);
+        Map<String, byte[]> cachedValues = new HashMap<>();
+        cachedValues.put(KEY, ReferralListCodec.encode(cached));
+        cachedValues.put("ReferralChildIdsKey::referrer", "[\"cached\"]".getBytes(StandardCharsets.UTF_8));
+        cachedValues.put("ReferralCountKey::referrer", "1".getBytes(StandardCharsets.UTF_8));
+        Map<String, byte[]> changes = new HashMap<>();
+        when(cacheClient.updateCachedValues(anyListOf(String.class), any(UnaryOperator.class), anyInt()))
+                .thenAnswer(invocation -> {
+                    changes.putAll(((UnaryOperator<Map<String, byte[]>>) invocation.getArguments()[1])
+                            .apply(cachedValues));
+                    return true;
+                });
+
+        // WHEN
+        writeThroughDao.addReferral(added);
+
+        // THEN
+        assertEquals(Arrays.asList(record("cached"), added), ReferralListCodec.decode(changes.get(KEY)));
+        assertEquals("[\"cached\",\"new\"]",
+                new String(changes.get("ReferralChildIdsKey::referrer"), StandardCharsets.UTF_8));
+        assertEquals("2", new String(changes.get("ReferralCountKey::referrer"), StandardCharsets.UTF_8));
+        verify(cacheClient, never()).invalidateAll(anyListOf(String.class));
+    }
+
+    @Test
+    void addReferral_writeThroughWhileReaderLoads_deletesKeysThatWereNotCached() {
+        // GIVEN - a reader missed the cache before the write and is still loading the old list from DynamoDB
+        CachingReferralDao writeThroughDao = new CachingReferralDao(cacheClient, nonCachingDao, null,
+                ReferralCacheFormat.BINARY, earlyRefresh, ReferralCacheWriteMode.WRITE_THROUGH);
+        ReferralRecord added = record("new");
+        when(nonCachingDao.addReferral(added)).thenReturn(added);
+        Map<String, byte[]> cachedValues = new HashMap<>();
+        cachedValues.put(KEY, ReferralListCodec.encode(cached));
+        when(cacheClient.updateCachedValues(anyListOf(String.class), any(UnaryOperator.class), anyInt()))
+                .thenAnswer(invocation -> {
+                    // The first attempt conflicts with the reader's fill of the list, the second finds nothing
+                    UnaryOperator<Map<String, byte[]>> update =
+                            (UnaryOperator<Map<String, byte[]>>) invocation.getArguments()[1];
+                    update.apply(cachedValues);
+                    update.apply(new HashMap<>());
+                    return true;
+                });
+        ArgumentCaptor<List> deleted = ArgumentCaptor.forClass(List.class);
+
+        // WHEN
+        writeThroughDao.addReferral(added);
+
+        // THEN - whatever the reader fills in after the transaction is deleted again
+        InOrder inOrder = inOrder(nonCachingDao, cacheClient);
+        inOrder.verify(nonCachingDao).addReferral(added);
+        inOrder.verify(cacheClient).updateCachedValues(anyListOf(String.class), any(UnaryOperator.class), anyInt());
+        inOrder.verify(cacheClient).invalidateAll(deleted.capture());
+        assertEquals(new HashSet<>(Arrays.asList(KEY, "ReferralCountKey::referrer", "ReferralChildIdsKey::referrer")),
+                new HashSet<>(deleted.getValue()));
+    }
+
+    @Test
+    void addReferral_writeThroughOverSentinel_writesFirstReferral() {
+        // GIVEN
+        CachingReferralDao writeThroughDao = new CachingReferralDao(cacheClient, nonCachingDao, null,
+                ReferralCacheFormat.BINARY, earlyRefresh, ReferralCacheWriteMode.WRITE_THROUGH);
+        ReferralRecord added = record("new");
+        when(nonCachingDao.addReferral(added)).thenReturn(added);
+        ArgumentCaptor<UnaryOperator> update = ArgumentCaptor.forClass(UnaryOperator.class);
+        when(cacheClient.updateCachedValues(anyListOf(String.class), update.capture(), anyInt())).thenReturn(true);
+        Map<String, byte[]> cachedValues = new HashMap<>();
+        cachedValues.put(KEY, "-".getBytes(StandardCharsets.UTF_8));
+        cachedValues.put("ReferralChildIdsKey::referrer", "-".getBytes(StandardCharsets.UTF_8));
+
+        // WHEN
+        writeThroughDao.addReferral(added);
+        Map<String, byte[]> changes = (Map<String, byte[]>) update.getValue().apply(cachedValues);
+
+        // THEN
+        assertEquals(Arrays.asList(added), ReferralListCodec.decode(changes.get(KEY)));
+        assertEquals("[\"new\"]",
+                new String(changes.get("ReferralChildIdsKey::referrer"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void addReferral_writeThroughAlreadyCached_leavesListsAlone() {
+        // GIVEN
+        CachingReferralDao writeThroughDao = new CachingReferralDao(cacheClient, nonCachingDao, null,
+                ReferralCacheFormat.BINARY, earlyRefresh, ReferralCacheWriteMode.WRITE_THROUGH);
+        ReferralRecord added = record("new");
+        when(nonCachingDao.addReferral(added)).thenReturn(added);
+        ArgumentCaptor<UnaryOperator> update = ArgumentCaptor.forClass(UnaryOperator.class);
+        when(cacheClient.updateCachedValues(anyListOf(String.class), update.capture(), anyInt())).thenReturn(true);
+        Map<String, byte[]> cachedValues = new HashMap<>();
+        cachedValues.put(KEY, ReferralListCodec.encode(Arrays.asList(added)));
+        cachedValues.put("ReferralCountKey::referrer", "1".getBytes(StandardCharsets.UTF_8));
+
+        // WHEN
+        writeThroughDao.addReferral(added);
+        Map<String, byte[]> changes = (Map<String, byte[]>) update.getValue().apply(cachedValues);
+
+        // THEN - the count cannot be checked without the child IDs, so it is deleted
+        assertFalse(changes.containsKey(KEY));
+        assertTrue(changes.containsKey("ReferralCountKey::referrer"));
+        assertNull(changes.get("ReferralCountKey::referrer"));
+    }
+
+    private static ReferralRecord record(String customerId) {
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(customerId);
+        record.setReferrerId("referrer");
+        return record;
+    }
+}
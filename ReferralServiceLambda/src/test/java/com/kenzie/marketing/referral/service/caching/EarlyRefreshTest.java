@@ -0,0 +1,35 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EarlyRefreshTest {
+
+    @Test
+    void shouldRefresh_beforeAnyLoad_isFalse() {
+        assertFalse(new EarlyRefresh(1, () -> 0.000001).shouldRefresh(1));
+    }
+
+    @Test
+    void shouldRefresh_closeToExpiry_isTrue() {
+        // GIVEN - ln(0.01) is about -4.6, so a 100ms load refreshes within roughly 460ms of expiry
+        EarlyRefresh earlyRefresh = new EarlyRefresh(1, () -> 0.01);
+        earlyRefresh.recordLoad(100);
+
+        // WHEN - THEN
+        assertTrue(earlyRefresh.shouldRefresh(400));
+        assertFalse(earlyRefresh.shouldRefresh(500));
+    }
+
+    @Test
+    void shouldRefresh_noExpiry_isFalse() {
+        // GIVEN
+        EarlyRefresh earlyRefresh = new EarlyRefresh(1, () -> 0.000001);
+        earlyRefresh.recordLoad(100);
+
+        // WHEN - THEN
+        assertFalse(earlyRefresh.shouldRefresh(-1));
+    }
+}
@@ -0,0 +1,96 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EmfCacheMetricsTest {
+    private Clock clock;
+    private List<String> lines;
+    private EmfCacheMetrics metrics;
+
+    @BeforeEach
+    void setup() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        lines = new ArrayList<>();
+        metrics = new EmfCacheMetrics(lines::add, Duration.ofSeconds(60), clock);
+    }
+
+    @Test
+    void record_beforeInterval_writesNothing() {
+        // WHEN
+        metrics.recordHit("referrals");
+
+        // THEN
+        assertTrue(lines.isEmpty());
+    }
+
+    @Test
+    void flush_writesOneEmfLinePerOperation() {
+        // GIVEN
+        metrics.recordHit("referrals");
+        metrics.recordHit("referrals");
+        metrics.recordNegativeHit("referrals");
+        metrics.recordPayloadSize("referrals", 120);
+        metrics.recordMiss("referralCount");
+
+        // WHEN
+        metrics.flush();
+
+        // THEN
+        assertEquals(2, lines.size());
+        JsonObject count = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+        assertEquals("referralCount", count.get("Operation").getAsString());
+        assertEquals(1, count.get("Misses").getAsLong());
+        JsonObject referrals = JsonParser.parseString(lines.get(1)).getAsJsonObject();
+        assertEquals(2, referrals.get("Hits").getAsLong());
+        assertEquals(1, referrals.get("NegativeHits").getAsLong());
+        assertEquals(120, referrals.get("PayloadSize").getAsJsonArray().get(0).getAsDouble());
+        assertEquals(EmfCacheMetrics.NAMESPACE, referrals.getAsJsonObject("_aws").getAsJsonArray("CloudWatchMetrics")
+                .get(0).getAsJsonObject().get("Namespace").getAsString());
+    }
+
+    @Test
+    void record_afterInterval_flushesAndStartsOver() {
+        // GIVEN
+        metrics.recordCommand("GET", 2_000_000);
+        when(clock.millis()).thenReturn(60_000L);
+
+        // WHEN
+        metrics.recordCommand("GET", 4_000_000);
+        metrics.flush();
+
+        // THEN
+        assertEquals(1, lines.size());
+        JsonObject get = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+        assertEquals(2, get.get("Calls").getAsLong());
+        assertEquals(2, get.get("Latency").getAsJsonArray().size());
+    }
+
+    @Test
+    void recordConnectionWait_manySamples_keepsAtMostOneHundred() {
+        // GIVEN
+        for (int i = 0; i < 1000; i++) {
+            metrics.recordConnectionWait(1_000_000);
+        }
+
+        // WHEN
+        metrics.flush();
+
+        // THEN
+        JsonObject pool = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+        assertEquals(100, pool.get("ConnectionWait").getAsJsonArray().size());
+    }
+}
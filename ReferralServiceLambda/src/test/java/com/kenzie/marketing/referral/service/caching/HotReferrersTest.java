@@ -0,0 +1,68 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HotReferrersTest {
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    private CacheClient cacheClient;
+    private HotReferrers hotReferrers;
+
+    @BeforeEach
+    void setup() {
+        cacheClient = mock(CacheClient.class);
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(10 * HOUR_MILLIS + 5);
+        hotReferrers = new HotReferrers(cacheClient, 1, clock);
+    }
+
+    @Test
+    void recordAccess_countsReadInCurrentHour() {
+        // WHEN
+        hotReferrers.recordAccess("a");
+
+        // THEN
+        verify(cacheClient).incrementSortedSetScore(CacheKeys.referrerAccess(10), "a", 1, 2 * 60 * 60);
+    }
+
+    @Test
+    void recordAccess_redisDown_doesNotThrow() {
+        // GIVEN
+        doThrow(new RuntimeException("Redis unavailable")).when(cacheClient)
+                .incrementSortedSetScore(anyString(), anyString(), anyDouble(), anyInt());
+
+        // WHEN - THEN
+        hotReferrers.recordAccess("a");
+    }
+
+    @Test
+    void hottest_mergesCurrentAndPreviousHour() {
+        // GIVEN
+        Map<String, Double> previous = new HashMap<>();
+        previous.put("a", 5.0);
+        previous.put("b", 4.0);
+        Map<String, Double> current = new HashMap<>();
+        current.put("b", 3.0);
+        current.put("c", 6.0);
+        when(cacheClient.getSortedSetDescending(CacheKeys.referrerAccess(9), 0, 1)).thenReturn(previous);
+        when(cacheClient.getSortedSetDescending(CacheKeys.referrerAccess(10), 0, 1)).thenReturn(current);
+
+        // WHEN - THEN
+        assertEquals(Arrays.asList("b", "c"), hotReferrers.hottest(2));
+    }
+}
@@ -0,0 +1,99 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InvalidationBusTest {
+    private CacheClient cacheClient;
+    private Clock clock;
+    private InvalidationBus bus;
+    private List<Collection<String>> invalidations;
+    private int resets;
+
+    @BeforeEach
+    void setup() {
+        cacheClient = mock(CacheClient.class);
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(10_000L);
+        bus = new InvalidationBus(cacheClient, Duration.ofSeconds(2), clock);
+        invalidations = new ArrayList<>();
+        resets = 0;
+        bus.addListener(invalidations::add, () -> resets++);
+    }
+
+    @Test
+    void publish_sendsReferrerIdsOnTheChannel() {
+        // WHEN
+        bus.publish(Arrays.asList("a", "b"));
+
+        // THEN
+        verify(cacheClient).publish(InvalidationBus.CHANNEL, "[\"a\",\"b\"]");
+    }
+
+    @Test
+    void publish_redisDown_doesNotThrow() {
+        // GIVEN
+        doThrow(new RuntimeException("Redis unavailable")).when(cacheClient).publish(anyString(), anyString());
+
+        // WHEN - THEN
+        bus.publish(Arrays.asList("a"));
+    }
+
+    @Test
+    void onMessage_invalidation_notifiesListeners() {
+        // WHEN
+        bus.onMessage(InvalidationBus.CHANNEL, "[\"a\",\"b\"]");
+
+        // THEN
+        assertEquals(1, invalidations.size());
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(invalidations.get(0)));
+    }
+
+    @Test
+    void isCurrent_beforeAnyHeartbeat_isFalse() {
+        assertFalse(bus.isCurrent());
+    }
+
+    @Test
+    void isCurrent_followsTheNewestHeartbeat() {
+        // GIVEN
+        ArgumentCaptor<String> channel = ArgumentCaptor.forClass(String.class);
+        bus.sendHeartbeat();
+        verify(cacheClient).publish(channel.capture(), eq("10000"));
+
+        // WHEN
+        bus.onMessage(channel.getValue(), "10000");
+
+        // THEN
+        assertTrue(bus.isCurrent());
+        when(clock.millis()).thenReturn(12_001L);
+        assertFalse(bus.isCurrent());
+    }
+
+    @Test
+    void onSubscribed_resetsListeners() {
+        // WHEN
+        bus.onSubscribed();
+
+        // THEN
+        assertEquals(1, resets);
+    }
+}
@@ -0,0 +1,83 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LocalCacheTest {
+    private Clock clock;
+    private LocalCache<String, String> cache;
+
+    @BeforeEach
+    void setup() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        cache = new LocalCache<>(2, Duration.ofSeconds(5), clock);
+    }
+
+    @Test
+    void get_afterPut_hits() {
+        // GIVEN
+        cache.put("a", "value");
+
+        // WHEN
+        Optional<String> value = cache.get("a");
+
+        // THEN
+        assertEquals(Optional.of("value"), value);
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(0, cache.getStats().getMisses());
+    }
+
+    @Test
+    void put_overMaxSize_evictsLeastRecentlyUsed() {
+        // GIVEN
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+
+        // WHEN
+        cache.put("c", "3");
+
+        // THEN
+        assertFalse(cache.get("b").isPresent());
+        assertEquals(Optional.of("1"), cache.get("a"));
+        assertEquals(1, cache.getStats().getEvictions());
+    }
+
+    @Test
+    void get_afterTtl_expires() {
+        // GIVEN
+        cache.put("a", "value");
+        when(clock.millis()).thenReturn(5000L);
+
+        // WHEN
+        Optional<String> value = cache.get("a");
+
+        // THEN
+        assertFalse(value.isPresent());
+        assertEquals(1, cache.getStats().getExpirations());
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    void invalidate_removesEntry() {
+        // GIVEN
+        cache.put("a", "value");
+
+        // WHEN
+        cache.invalidate("a");
+
+        // THEN
+        assertFalse(cache.get("a").isPresent());
+        assertEquals(1, cache.getStats().getMisses());
+    }
+}
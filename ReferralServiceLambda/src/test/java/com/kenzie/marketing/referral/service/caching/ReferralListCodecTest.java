@@ -0,0 +1,61 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReferralListCodecTest {
+
+    @Test
+    void decode_encodedList_roundTrips() {
+        // GIVEN
+        ZonedDateTime date = ZonedDateTime.of(2026, 10, 17, 12, 30, 0, 123_000_000, ZoneOffset.UTC);
+        List<ReferralRecord> records = Arrays.asList(record("customer-\u00e9", "referrer", date),
+                record("root", null, null));
+
+        // WHEN
+        List<ReferralRecord> decoded = ReferralListCodec.decode(ReferralListCodec.encode(records));
+
+        // THEN
+        assertEquals(records, decoded);
+        assertEquals(date, decoded.get(0).getDateReferred());
+        assertNull(decoded.get(1).getReferrerId());
+        assertNull(decoded.get(1).getDateReferred());
+    }
+
+    @Test
+    void isBinary_jsonValue_isFalse() {
+        assertTrue(ReferralListCodec.isBinary(ReferralListCodec.encode(Arrays.asList())));
+        assertFalse(ReferralListCodec.isBinary("[]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void decode_truncatedValue_throws() {
+        // GIVEN
+        byte[] encoded = ReferralListCodec.encode(Arrays.asList(record("customer", "referrer", null)));
+
+        // WHEN - THEN
+        assertThrows(IllegalArgumentException.class,
+                () -> ReferralListCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+
+    private static ReferralRecord record(String customerId, String referrerId, ZonedDateTime date) {
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(customerId);
+        record.setReferrerId(referrerId);
+        record.setDateReferred(date);
+        return record;
+    }
+}
@@ -0,0 +1,72 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+
+    @Test
+    void run_concurrentCallers_shareOneLoad() throws Exception {
+        // GIVEN
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            // WHEN
+            Future<String> first = executor.submit(() -> singleFlight.run("key", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return "value";
+            }));
+            loading.await(5, TimeUnit.SECONDS);
+            Future<String> second = executor.submit(() -> singleFlight.run("key", () -> {
+                loads.incrementAndGet();
+                return "other";
+            }));
+            // Give the second caller time to join the running load before releasing it
+            Thread.sleep(200);
+            release.countDown();
+
+            // THEN
+            assertEquals("value", first.get(5, TimeUnit.SECONDS));
+            assertEquals("value", second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+            assertEquals(0, singleFlight.inFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void run_loaderThrows_rethrowsAndForgetsKey() {
+        // GIVEN
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        // WHEN - THEN
+        assertThrows(IllegalStateException.class, () -> singleFlight.run("key", () -> {
+            throw new IllegalStateException("DynamoDB unavailable");
+        }));
+        assertEquals("value", singleFlight.run("key", () -> "value"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
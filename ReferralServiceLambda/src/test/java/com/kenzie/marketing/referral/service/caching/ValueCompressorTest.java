@@ -0,0 +1,106 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ValueCompressorTest {
+    private final CacheMetrics metrics = mock(CacheMetrics.class);
+    private final ValueCompressor compressor = new ValueCompressor(100, metrics);
+
+    @Test
+    void compress_largeValue_roundTrips() {
+        // GIVEN
+        byte[] value = largeJson();
+
+        // WHEN
+        byte[] compressed = compressor.compress(value);
+
+        // THEN
+        assertTrue(ValueCompressor.isCompressed(compressed));
+        assertTrue(compressed.length < value.length);
+        assertArrayEquals(value, compressor.decompress(compressed));
+        verify(metrics).recordCompression(value.length, compressed.length);
+    }
+
+    @Test
+    void compress_smallValue_storesItPlain() {
+        // GIVEN
+        byte[] value = "[]".getBytes(StandardCharsets.UTF_8);
+
+        // WHEN
+        byte[] stored = compressor.compress(value);
+
+        // THEN
+        assertSame(value, stored);
+        verify(metrics, never()).recordCompression(anyInt(), anyInt());
+    }
+
+    @Test
+    void compress_incompressibleValue_storesItPlain() {
+        // GIVEN
+        byte[] value = new byte[1000];
+        new Random(7).nextBytes(value);
+        value[0] = '[';
+
+        // WHEN
+        byte[] stored = compressor.compress(value);
+
+        // THEN
+        assertSame(value, stored);
+    }
+
+    @Test
+    void decompress_plainValues_returnsThemUnchanged() {
+        // GIVEN
+        byte[] json = largeJson();
+        byte[] binary = ReferralListCodec.encode(Arrays.asList());
+
+        // WHEN - THEN
+        assertFalse(ValueCompressor.isCompressed(json));
+        assertFalse(ValueCompressor.isCompressed(binary));
+        assertSame(json, compressor.decompress(json));
+        assertSame(binary, compressor.decompress(binary));
+    }
+
+    @Test
+    void decompress_disabledCompressor_stillReadsCompressedValues() {
+        // GIVEN
+        byte[] value = largeJson();
+        byte[] compressed = compressor.compress(value);
+
+        // WHEN - THEN
+        assertArrayEquals(value, new ValueCompressor(0, metrics).decompress(compressed));
+    }
+
+    @Test
+    void decompress_truncatedValue_throws() {
+        // GIVEN
+        byte[] compressed = compressor.compress(largeJson());
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        // WHEN - THEN
+        assertThrows(IllegalStateException.class, () -> compressor.decompress(truncated));
+    }
+
+    private static byte[] largeJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"customerId\":\"customer").append(i)
+                    .append("\",\"referrerId\":\"top\",\"dateReferred\":\"2021-01-01T00:00:00Z\"}");
+        }
+        return json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
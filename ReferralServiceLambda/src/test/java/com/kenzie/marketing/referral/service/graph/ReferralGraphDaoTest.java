@@ -0,0 +1,255 @@
+package com.kenzie.marketing.referral.service.graph;
+
+import com.kenzie.marketing.referral.service.caching.InvalidationBus;
+import com.kenzie.marketing.referral.service.dao.ReferralDao;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReferralGraphDaoTest {
+    private ReferralDao delegate;
+    private List<ReferralRecord> table;
+    private AtomicInteger scans;
+    private InvalidationBus bus;
+    private Clock clock;
+    private Consumer<Collection<String>> changes;
+    private Runnable missedChanges;
+    private ReferralGraphDao graphDao;
+
+    @BeforeEach
+    void setup() {
+        delegate = mock(ReferralDao.class);
+        when(delegate.addReferral(any(ReferralRecord.class))).thenAnswer(invocation -> invocation.getArguments()[0]);
+        table = new ArrayList<>();
+        table.add(referral("root", null));
+        table.add(referral("a", "root"));
+        table.add(referral("b", "root"));
+        table.add(referral("a1", "a"));
+        table.add(referral("a11", "a1"));
+        scans = new AtomicInteger();
+        bus = mock(InvalidationBus.class);
+        when(bus.isCurrent()).thenReturn(true);
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(10_000L);
+        graphDao = new ReferralGraphDao(delegate, consumer -> {
+            scans.incrementAndGet();
+            table.forEach(consumer);
+        }, bus, 2, Runnable::run, clock);
+        ArgumentCaptor<Consumer> listener = ArgumentCaptor.forClass(Consumer.class);
+        ArgumentCaptor<Runnable> reset = ArgumentCaptor.forClass(Runnable.class);
+        verify(bus).addListener(listener.capture(), reset.capture());
+        changes = listener.getValue();
+        missedChanges = reset.getValue();
+        graphDao.loadInBackground();
+    }
+
+    @Test
+    void findByReferrerId_readsFromGraph() {
+        // WHEN
+        List<ReferralRecord> referrals = graphDao.findByReferrerId("root");
+
+        // THEN
+        assertEquals(Arrays.asList("a", "b"), customerIds(referrals));
+        assertEquals("root", referrals.get(0).getReferrerId());
+        verify(delegate, never()).findByReferrerId(anyString());
+    }
+
+    @Test
+    void countLevels_countsEachLevelOnce() {
+        // WHEN
+        List<Integer> levels = graphDao.countLevels("root", 4);
+
+        // THEN
+        assertEquals(Arrays.asList(2, 1, 1, 0), levels);
+        assertEquals(4, graphDao.subtreeSize("root"));
+        assertEquals(1, scans.get());
+    }
+
+    @Test
+    void addReferral_afterLoad_isVisibleWithoutReload() {
+        // GIVEN
+        graphDao.findUsersWithoutReferrerId();
+
+        // WHEN
+        graphDao.addReferral(referral("c", "root"));
+        graphDao.addReferral(referral("c1", "c"));
+        graphDao.addReferral(referral("c11", "c1"));
+
+        // THEN
+        assertEquals(Arrays.asList("a", "b", "c"), customerIds(graphDao.findByReferrerId("root")));
+        assertEquals(Arrays.asList(3, 2, 2), graphDao.countLevels("root", 3));
+        assertEquals(1, scans.get());
+    }
+
+    @Test
+    void findUsersWithoutReferrerId_includesNewRoots() {
+        // GIVEN
+        graphDao.findUsersWithoutReferrerId();
+
+        // WHEN
+        graphDao.addReferral(referral("newRoot", null));
+
+        // THEN
+        assertEquals(Arrays.asList("root", "newRoot"), customerIds(graphDao.findUsersWithoutReferrerId()));
+    }
+
+    @Test
+    void countAndChildIds_includeOverlay() {
+        // GIVEN
+        graphDao.findUsersWithoutReferrerId();
+
+        // WHEN
+        graphDao.addReferral(referral("c", "root"));
+
+        // THEN
+        assertEquals(3, graphDao.countByReferrerId("root"));
+        assertEquals(Arrays.asList("a", "b", "c"), graphDao.findChildIdsByReferrerId("root"));
+        assertEquals(0, graphDao.countByReferrerId("unknown"));
+    }
+
+    @Test
+    void addReferral_overlayFull_compactsOnLoadExecutorAndKeepsLaterWrites() {
+        // GIVEN
+        List<Runnable> tasks = new ArrayList<>();
+        ReferralGraphDao queued = new ReferralGraphDao(delegate, consumer -> table.forEach(consumer), bus, 2,
+                tasks::add, clock);
+        queued.loadInBackground();
+        tasks.remove(0).run();
+
+        // WHEN
+        queued.addReferral(referral("c", "root"));
+        queued.addReferral(referral("d", "root"));
+        List<ReferralRecord> beforeCompaction = queued.findByReferrerId("root");
+        queued.addReferral(referral("e", "root"));
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+
+        // THEN
+        assertEquals(Arrays.asList("a", "b", "c", "d"), customerIds(beforeCompaction));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), customerIds(queued.findByReferrerId("root")));
+        assertEquals(Arrays.asList(5, 1, 1), queued.countLevels("root", 3));
+    }
+
+    @Test
+    void findByReferrerId_notLoaded_readsDelegate() {
+        // GIVEN
+        ReferralGraphDao unloaded = new ReferralGraphDao(delegate, consumer -> table.forEach(consumer), bus, 2,
+                task -> { }, clock);
+        when(delegate.findByReferrerId("root")).thenReturn(new ArrayList<>());
+
+        // WHEN
+        unloaded.findByReferrerId("root");
+
+        // THEN
+        verify(delegate).findByReferrerId("root");
+        assertFalse(unloaded.awaitLoaded(Duration.ZERO));
+    }
+
+    @Test
+    void findByReferrerId_busBehind_readsDelegate() {
+        // GIVEN
+        when(bus.isCurrent()).thenReturn(false);
+        when(delegate.findByReferrerId("root")).thenReturn(new ArrayList<>());
+
+        // WHEN
+        graphDao.findByReferrerId("root");
+
+        // THEN
+        verify(delegate).findByReferrerId("root");
+    }
+
+    @Test
+    void findByReferrerId_changedElsewhere_readsDelegateUntilSettledThenGraph() {
+        // GIVEN
+        when(delegate.findByReferrerId("root")).thenReturn(new ArrayList<>(Arrays.asList(
+                referral("a", "root"), referral("b", "root"), referral("c", "root"))));
+        changes.accept(Collections.singletonList("root"));
+
+        // WHEN
+        List<ReferralRecord> unsettled = graphDao.findByReferrerId("root");
+        when(clock.millis()).thenReturn(16_000L);
+        graphDao.findByReferrerId("root");
+        List<ReferralRecord> folded = graphDao.findByReferrerId("root");
+
+        // THEN
+        assertEquals(Arrays.asList("a", "b", "c"), customerIds(unsettled));
+        assertEquals(Arrays.asList("a", "b", "c"), customerIds(folded));
+        assertEquals(3, graphDao.countByReferrerId("root"));
+        verify(delegate, times(2)).findByReferrerId("root");
+    }
+
+    @Test
+    void countLevels_changedReferrer_includesNewChildren() {
+        // GIVEN
+        when(delegate.findByReferrerId("a1")).thenReturn(new ArrayList<>(Arrays.asList(
+                referral("a11", "a1"), referral("a12", "a1"))));
+        changes.accept(Collections.singletonList("a1"));
+
+        // WHEN
+        List<Integer> levels = graphDao.countLevels("root", 4);
+
+        // THEN
+        assertEquals(Arrays.asList(2, 1, 2, 0), levels);
+    }
+
+    @Test
+    void findUsersWithoutReferrerId_rootsChangedElsewhere_readsDelegate() {
+        // GIVEN
+        when(delegate.findUsersWithoutReferrerId()).thenReturn(new ArrayList<>(Arrays.asList(
+                referral("root", null), referral("newRoot", null))));
+        changes.accept(Collections.singletonList(InvalidationBus.ROOTS));
+
+        // WHEN
+        List<ReferralRecord> roots = graphDao.findUsersWithoutReferrerId();
+
+        // THEN
+        assertEquals(Arrays.asList("root", "newRoot"), customerIds(roots));
+    }
+
+    @Test
+    void missedChanges_reloadsGraph() {
+        // GIVEN
+        table.add(referral("c", "root"));
+
+        // WHEN
+        missedChanges.run();
+
+        // THEN
+        assertEquals(2, scans.get());
+        assertEquals(Arrays.asList("a", "b", "c"), customerIds(graphDao.findByReferrerId("root")));
+    }
+
+    private static List<String> customerIds(List<ReferralRecord> referrals) {
+        return referrals.stream().map(ReferralRecord::getCustomerId).collect(Collectors.toList());
+    }
+
+    private static ReferralRecord referral(String customerId, String referrerId) {
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(customerId);
+        record.setReferrerId(referrerId);
+        return record;
+    }
+}
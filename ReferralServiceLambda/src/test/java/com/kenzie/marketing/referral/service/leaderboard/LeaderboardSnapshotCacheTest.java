@@ -0,0 +1,180 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LeaderboardSnapshotCacheTest {
+    private static final long NOW = 1_000_000L;
+
+    private LeaderboardSnapshotStore store;
+    private LeaderboardSnapshotCache snapshotCache;
+    private AtomicInteger computations;
+    private List<LeaderboardEntry> fresh;
+    private Supplier<List<LeaderboardEntry>> compute;
+
+    @BeforeEach
+    void setup() {
+        store = mock(LeaderboardSnapshotStore.class);
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC);
+        snapshotCache = new LeaderboardSnapshotCache(store, Duration.ofSeconds(30), Duration.ofSeconds(60),
+                Duration.ofMillis(1), clock);
+        computations = new AtomicInteger();
+        fresh = Collections.singletonList(new LeaderboardEntry(4, "fresh"));
+        compute = () -> {
+            computations.incrementAndGet();
+            return fresh;
+        };
+    }
+
+    @Test
+    void get_noSnapshotAndLockAcquired_computesAndStores() {
+        // GIVEN
+        when(store.read()).thenReturn(Optional.empty());
+        when(store.tryLockRefresh(Duration.ofSeconds(60))).thenReturn(Optional.of("token"));
+        ArgumentCaptor<LeaderboardSnapshot> snapshotCaptor = ArgumentCaptor.forClass(LeaderboardSnapshot.class);
+
+        // WHEN
+        List<LeaderboardEntry> entries = snapshotCache.get(compute);
+
+        // THEN
+        assertEquals(fresh, entries);
+        assertEquals(1, computations.get());
+        verify(store).write(snapshotCaptor.capture());
+        assertEquals(NOW, snapshotCaptor.getValue().getComputedAtMillis());
+        verify(store).unlockRefresh("token");
+    }
+
+    @Test
+    void get_noSnapshotAndLockHeldElsewhere_waitsForTheOtherContainersSnapshot() {
+        // GIVEN
+        List<LeaderboardEntry> stored = Collections.singletonList(new LeaderboardEntry(2, "stored"));
+        when(store.read()).thenReturn(Optional.empty(), Optional.empty(),
+                Optional.of(new LeaderboardSnapshot(stored, NOW)));
+        when(store.tryLockRefresh(Duration.ofSeconds(60))).thenReturn(Optional.empty());
+
+        // WHEN
+        List<LeaderboardEntry> entries = snapshotCache.get(compute);
+
+        // THEN
+        assertEquals("stored", entries.get(0).getCustomerId());
+        assertEquals(0, computations.get());
+        verify(store, never()).write(any(LeaderboardSnapshot.class));
+        verify(store, never()).unlockRefresh(anyString());
+    }
+
+    @Test
+    void get_freshSnapshot_servesWithoutComputing() {
+        // GIVEN
+        List<LeaderboardEntry> stored = Collections.singletonList(new LeaderboardEntry(2, "stored"));
+        when(store.read()).thenReturn(Optional.of(new LeaderboardSnapshot(stored, NOW - 5_000)));
+
+        // WHEN
+        List<LeaderboardEntry> entries = snapshotCache.get(compute);
+
+        // THEN
+        assertEquals("stored", entries.get(0).getCustomerId());
+        assertEquals(0, computations.get());
+        verify(store, never()).tryLockRefresh(any(Duration.class));
+    }
+
+    @Test
+    void peek_staleSnapshot_servesItWithoutRefreshing() {
+        // GIVEN
+        List<LeaderboardEntry> stored = Collections.singletonList(new LeaderboardEntry(2, "stored"));
+        when(store.read()).thenReturn(Optional.of(new LeaderboardSnapshot(stored, NOW - 90_000)));
+
+        // WHEN
+        List<LeaderboardEntry> entries = snapshotCache.peek();
+
+        // THEN
+        assertEquals("stored", entries.get(0).getCustomerId());
+        verify(store, never()).tryLockRefresh(any(Duration.class));
+    }
+
+    @Test
+    void peek_noSnapshot_returnsEmptyWithoutComputing() {
+        // GIVEN
+        when(store.read()).thenReturn(Optional.empty());
+
+        // WHEN
+        List<LeaderboardEntry> entries = snapshotCache.peek();
+
+        // THEN
+        assertEquals(0, entries.size());
+        verify(store, never()).tryLockRefresh(any(Duration.class));
+        verify(store, never()).write(any(LeaderboardSnapshot.class));
+    }
+
+    @Test
+    void get_staleSnapshotAndLockAcquired_refreshesWithinTheCall() {
+        // GIVEN
+        List<LeaderboardEntry> stored = Collections.singletonList(new LeaderboardEntry(2, "stored"));
+        when(store.read()).thenReturn(Optional.of(new LeaderboardSnapshot(stored, NOW - 45_000)));
+        when(store.tryLockRefresh(Duration.ofSeconds(60))).thenReturn(Optional.of("token"));
+
+        // WHEN
+        List<LeaderboardEntry> entries = snapshotCache.get(compute);
+
+        // THEN
+        assertEquals(fresh, entries);
+        assertEquals(1, computations.get());
+        verify(store).write(any(LeaderboardSnapshot.class));
+        verify(store).unlockRefresh("token");
+    }
+
+    @Test
+    void get_staleSnapshotAndRefreshFails_servesStaleAndReleasesLock() {
+        // GIVEN
+        List<LeaderboardEntry> stored = Collections.singletonList(new LeaderboardEntry(2, "stored"));
+        when(store.read()).thenReturn(Optional.of(new LeaderboardSnapshot(stored, NOW - 45_000)));
+        when(store.tryLockRefresh(Duration.ofSeconds(60))).thenReturn(Optional.of("token"));
+
+        // WHEN
+        List<LeaderboardEntry> entries = snapshotCache.get(() -> {
+            throw new IllegalStateException("scan failed");
+        });
+
+        // THEN
+        assertEquals("stored", entries.get(0).getCustomerId());
+        verify(store, never()).write(any(LeaderboardSnapshot.class));
+        verify(store).unlockRefresh("token");
+    }
+
+    @Test
+    void get_staleSnapshotAndLockHeldElsewhere_doesNotRefresh() {
+        // GIVEN
+        List<LeaderboardEntry> stored = Collections.singletonList(new LeaderboardEntry(2, "stored"));
+        when(store.read()).thenReturn(Optional.of(new LeaderboardSnapshot(stored, NOW - 45_000)));
+        when(store.tryLockRefresh(Duration.ofSeconds(60))).thenReturn(Optional.empty());
+
+        // WHEN
+        List<LeaderboardEntry> entries = snapshotCache.get(compute);
+
+        // THEN
+        assertEquals("stored", entries.get(0).getCustomerId());
+        assertEquals(0, computations.get());
+        verify(store, never()).write(any(LeaderboardSnapshot.class));
+        verify(store, never()).unlockRefresh(anyString());
+    }
+}
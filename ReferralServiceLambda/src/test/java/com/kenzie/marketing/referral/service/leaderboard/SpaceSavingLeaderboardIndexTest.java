@@ -0,0 +1,278 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.model.LeaderboardRank;
+import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the index's Lua scripts with LuaJ against an in-memory stand-in for the Redis sorted set and hash commands
+ * they use, so the update, eviction and rebuild logic is checked without a Redis server.
+ */
+class SpaceSavingLeaderboardIndexTest {
+    private FakeRedis redis;
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        redis = new FakeRedis();
+        cacheClient = mock(CacheClient.class);
+        when(cacheClient.runScript(anyString(), anyListOf(String.class), anyListOf(String.class)))
+                .thenAnswer(invocation -> {
+                    Object[] arguments = invocation.getArguments();
+                    redis.run((String) arguments[0], (List<String>) arguments[1], (List<String>) arguments[2]);
+                    return null;
+                });
+        when(cacheClient.getSortedSetDescending(anyString(), anyLong(), anyLong()))
+                .thenAnswer(invocation -> redis.descending((String) invocation.getArguments()[0],
+                        (Long) invocation.getArguments()[1], (Long) invocation.getArguments()[2]));
+        when(cacheClient.getHashValues(anyString(), anyListOf(String.class)))
+                .thenAnswer(invocation -> redis.hashValues((String) invocation.getArguments()[0],
+                        (List<String>) invocation.getArguments()[1]));
+        when(cacheClient.getSortedSetScore(anyString(), anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(redis.zset((String) invocation.getArguments()[0])
+                        .get((String) invocation.getArguments()[1])));
+        when(cacheClient.countSortedSetAbove(anyString(), anyDouble()))
+                .thenAnswer(invocation -> redis.zset((String) invocation.getArguments()[0]).values().stream()
+                        .filter(score -> score > (Double) invocation.getArguments()[1])
+                        .count());
+    }
+
+    @Test
+    void recordReferral_belowCapacity_countsExactly() {
+        // GIVEN
+        SpaceSavingLeaderboardIndex index = new SpaceSavingLeaderboardIndex(cacheClient, 3);
+
+        // WHEN
+        refer(index, "a", 3);
+        refer(index, "b", 1);
+        index.recordReferral(referral("root", null));
+
+        // THEN
+        List<LeaderboardEntry> page = index.page(0, 5);
+        assertEquals(2, page.size());
+        assertEntry(page.get(0), "a", 3, 0);
+        assertEntry(page.get(1), "b", 1, 0);
+    }
+
+    @Test
+    void recordReferral_full_evictsSmallestAndInheritsItsCountAsError() {
+        // GIVEN
+        SpaceSavingLeaderboardIndex index = new SpaceSavingLeaderboardIndex(cacheClient, 2);
+        refer(index, "a", 3);
+        refer(index, "b", 1);
+
+        // WHEN
+        refer(index, "c", 1);
+
+        // THEN - c may have made anywhere from 1 to 2 referrals
+        List<LeaderboardEntry> page = index.page(0, 5);
+        assertEquals(2, page.size());
+        assertEntry(page.get(0), "a", 3, 0);
+        assertEntry(page.get(1), "c", 2, 1);
+        assertFalse(index.rank("b").isPresent());
+        LeaderboardRank rank = index.rank("c").get();
+        assertEquals(2, rank.getRank());
+    }
+
+    @Test
+    void rebuild_resetsToExactCountsAndDropsReferrersItDoesNotRank() {
+        // GIVEN
+        SpaceSavingLeaderboardIndex index = new SpaceSavingLeaderboardIndex(cacheClient, 2);
+        refer(index, "a", 2);
+        refer(index, "b", 1);
+        refer(index, "c", 1);
+
+        // WHEN
+        index.rebuild(Arrays.asList(entry("a", 4), entry("b", 3), entry("c", 1)));
+
+        // THEN - only the two heaviest fit, and they carry no error
+        List<LeaderboardEntry> page = index.page(0, 5);
+        assertEquals(2, page.size());
+        assertEntry(page.get(0), "a", 4, 0);
+        assertEntry(page.get(1), "b", 3, 0);
+    }
+
+    @Test
+    void rebuild_countRoseDuringScan_keepsHigherCountWithinItsErrorBound() {
+        // GIVEN - c inherited b's count of 2 when it took b's place
+        SpaceSavingLeaderboardIndex index = new SpaceSavingLeaderboardIndex(cacheClient, 1);
+        refer(index, "b", 2);
+        refer(index, "c", 1);
+
+        // WHEN - the scan counted 2 of c's referrals, and one more was recorded while it ran
+        index.rebuild(Arrays.asList(entry("c", 2)));
+
+        // THEN - c made between 2 and 3 referrals
+        List<LeaderboardEntry> page = index.page(0, 5);
+        assertEquals(1, page.size());
+        assertEntry(page.get(0), "c", 3, 1);
+    }
+
+    private static void refer(SpaceSavingLeaderboardIndex index, String referrerId, int times) {
+        for (int i = 0; i < times; i++) {
+            index.recordReferral(referral(referrerId + "-child" + i, referrerId));
+        }
+    }
+
+    private static ReferralRecord referral(String customerId, String referrerId) {
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(customerId);
+        record.setReferrerId(referrerId);
+        return record;
+    }
+
+    private static LeaderboardEntry entry(String customerId, int numReferrals) {
+        return new LeaderboardEntry(numReferrals, customerId);
+    }
+
+    private static void assertEntry(LeaderboardEntry entry, String customerId, int numReferrals, int errorBound) {
+        assertEquals(customerId, entry.getCustomerId());
+        assertEquals(numReferrals, entry.getNumReferrals());
+        assertEquals(errorBound, (int) entry.getErrorBound());
+    }
+
+    /**
+     * The sorted set and hash commands the scripts call, with Redis's Lua reply conversions: a missing value is
+     * false, a bulk reply is a string and an integer reply is a number.
+     */
+    private static class FakeRedis {
+        private final Map<String, Map<String, Double>> zsets = new HashMap<>();
+        private final Map<String, Map<String, String>> hashes = new HashMap<>();
+
+        void run(String script, List<String> keys, List<String> args) {
+            Globals globals = JsePlatform.standardGlobals();
+            LuaTable redisTable = new LuaTable();
+            redisTable.set("call", new VarArgFunction() {
+                @Override
+                public Varargs invoke(Varargs call) {
+                    List<String> command = new ArrayList<>();
+                    for (int i = 1; i <= call.narg(); i++) {
+                        command.add(call.arg(i).tojstring());
+                    }
+                    return FakeRedis.this.call(command);
+                }
+            });
+            globals.set("redis", redisTable);
+            globals.set("KEYS", toTable(keys));
+            globals.set("ARGV", toTable(args));
+            globals.load(script).call();
+        }
+
+        Map<String, Double> zset(String key) {
+            return zsets.computeIfAbsent(key, k -> new HashMap<>());
+        }
+
+        Map<String, Double> descending(String key, long start, long stop) {
+            List<Map.Entry<String, Double>> sorted = ascending(key);
+            Map<String, Double> members = new LinkedHashMap<>();
+            for (long i = start; i <= stop && i < sorted.size(); i++) {
+                Map.Entry<String, Double> member = sorted.get(sorted.size() - 1 - (int) i);
+                members.put(member.getKey(), member.getValue());
+            }
+            return members;
+        }
+
+        List<String> hashValues(String key, List<String> fields) {
+            Map<String, String> hash = hash(key);
+            List<String> values = new ArrayList<>();
+            fields.forEach(field -> values.add(hash.get(field)));
+            return values;
+        }
+
+        private LuaValue call(List<String> command) {
+            String key = command.get(1);
+            switch (command.get(0).toLowerCase()) {
+                case "zscore":
+                    Double score = zset(key).get(command.get(2));
+                    return score == null ? LuaValue.FALSE : LuaValue.valueOf(format(score));
+                case "zincrby":
+                    double incremented = zset(key).merge(command.get(3), Double.parseDouble(command.get(2)),
+                            Double::sum);
+                    return LuaValue.valueOf(format(incremented));
+                case "zadd":
+                    Double previous = zset(key).put(command.get(3), Double.parseDouble(command.get(2)));
+                    return LuaValue.valueOf(previous == null ? 1 : 0);
+                case "zrem":
+                    return LuaValue.valueOf(zset(key).remove(command.get(2)) == null ? 0 : 1);
+                case "zcard":
+                    return LuaValue.valueOf(zset(key).size());
+                case "zrange":
+                    return zrange(key, Integer.parseInt(command.get(2)), Integer.parseInt(command.get(3)),
+                            command.size() > 4);
+                case "hset":
+                    return LuaValue.valueOf(hash(key).put(command.get(2), command.get(3)) == null ? 1 : 0);
+                case "hget":
+                    String value = hash(key).get(command.get(2));
+                    return value == null ? LuaValue.FALSE : LuaValue.valueOf(value);
+                case "hdel":
+                    return LuaValue.valueOf(hash(key).remove(command.get(2)) == null ? 0 : 1);
+                default:
+                    throw new IllegalArgumentException("Unsupported command " + command);
+            }
+        }
+
+        private LuaValue zrange(String key, int start, int stop, boolean withScores) {
+            List<Map.Entry<String, Double>> sorted = ascending(key);
+            int last = stop < 0 ? sorted.size() + stop : Math.min(stop, sorted.size() - 1);
+            LuaTable reply = new LuaTable();
+            int position = 1;
+            for (int i = start; i <= last; i++) {
+                reply.set(position++, LuaValue.valueOf(sorted.get(i).getKey()));
+                if (withScores) {
+                    reply.set(position++, LuaValue.valueOf(format(sorted.get(i).getValue())));
+                }
+            }
+            return reply;
+        }
+
+        private List<Map.Entry<String, Double>> ascending(String key) {
+            List<Map.Entry<String, Double>> sorted = new ArrayList<>(zset(key).entrySet());
+            sorted.sort(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+            return sorted;
+        }
+
+        private Map<String, String> hash(String key) {
+            return hashes.computeIfAbsent(key, k -> new HashMap<>());
+        }
+
+        private static String format(double score) {
+            return score == Math.rint(score) ? String.valueOf((long) score) : String.valueOf(score);
+        }
+
+        private static LuaTable toTable(List<String> values) {
+            LuaTable table = new LuaTable();
+            for (int i = 0; i < values.size(); i++) {
+                table.set(i + 1, LuaValue.valueOf(values.get(i)));
+            }
+            return table;
+        }
+    }
+}
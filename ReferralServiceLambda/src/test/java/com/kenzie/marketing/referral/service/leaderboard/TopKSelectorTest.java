@@ -0,0 +1,53 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopKSelectorTest {
+
+    @Test
+    void toSortedList_keepsLargestItemsInDescendingOrder() {
+        // GIVEN
+        TopKSelector<Integer> topK = new TopKSelector<>(3, Comparator.naturalOrder());
+
+        // WHEN
+        for (int value : new int[] {5, 1, 9, 3, 7, 2, 8}) {
+            topK.offer(value);
+        }
+
+        // THEN
+        assertEquals(Arrays.asList(9, 8, 7), topK.toSortedList());
+    }
+
+    @Test
+    void toSortedList_fewerItemsThanCapacity_returnsAll() {
+        // GIVEN
+        TopKSelector<Integer> topK = new TopKSelector<>(5, Comparator.naturalOrder());
+
+        // WHEN
+        topK.offer(2);
+        topK.offer(4);
+
+        // THEN
+        assertEquals(Arrays.asList(4, 2), topK.toSortedList());
+    }
+
+    @Test
+    void toSortedList_zeroCapacity_isEmpty() {
+        // GIVEN
+        TopKSelector<Integer> topK = new TopKSelector<>(0, Comparator.naturalOrder());
+
+        // WHEN
+        topK.offer(1);
+        List<Integer> result = topK.toSortedList();
+
+        // THEN
+        assertTrue(result.isEmpty());
+    }
+}
@@ -0,0 +1,108 @@
+package com.kenzie.marketing.referral.service.leaderboard;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WindowedLeaderboardIndexTest {
+    private CacheClient cacheClient;
+    private WindowedLeaderboardIndex index;
+
+    @BeforeEach
+    void setup() {
+        cacheClient = mock(CacheClient.class);
+        Clock clock = Clock.fixed(Instant.parse("2026-10-17T12:00:00Z"), ZoneOffset.UTC);
+        index = new WindowedLeaderboardIndex(cacheClient, clock);
+    }
+
+    @Test
+    void recordReferral_countsReferrerInUtcDayBucket() {
+        // GIVEN
+        ReferralRecord referral = new ReferralRecord();
+        referral.setCustomerId("customer");
+        referral.setReferrerId("referrer");
+        // Still the 16th in New York, but already the 17th in UTC
+        referral.setDateReferred(ZonedDateTime.of(2026, 10, 16, 21, 0, 0, 0, ZoneId.of("America/New_York")));
+
+        // WHEN
+        index.recordReferral(referral);
+
+        // THEN
+        verify(cacheClient).incrementSortedSetScore(eq("ReferralLeaderboard::day::2026-10-17"), eq("referrer"),
+                eq(1.0), anyInt());
+    }
+
+    @Test
+    void recordReferral_withoutReferrer_isIgnored() {
+        // GIVEN
+        ReferralRecord referral = new ReferralRecord();
+        referral.setCustomerId("customer");
+
+        // WHEN
+        index.recordReferral(referral);
+
+        // THEN
+        verify(cacheClient, never()).incrementSortedSetScore(anyString(), anyString(), anyDouble(), anyInt());
+    }
+
+    @Test
+    void page_week_mergesSevenDailyBuckets() {
+        // GIVEN
+        String weekKey = "ReferralLeaderboard::week::2026-10-17";
+        Map<String, Double> merged = new LinkedHashMap<>();
+        merged.put("referrer", 3.0);
+        when(cacheClient.exists(weekKey)).thenReturn(false);
+        when(cacheClient.getSortedSetDescendingAbove(weekKey, 0, 0, 5)).thenReturn(merged);
+        ArgumentCaptor<List> dayKeys = ArgumentCaptor.forClass(List.class);
+
+        // WHEN
+        List<LeaderboardEntry> entries = index.page(LeaderboardWindow.WEEK, 0, 5);
+
+        // THEN
+        verify(cacheClient).unionSortedSets(eq(weekKey), dayKeys.capture(), anyInt());
+        assertEquals(7, dayKeys.getValue().size());
+        assertEquals("ReferralLeaderboard::day::2026-10-17", dayKeys.getValue().get(0));
+        assertEquals("ReferralLeaderboard::day::2026-10-11", dayKeys.getValue().get(6));
+        assertEquals(1, entries.size());
+        assertEquals("referrer", entries.get(0).getCustomerId());
+        assertEquals(3, entries.get(0).getNumReferrals());
+    }
+
+    @Test
+    void page_weekAlreadyMerged_reusesMergedSet() {
+        // GIVEN
+        String weekKey = "ReferralLeaderboard::week::2026-10-17";
+        when(cacheClient.exists(weekKey)).thenReturn(true);
+        when(cacheClient.getSortedSetDescendingAbove(weekKey, 0, 0, 5)).thenReturn(new LinkedHashMap<>());
+
+        // WHEN
+        index.page(LeaderboardWindow.WEEK, 0, 5);
+
+        // THEN
+        verify(cacheClient, never()).unionSortedSets(anyString(), anyList(), anyInt());
+    }
+}
@@ -0,0 +1,119 @@
+package com.kenzie.marketing.referral.service.summary;
+
+import com.kenzie.marketing.referral.service.dao.ReferralSummaryDao;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.model.ReferralSummaryRecord;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReferralSummaryRebuilderTest {
+    private ReferralSummaryDao summaryDao;
+    private ReferralSummaryRebuilder rebuilder;
+    private List<ReferralRecord> referrals;
+    private List<ReferralSummaryRecord> summaries;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        summaryDao = mock(ReferralSummaryDao.class);
+        rebuilder = new ReferralSummaryRebuilder(summaryDao);
+        referrals = new ArrayList<>();
+        summaries = new ArrayList<>();
+        doAnswer(invocation -> {
+            referrals.forEach((Consumer<ReferralRecord>) invocation.getArguments()[0]);
+            return null;
+        }).when(summaryDao).scanReferrals(any(Consumer.class));
+        doAnswer(invocation -> {
+            summaries.forEach((Consumer<ReferralSummaryRecord>) invocation.getArguments()[0]);
+            return null;
+        }).when(summaryDao).scanSummaries(any(Consumer.class));
+    }
+
+    @Test
+    void rebuild_repair_writesOnlyWrongCountersGuardedOnTheValuesRead() {
+        // GIVEN
+        referral("root", null);
+        referral("a", "root");
+        referral("b", "root");
+        referral("a1", "a");
+        referral("a11", "a1");
+        summaries.add(summary("root", 2, 1, 1));
+        summaries.add(summary("a", 5, 0, 0));
+        summaries.add(summary("stale", 1, 0, 0));
+        when(summaryDao.repairSummary(any(ReferralSummaryRecord.class), any(ReferralSummaryRecord.class)))
+                .thenReturn(true);
+
+        // WHEN
+        ReferralSummaryReport report = rebuilder.rebuild(true);
+
+        // THEN
+        assertEquals(5, report.getReferralsScanned());
+        // root, a, a1 and stale
+        assertEquals(4, report.getSummariesChecked());
+        // a is wrong, a1 is missing and stale should be zero
+        assertEquals(3, report.getMismatched());
+        assertEquals(0, report.getConflicts());
+        verify(summaryDao).repairSummary(summary("a", 1, 1, 0), summary("a", 5, 0, 0));
+        verify(summaryDao).repairSummary(summary("a1", 1, 0, 0), null);
+        verify(summaryDao).repairSummary(summary("stale", 0, 0, 0), summary("stale", 1, 0, 0));
+        verify(summaryDao, never()).repairSummary(eq(summary("root", 2, 1, 1)), any(ReferralSummaryRecord.class));
+    }
+
+    @Test
+    void rebuild_repairOfCounterChangedSinceRead_isReportedAsConflict() {
+        // GIVEN
+        referral("a", "root");
+        summaries.add(summary("root", 0, 0, 0));
+        when(summaryDao.repairSummary(summary("root", 1, 0, 0), summary("root", 0, 0, 0))).thenReturn(false);
+
+        // WHEN
+        ReferralSummaryReport report = rebuilder.rebuild(true);
+
+        // THEN
+        assertEquals(1, report.getMismatched());
+        assertEquals(1, report.getConflicts());
+    }
+
+    @Test
+    void rebuild_verifyOnly_doesNotWrite() {
+        // GIVEN
+        referral("a", "root");
+
+        // WHEN
+        ReferralSummaryReport report = rebuilder.rebuild(false);
+
+        // THEN
+        assertEquals(1, report.getMismatched());
+        verify(summaryDao, never()).repairSummary(any(ReferralSummaryRecord.class), any(ReferralSummaryRecord.class));
+    }
+
+    private void referral(String customerId, String referrerId) {
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(customerId);
+        record.setReferrerId(referrerId);
+        referrals.add(record);
+    }
+
+    private static ReferralSummaryRecord summary(String customerId, int first, int second, int third) {
+        ReferralSummaryRecord summary = new ReferralSummaryRecord();
+        summary.setCustomerId(customerId);
+        summary.setNumFirstLevelReferrals(first);
+        summary.setNumSecondLevelReferrals(second);
+        summary.setNumThirdLevelReferrals(third);
+        return summary;
+    }
+}
@@ -0,0 +1,117 @@
+package com.kenzie.marketing.referral.service.task;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FanOutExecutorTest {
+    private ExecutorService pool;
+    private FanOutExecutor fanOutExecutor;
+
+    @BeforeEach
+    void setup() {
+        pool = FanOutExecutor.newBoundedPool(4);
+        fanOutExecutor = new FanOutExecutor(pool);
+    }
+
+    @AfterEach
+    void teardown() {
+        fanOutExecutor.shutdown();
+    }
+
+    @Test
+    void invokeAll_allTasksSucceed_returnsEveryResult() {
+        // GIVEN
+        List<Callable<Integer>> tasks = Arrays.asList(() -> 1, () -> 2, () -> 3);
+
+        // WHEN
+        FanOutResult<Integer> result = fanOutExecutor.invokeAll(tasks);
+
+        // THEN
+        List<Integer> results = new ArrayList<>(result.getResults());
+        Collections.sort(results);
+        assertEquals(Arrays.asList(1, 2, 3), results);
+        assertTrue(result.isComplete());
+        assertEquals(3, result.getReport().getSucceeded());
+    }
+
+    @Test
+    void invokeAll_slowAndFailingTasks_reportsThemWithoutLosingOthers() {
+        // GIVEN
+        List<Callable<Integer>> tasks = Arrays.asList(
+                () -> 1,
+                () -> {
+                    Thread.sleep(5000);
+                    return 2;
+                },
+                () -> {
+                    throw new IllegalStateException("lookup failed");
+                });
+
+        // WHEN
+        FanOutResult<Integer> result = fanOutExecutor.invokeAll(tasks,
+                Duration.ofMillis(100), Duration.ofSeconds(1));
+
+        // THEN
+        assertEquals(Collections.singletonList(1), result.getResults());
+        assertFalse(result.isComplete());
+        assertEquals(3, result.getReport().getSubmitted());
+        assertEquals(1, result.getReport().getSucceeded());
+        assertEquals(1, result.getReport().getFailed());
+        assertEquals(1, result.getReport().getTimedOut());
+    }
+
+    @Test
+    void invokeAll_calledRepeatedly_reusesThePool() {
+        // GIVEN
+        List<Callable<Integer>> tasks = Collections.singletonList(() -> 1);
+
+        // WHEN
+        fanOutExecutor.invokeAll(tasks);
+        FanOutResult<Integer> second = fanOutExecutor.invokeAll(tasks);
+
+        // THEN
+        assertFalse(pool.isShutdown());
+        assertEquals(Collections.singletonList(1), second.getResults());
+    }
+
+    @Test
+    void newBatch_maxInFlight_neverQueuesMoreTasksThanAllowed() {
+        // GIVEN
+        FanOutExecutor bounded = new FanOutExecutor(pool, Duration.ofSeconds(5), Duration.ofSeconds(10), 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        FanOutBatch<Integer> batch = bounded.newBatch();
+        List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+
+        // WHEN
+        for (int i = 0; i < 20; i++) {
+            int value = i;
+            batch.submit(() -> {
+                mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                running.decrementAndGet();
+                return value;
+            });
+        }
+        FanOutReport report = batch.awaitAll(results::add);
+
+        // THEN
+        assertTrue(mostRunning.get() <= 2);
+        assertEquals(20, results.size());
+        assertEquals(20, report.getSucceeded());
+    }
+}
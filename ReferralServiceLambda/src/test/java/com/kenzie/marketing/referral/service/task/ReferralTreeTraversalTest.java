@@ -0,0 +1,107 @@
+package com.kenzie.marketing.referral.service.task;
+
+import com.kenzie.marketing.referral.service.dao.ReferralDao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReferralTreeTraversalTest {
+    private ReferralDao referralDao;
+    private ReferralTreeTraversal traversal;
+
+    @BeforeEach
+    void setup() {
+        referralDao = mock(ReferralDao.class);
+        when(referralDao.findChildIdsByReferrerId(anyString())).thenReturn(new ArrayList<>());
+        // Mocks do not run default methods, so the batch lookup is answered with the mocked single lookups
+        when(referralDao.findChildIdsByReferrerIds(any())).thenAnswer(invocation -> {
+            Map<String, List<String>> childIds = new HashMap<>();
+            for (Object referrerId : (Collection<?>) invocation.getArguments()[0]) {
+                childIds.put((String) referrerId, referralDao.findChildIdsByReferrerId((String) referrerId));
+            }
+            return childIds;
+        });
+        traversal = new ReferralTreeTraversal(referralDao);
+    }
+
+    @Test
+    void countLevels_countsEachLevel() {
+        // GIVEN
+        when(referralDao.findChildIdsByReferrerId("root")).thenReturn(Arrays.asList("a", "b"));
+        when(referralDao.findChildIdsByReferrerId("a")).thenReturn(Arrays.asList("a1", "a2"));
+        when(referralDao.findChildIdsByReferrerId("b")).thenReturn(Arrays.asList("b1"));
+        when(referralDao.findChildIdsByReferrerId("a1")).thenReturn(Arrays.asList("a11"));
+
+        // WHEN
+        List<Integer> levels = traversal.countLevels("root", 3);
+
+        // THEN
+        assertEquals(Arrays.asList(2, 3, 1), levels);
+    }
+
+    @Test
+    void countLevels_cycle_visitsEachCustomerOnce() {
+        // GIVEN
+        when(referralDao.findChildIdsByReferrerId("root")).thenReturn(Arrays.asList("a"));
+        when(referralDao.findChildIdsByReferrerId("a")).thenReturn(Arrays.asList("root", "b"));
+        when(referralDao.findChildIdsByReferrerId("b")).thenReturn(Arrays.asList("a"));
+
+        // WHEN
+        List<Integer> levels = traversal.countLevels("root", 3);
+
+        // THEN
+        assertEquals(Arrays.asList(1, 1, 0), levels);
+        verify(referralDao, times(1)).findChildIdsByReferrerId("a");
+    }
+
+    @Test
+    void countLevels_emptyLevel_stopsLookingUp() {
+        // GIVEN
+        when(referralDao.findChildIdsByReferrerId("root")).thenReturn(Arrays.asList("a"));
+
+        // WHEN
+        List<Integer> levels = traversal.countLevels("root", 5);
+
+        // THEN
+        assertEquals(Arrays.asList(1, 0, 0, 0, 0), levels);
+        verify(referralDao, times(2)).findChildIdsByReferrerId(anyString());
+    }
+
+    @Test
+    void countLevels_looksUpEachLevelInOneBatch() {
+        // GIVEN
+        when(referralDao.findChildIdsByReferrerId("root")).thenReturn(Arrays.asList("a", "b", "c"));
+        when(referralDao.findChildIdsByReferrerId("a")).thenReturn(Arrays.asList("a1"));
+
+        // WHEN
+        traversal.countLevels("root", 3);
+
+        // THEN
+        verify(referralDao, times(3)).findChildIdsByReferrerIds(any());
+    }
+
+    @Test
+    void countLevels_failedLookup_throws() {
+        // GIVEN
+        when(referralDao.findChildIdsByReferrerId("root")).thenThrow(new RuntimeException("DynamoDB unavailable"));
+
+        // WHEN - THEN
+        assertThrows(IllegalStateException.class, () -> traversal.countLevels("root", 3));
+    }
+}
@@ -5,18 +5,29 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kenzie.marketing.referral.model.CustomerReferrals;
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.model.LeaderboardRank;
 import com.kenzie.marketing.referral.model.Referral;
+import com.kenzie.marketing.referral.model.ReferralBonus;
 import com.kenzie.marketing.referral.model.ReferralRequest;
 import com.kenzie.marketing.referral.model.ReferralResponse;
+import com.kenzie.marketing.referral.model.ReferralSummaryBatchRequest;
 
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class ReferralServiceClient {
 
     private static final String ADD_REFERRAL_ENDPOINT = "referral/add";
     private static final String GET_REFERRAL_SUMMARY_ENDPOINT = "referral/{customerId}";
+    private static final String GET_REFERRAL_SUMMARIES_ENDPOINT = "referral/summary/batch";
+    private static final String GET_REFERRAL_BONUS_ENDPOINT =
+            "referral/{customerId}/bonus?depth={depth}&weights={weights}";
     private static final String GET_DIRECT_REFERRALS_ENDPOINT = "referral/list/{customerId}";
     private static final String GET_LEADERBOARD_ENDPOINT = "referral/leaderboard";
+    private static final String GET_LEADERBOARD_PAGE_ENDPOINT =
+            "referral/leaderboard?window={window}&offset={offset}&limit={limit}";
+    private static final String GET_LEADERBOARD_RANK_ENDPOINT = "referral/leaderboard/{customerId}";
 
     private ObjectMapper mapper;
 
@@ -54,6 +65,50 @@ public class ReferralServiceClient {
         return referrals;
     }
 
+    /**
+     * Gets the referral summaries of many customers in one call.
+     * @param customerIds the customers to summarize, at most 500
+     * @return each customer's summary, by customer ID
+     */
+    public Map<String, CustomerReferrals> getReferralSummaries(List<String> customerIds) {
+        EndpointUtility endpointUtility = new EndpointUtility();
+        String request;
+        try {
+            request = mapper.writeValueAsString(new ReferralSummaryBatchRequest(customerIds));
+        } catch(JsonProcessingException e) {
+            throw new ApiGatewayException("Unable to serialize request: " + e);
+        }
+        String response = endpointUtility.postEndpoint(GET_REFERRAL_SUMMARIES_ENDPOINT, request);
+        Map<String, CustomerReferrals> summaries;
+        try {
+            summaries = mapper.readValue(response, new TypeReference<>(){});
+        } catch (Exception e) {
+            throw new ApiGatewayException("Unable to map deserialize JSON: " + e);
+        }
+        return summaries;
+    }
+
+    /**
+     * Gets a customer's referral counts for as many levels as there are weights, and the bonus they add up to.
+     * @param customerId the customer to calculate the bonus for
+     * @param weights the bonus for each referral at each level, starting with the direct referrals
+     * @return the level counts and the weighted bonus
+     */
+    public ReferralBonus getReferralBonus(String customerId, List<Double> weights) {
+        EndpointUtility endpointUtility = new EndpointUtility();
+        String response = endpointUtility.getEndpoint(GET_REFERRAL_BONUS_ENDPOINT
+                .replace("{customerId}", customerId)
+                .replace("{depth}", String.valueOf(weights.size()))
+                .replace("{weights}", weights.stream().map(String::valueOf).collect(Collectors.joining(","))));
+        ReferralBonus bonus;
+        try {
+            bonus = mapper.readValue(response, ReferralBonus.class);
+        } catch (Exception e) {
+            throw new ApiGatewayException("Unable to map deserialize JSON: " + e);
+        }
+        return bonus;
+    }
+
     public List<Referral> getDirectReferrals(String customerId) {
         EndpointUtility endpointUtility = new EndpointUtility();
         String response = endpointUtility.getEndpoint(GET_DIRECT_REFERRALS_ENDPOINT.replace("{customerId}", customerId));
@@ -77,4 +132,43 @@ public class ReferralServiceClient {
         }
         return leaderboard;
     }
+
+    public List<LeaderboardEntry> getLeaderboard(int offset, int limit) {
+        return getLeaderboard("ALL_TIME", offset, limit);
+    }
+
+    /**
+     * Gets one page of the leaderboard for a period of time.
+     * @param window one of ALL_TIME, DAY, WEEK or MONTH
+     * @param offset the number of entries to skip
+     * @param limit the maximum number of entries to return
+     * @return the leaderboard entries in the page
+     */
+    public List<LeaderboardEntry> getLeaderboard(String window, int offset, int limit) {
+        EndpointUtility endpointUtility = new EndpointUtility();
+        String response = endpointUtility.getEndpoint(GET_LEADERBOARD_PAGE_ENDPOINT
+                .replace("{window}", window)
+                .replace("{offset}", String.valueOf(offset))
+                .replace("{limit}", String.valueOf(limit)));
+        List<LeaderboardEntry> leaderboard;
+        try {
+            leaderboard = mapper.readValue(response, new TypeReference<>(){});
+        } catch (Exception e) {
+            throw new ApiGatewayException("Unable to map deserialize JSON: " + e);
+        }
+        return leaderboard;
+    }
+
+    public LeaderboardRank getLeaderboardRank(String customerId) {
+        EndpointUtility endpointUtility = new EndpointUtility();
+        String response = endpointUtility.getEndpoint(
+                GET_LEADERBOARD_RANK_ENDPOINT.replace("{customerId}", customerId));
+        LeaderboardRank rank;
+        try {
+            rank = mapper.readValue(response, LeaderboardRank.class);
+        } catch (Exception e) {
+            throw new ApiGatewayException("Unable to map deserialize JSON: " + e);
+        }
+        return rank;
+    }
 }
@@ -3,6 +3,7 @@ package com.kenzie.marketing.referral.model;
 public class LeaderboardEntry {
     private int numReferrals;
     private String customerId;
+    private Integer errorBound;
 
     public LeaderboardEntry(int numReferrals, String customerId) {
         this.numReferrals = numReferrals;
@@ -27,4 +28,15 @@ public class LeaderboardEntry {
     public void setCustomerId(String customerId) {
         this.customerId = customerId;
     }
+
+    /**
+     * @return for approximate leaderboards, how far numReferrals may overstate the true count; null when exact
+     */
+    public Integer getErrorBound() {
+        return errorBound;
+    }
+
+    public void setErrorBound(Integer errorBound) {
+        this.errorBound = errorBound;
+    }
 }
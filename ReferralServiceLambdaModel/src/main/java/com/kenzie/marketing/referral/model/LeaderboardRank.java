@@ -0,0 +1,43 @@
+package com.kenzie.marketing.referral.model;
+
+public class LeaderboardRank {
+    private String customerId;
+    private int numReferrals;
+    private long rank;
+
+    public LeaderboardRank(String customerId, int numReferrals, long rank) {
+        this.customerId = customerId;
+        this.numReferrals = numReferrals;
+        this.rank = rank;
+    }
+
+    public LeaderboardRank() {
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public int getNumReferrals() {
+        return numReferrals;
+    }
+
+    public void setNumReferrals(int numReferrals) {
+        this.numReferrals = numReferrals;
+    }
+
+    /**
+     * @return the 1-based position on the leaderboard; customers with the same number of referrals share a rank
+     */
+    public long getRank() {
+        return rank;
+    }
+
+    public void setRank(long rank) {
+        this.rank = rank;
+    }
+}
@@ -0,0 +1,48 @@
+package com.kenzie.marketing.referral.model;
+
+import java.util.List;
+
+public class ReferralBonus {
+    private String customerId;
+    private List<Integer> levelCounts;
+    private double bonus;
+
+    public ReferralBonus(String customerId, List<Integer> levelCounts, double bonus) {
+        this.customerId = customerId;
+        this.levelCounts = levelCounts;
+        this.bonus = bonus;
+    }
+
+    public ReferralBonus() {
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    /**
+     * @return the number of customers at each level below the customer, where index 0 holds the direct referrals
+     */
+    public List<Integer> getLevelCounts() {
+        return levelCounts;
+    }
+
+    public void setLevelCounts(List<Integer> levelCounts) {
+        this.levelCounts = levelCounts;
+    }
+
+    /**
+     * @return the sum of each level's count multiplied by that level's weight
+     */
+    public double getBonus() {
+        return bonus;
+    }
+
+    public void setBonus(double bonus) {
+        this.bonus = bonus;
+    }
+}
@@ -0,0 +1,29 @@
+package com.kenzie.marketing.referral.model;
+
+import java.util.List;
+
+public class ReferralSummaryBatchRequest {
+    private List<String> customerIds;
+
+    public ReferralSummaryBatchRequest(List<String> customerIds) {
+        this.customerIds = customerIds;
+    }
+
+    public ReferralSummaryBatchRequest() {
+    }
+
+    public List<String> getCustomerIds() {
+        return customerIds;
+    }
+
+    public void setCustomerIds(List<String> customerIds) {
+        this.customerIds = customerIds;
+    }
+
+    @Override
+    public String toString() {
+        return "ReferralSummaryBatchRequest{" +
+                "customerIds=" + customerIds +
+                '}';
+    }
+}